@@ -0,0 +1,47 @@
+package org.ResourceMonitoring.app;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of the admission of a batch of demands.
+ */
+public class BatchReport {
+    private final List<Connection> admitted = new ArrayList<>();
+    private final List<ImmutablePair<Demand, String>> rejected = new ArrayList<>();
+    private long elapsedNanos;
+
+    void admit(Connection c){
+        admitted.add(c);
+    }
+
+    void reject(Demand d, String reason){
+        rejected.add(new ImmutablePair<>(d, reason));
+    }
+
+    void setElapsedNanos(long elapsedNanos){
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public List<Connection> getAdmitted(){
+        return Collections.unmodifiableList(admitted);
+    }
+
+    /* Rejected demands with the reason of the rejection */
+    public List<ImmutablePair<Demand, String>> getRejected(){
+        return Collections.unmodifiableList(rejected);
+    }
+
+    /* Time from the submission of the batch to the confirmation of its rules */
+    public long getElapsedMillis(){
+        return elapsedNanos / 1_000_000;
+    }
+
+    /* Processed demands per second */
+    public double getThroughput(){
+        return elapsedNanos == 0 ? 0 : (admitted.size() + rejected.size()) * 1e9 / elapsedNanos;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.onlab.packet.IpPrefix;
+import org.onosproject.net.Link;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reservation of a connection for a window of time, booked in advance.
+ * It becomes an established connection shortly before its start and is withdrawn at its end.
+ */
+public class Booking {
+
+    public enum State {SCHEDULED, ACTIVE, EXPIRED, CANCELLED, FAILED}
+
+    private final static AtomicLong NEXT_ID = new AtomicLong(0);
+
+    public final long id;
+    public final IpPrefix source;
+    public final IpPrefix destination;
+    public final int bandwidth;
+    public final ReservationClass reservationClass;
+    // window of the reservation, in milliseconds since the epoch
+    public final long start;
+    public final long end;
+    // path booked at the time of the request, used at the start if still up
+    public final List<Link> path;
+
+    public volatile State state = State.SCHEDULED;
+
+    // the connection established at the start
+    public volatile Connection connection;
+
+    volatile TimerWheel.Timeout activation, expiry;
+
+    public Booking(IpPrefix source, IpPrefix destination, int bandwidth, ReservationClass reservationClass,
+                   long start, long end, List<Link> path){
+        this(NEXT_ID.incrementAndGet(), source, destination, bandwidth, reservationClass, start, end, path);
+    }
+
+    /* A booking restored with its previous id, the ids of new bookings will follow it */
+    public Booking(long id, IpPrefix source, IpPrefix destination, int bandwidth, ReservationClass reservationClass,
+                   long start, long end, List<Link> path){
+        NEXT_ID.accumulateAndGet(id, Math::max);
+        this.id = id;
+        this.source = source;
+        this.destination = destination;
+        this.bandwidth = bandwidth;
+        this.reservationClass = reservationClass;
+        this.start = start;
+        this.end = end;
+        this.path = path;
+    }
+
+    /* Unordered pair of endpoints of the booked connection */
+    public ConnectionKey key(){
+        return new ConnectionKey(source, destination);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.onosproject.net.Link;
+import org.onosproject.net.LinkKey;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Bandwidth booked on each link over time.
+ * The timeline of a link is a step function: each key is the time from which the bandwidth booked on the link
+ * takes its value, until the next key. Booking a window changes only the steps inside it and the peak over a window
+ * is found visiting only those steps.
+ * Bookings already active are also charged in the reservation ledger, so they are discounted from what is booked now.
+ */
+public class BookingCalendar {
+
+    private final Map<LinkKey, TreeMap<Long, Integer>> timelines = new HashMap<>();
+
+    // bandwidth of the active bookings on each link, already charged in the ledger
+    private final Map<LinkKey, Integer> active = new HashMap<>();
+
+    // links charged by each booking, in both directions
+    private final Map<Long, List<LinkKey>> charged = new HashMap<>();
+
+    // ids of the active bookings
+    private final Set<Long> activated = new HashSet<>();
+
+    private final Map<Long, Booking> bookings = new ConcurrentHashMap<>();
+
+    /* Bandwidth booked on the link at some time of the window and not yet charged in the ledger */
+    public synchronized int getBooked(Link l, long from, long to){
+        LinkKey k = LinkKey.linkKey(l);
+        TreeMap<Long, Integer> timeline = timelines.get(k);
+        if (timeline == null)
+            return 0;
+
+        return peak(timeline, from, to) - active.getOrDefault(k, 0);
+    }
+
+    /* Book the links for the window of the booking if each of them, given the bandwidth it has available now
+     * in the ledger, has enough bandwidth left for the whole window. The links must include the opposite ones.
+     * Another booking between the same endpoints must not overlap the window */
+    public synchronized boolean book(Booking b, List<Link> links, ToIntFunction<Link> available) throws Error{
+        if (overlaps(b.key(), b.start, b.end))
+            throw new Error("Another reservation between those endpoints overlaps the requested window!");
+
+        for (Link l : links)
+            if (available.applyAsInt(l) - getBooked(l, b.start, b.end) < b.bandwidth)
+                return false;
+
+        List<LinkKey> keys = new ArrayList<>(links.size());
+        for (Link l : links)
+            keys.add(LinkKey.linkKey(l));
+        put(b, keys);
+        return true;
+    }
+
+    /* Book the booked path of a booking restored from the journal in both directions, even if the links
+     * no longer have enough bandwidth */
+    public synchronized void restore(Booking b){
+        List<LinkKey> keys = new ArrayList<>(2 * b.path.size());
+        for (Link l : b.path)
+            keys.add(LinkKey.linkKey(l));
+        for (Link l : b.path)
+            keys.add(LinkKey.linkKey(l.dst(), l.src()));
+        put(b, keys);
+    }
+
+    private void put(Booking b, List<LinkKey> keys){
+        for (LinkKey k : keys)
+            add(timelines.computeIfAbsent(k, x -> new TreeMap<>()), b.start, b.end, b.bandwidth);
+
+        charged.put(b.id, keys);
+        bookings.put(b.id, b);
+    }
+
+    /* The booking has been charged in the ledger, its bandwidth is no longer counted as booked */
+    public synchronized void activate(Booking b){
+        List<LinkKey> keys = charged.get(b.id);
+        if (keys != null && activated.add(b.id))
+            for (LinkKey k : keys)
+                active.merge(k, b.bandwidth, Integer::sum);
+    }
+
+    /* Forget the booking and free its window */
+    public synchronized void remove(Booking b){
+        bookings.remove(b.id);
+        List<LinkKey> keys = charged.remove(b.id);
+        if (keys == null)
+            return;
+
+        boolean wasActive = activated.remove(b.id);
+        for (LinkKey k : keys){
+            TreeMap<Long, Integer> timeline = timelines.get(k);
+            add(timeline, b.start, b.end, -b.bandwidth);
+            if (timeline.isEmpty())
+                timelines.remove(k);
+
+            if (wasActive && active.merge(k, -b.bandwidth, Integer::sum) <= 0)
+                active.remove(k);
+        }
+    }
+
+    /* Booking with the specified id, or null */
+    public Booking get(long id){
+        return bookings.get(id);
+    }
+
+    /* Every booking not yet expired */
+    public Collection<Booking> getBookings(){
+        return Collections.unmodifiableCollection(bookings.values());
+    }
+
+    /* True if a booking between the same endpoints overlaps the window */
+    public boolean overlaps(ConnectionKey key, long from, long to){
+        for (Booking b : bookings.values())
+            if (b.key().equals(key) && b.start < to && from < b.end)
+                return true;
+        return false;
+    }
+
+    /* Forget every booking */
+    public synchronized void clear(){
+        timelines.clear();
+        active.clear();
+        charged.clear();
+        activated.clear();
+        bookings.clear();
+    }
+
+    /* Add the bandwidth to the steps of the window */
+    private static void add(TreeMap<Long, Integer> timeline, long from, long to, int bandwidth){
+        // split the steps at the bounds of the window
+        timeline.putIfAbsent(from, level(timeline, from));
+        timeline.putIfAbsent(to, level(timeline, to));
+
+        for (Map.Entry<Long, Integer> e : timeline.subMap(from, true, to, false).entrySet())
+            e.setValue(e.getValue() + bandwidth);
+
+        // the bounds are no longer steps if the level did not change there
+        merge(timeline, from);
+        merge(timeline, to);
+    }
+
+    /* Remove the step at the specified time if it has the same level as the previous one */
+    private static void merge(TreeMap<Long, Integer> timeline, long t){
+        Integer v = timeline.get(t);
+        Map.Entry<Long, Integer> previous = timeline.lowerEntry(t);
+        if (v != null && v == (previous == null ? 0 : previous.getValue()))
+            timeline.remove(t);
+    }
+
+    /* Bandwidth booked at the specified time */
+    private static int level(TreeMap<Long, Integer> timeline, long t){
+        Map.Entry<Long, Integer> e = timeline.floorEntry(t);
+        return e == null ? 0 : e.getValue();
+    }
+
+    /* Highest bandwidth booked in the window */
+    private static int peak(TreeMap<Long, Integer> timeline, long from, long to){
+        int peak = level(timeline, from);
+        for (int v : timeline.subMap(from, false, to, false).values())
+            peak = Math.max(peak, v);
+        return peak;
+    }
+}
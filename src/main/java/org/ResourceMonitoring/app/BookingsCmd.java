@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.onosproject.cli.AbstractShellCommand;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+
+@Service
+@Command(scope = "RS", name = "bookings",
+        description = "Get the booked connections, or cancel one of them")
+public class BookingsCmd extends AbstractShellCommand {
+
+    // Get my Resource Monitoring Service instance
+    private ResourceMonitoringService rmS = get(ResourceMonitoringService.class);
+
+    @Option(name = "-c", aliases = "--cancel", description = "Id of the reservation to cancel",
+            required = false, multiValued = false)
+    private long cancel = 0;
+
+    @Override
+    protected void doExecute() {
+        if (cancel > 0){
+            try {
+                rmS.cancelBooking(cancel);
+            } catch (Error e){
+                error(e.getMessage());
+            }
+            return;
+        }
+
+        List<Booking> bookings = new ArrayList<>(rmS.getBookings());
+        if (bookings.isEmpty()){
+            print("No booked connection! :(");
+            return;
+        }
+
+        bookings.sort(Comparator.comparingLong(b -> b.start));
+        for (Booking b : bookings)
+            print("%d) %s <-> %s (%d Mbps, %s) from %s to %s - %s", b.id, b.source.toString(), b.destination.toString(),
+                  b.bandwidth, b.reservationClass, new Date(b.start), new Date(b.end), b.state);
+    }
+
+}
@@ -2,14 +2,66 @@ package org.ResourceMonitoring.app;
 
 import org.onlab.packet.IpPrefix;
 import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
+
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Connection {
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    public final long id;
     public IpPrefix source, destination;
     public int bandwidth;
+    public final ReservationClass reservationClass;
+
+    // rules and meters installed on the devices for this connection, replaced when the connection is rerouted
+    public volatile ConnectionRules rules = new ConnectionRules();
+
+    // where the endpoints were attached when the rules were built
+    public volatile HostLocation sourceLocation, destinationLocation;
+
+    // bandwidth carried by each path of a split connection, in the order the paths appear in its registered path,
+    // null when the connection follows a single path
+    public volatile int[] shares;
 
     public Connection(IpPrefix source, IpPrefix destination, int bandwidth){
+        this(source, destination, bandwidth, ReservationClass.BEST_EFFORT);
+    }
+
+    public Connection(IpPrefix source, IpPrefix destination, int bandwidth, ReservationClass reservationClass){
+        this(NEXT_ID.incrementAndGet(), source, destination, bandwidth, reservationClass);
+    }
+
+    /* A connection restored with its previous id, the ids of new connections will follow it */
+    public Connection(long id, IpPrefix source, IpPrefix destination, int bandwidth, ReservationClass reservationClass){
+        this.id = id;
         this.source = source;
         this.destination = destination;
         this.bandwidth = bandwidth;
+        this.reservationClass = reservationClass;
+        NEXT_ID.accumulateAndGet(id, Math::max);
+    }
+
+    /* Unordered pair of endpoints identifying this connection */
+    public ConnectionKey key(){
+        return new ConnectionKey(source, destination);
+    }
+
+    /* Two connections are the same if they have the same endpoints, in any order */
+    @Override
+    public boolean equals(Object o){
+        if (this == o)
+            return true;
+        if (!(o instanceof Connection))
+            return false;
+
+        Connection c = (Connection) o;
+        return (source.equals(c.source) && destination.equals(c.destination)) ||
+               (source.equals(c.destination) && destination.equals(c.source));
+    }
+
+    @Override
+    public int hashCode(){
+        return ConnectionKey.hashCode(source, destination);
     }
 }
@@ -0,0 +1,58 @@
+package org.ResourceMonitoring.app;
+
+import org.onlab.packet.IpPrefix;
+
+/**
+ * Unordered pair of connection endpoints, a -> b and b -> a are the same key.
+ */
+public final class ConnectionKey {
+
+    // odd, with well spread bits, so that pairs of close hashes map far apart
+    private final static int HASH_MULTIPLIER = 0x9E3779B9;
+
+    private final IpPrefix a, b;
+
+    public ConnectionKey(IpPrefix a, IpPrefix b){
+        this.a = a;
+        this.b = b;
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if (this == o)
+            return true;
+        if (!(o instanceof ConnectionKey))
+            return false;
+
+        ConnectionKey k = (ConnectionKey) o;
+        return (a.equals(k.a) && b.equals(k.b)) || (a.equals(k.b) && b.equals(k.a));
+    }
+
+    @Override
+    public int hashCode(){
+        return hashCode(a, b);
+    }
+
+    /* Hash of the unordered pair, shared with the connections. Symmetric on purpose: the hashes are combined in
+     * order. A xor of the two would collide for most pairs of hosts with close addresses, and pile them up in a few
+     * buckets of the indexes */
+    static int hashCode(IpPrefix a, IpPrefix b){
+        int h1 = hash(a), h2 = hash(b);
+        int h = Math.min(h1, h2) * HASH_MULTIPLIER + Math.max(h1, h2);
+        return h ^ (h >>> 16);
+    }
+
+    /* Hash of an endpoint from the bits of its address, distinct for every IPv4 host. The hash of the addresses
+     * themselves is a polynomial of their octets with a small base, it takes a few thousand values over a /16 */
+    private static int hash(IpPrefix p){
+        int h = p.prefixLength();
+        for (byte o : p.address().toOctets())
+            h = Integer.rotateLeft(h, 8) ^ (o & 0xff);
+        return h;
+    }
+
+    @Override
+    public String toString(){
+        return a.toString() + " <-> " + b.toString();
+    }
+}
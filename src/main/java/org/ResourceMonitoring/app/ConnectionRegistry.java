@@ -0,0 +1,197 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.onlab.packet.IpPrefix;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.LinkKey;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the established connections, indexed by endpoints, by id, by traversed link and device, and by host.
+ * All the indexes of a connection are updated while holding the lock of its endpoints entry,
+ * so adding and removing the same connection concurrently leaves them consistent.
+ * The connections of each link are sorted by class and bandwidth, to quickly pick the ones to preempt.
+ */
+public class ConnectionRegistry {
+
+    // lowest class first, then smallest bandwidth first
+    private final static Comparator<Connection> BY_PRIORITY = Comparator.comparing((Connection c) -> c.reservationClass)
+                                                                        .thenComparingInt(c -> c.bandwidth)
+                                                                        .thenComparingLong(c -> c.id);
+
+    // sets of the secondary indexes
+    private final static Supplier<Set<Connection>> SORTED = () -> new ConcurrentSkipListSet<>(BY_PRIORITY);
+    private final static Supplier<Set<Connection>> UNSORTED = ConcurrentHashMap::newKeySet;
+
+    private final ConcurrentMap<ConnectionKey, Connection> byEndpoints = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Long, Connection> byId = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Connection, List<Link>> paths = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<LinkKey, Set<Connection>> byLink = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<DeviceId, Set<Connection>> byDevice = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<IpPrefix, Set<Connection>> byHost = new ConcurrentHashMap<>();
+
+    /* Register the connection with its path. Return false if another connection already has the same endpoints */
+    public boolean add(Connection c, List<Link> path){
+        boolean[] added = {false};
+
+        byEndpoints.compute(c.key(), (k, existing) -> {
+            if (existing != null)
+                return existing;
+
+            byId.put(c.id, c);
+            paths.put(c, path);
+            for (Link l : path)
+                addToIndex(byLink, LinkKey.linkKey(l), c, SORTED);
+            for (DeviceId d : devices(path))
+                addToIndex(byDevice, d, c, UNSORTED);
+            addToIndex(byHost, c.source, c, UNSORTED);
+            addToIndex(byHost, c.destination, c, UNSORTED);
+
+            added[0] = true;
+            return c;
+        });
+
+        return added[0];
+    }
+
+    /* Unregister the connection. Return its path or null if it was not registered */
+    public List<Link> remove(Connection c){
+        List<List<Link>> removed = new ArrayList<>(1);
+
+        byEndpoints.computeIfPresent(c.key(), (k, existing) -> {
+            if (existing.id != c.id)
+                return existing;
+
+            List<Link> path = paths.remove(existing);
+            byId.remove(existing.id);
+            for (Link l : path)
+                removeFromIndex(byLink, LinkKey.linkKey(l), existing);
+            for (DeviceId d : devices(path))
+                removeFromIndex(byDevice, d, existing);
+            removeFromIndex(byHost, existing.source, existing);
+            removeFromIndex(byHost, existing.destination, existing);
+
+            removed.add(path);
+            return null;
+        });
+
+        return removed.isEmpty() ? null : removed.get(0);
+    }
+
+    /* Replace the path of a registered connection */
+    public void updatePath(Connection c, List<Link> path){
+        byEndpoints.computeIfPresent(c.key(), (k, existing) -> {
+            if (existing.id != c.id)
+                return existing;
+
+            List<Link> old = paths.put(existing, path);
+            for (Link l : old)
+                removeFromIndex(byLink, LinkKey.linkKey(l), existing);
+            for (DeviceId d : devices(old))
+                removeFromIndex(byDevice, d, existing);
+            for (Link l : path)
+                addToIndex(byLink, LinkKey.linkKey(l), existing, SORTED);
+            for (DeviceId d : devices(path))
+                addToIndex(byDevice, d, existing, UNSORTED);
+
+            return existing;
+        });
+    }
+
+    /* Connection between the two endpoints, in any order, or null */
+    public Connection get(IpPrefix a, IpPrefix b){
+        return byEndpoints.get(new ConnectionKey(a, b));
+    }
+
+    /* Connection with the specified id or null */
+    public Connection get(long id){
+        return byId.get(id);
+    }
+
+    /* Path of a registered connection */
+    public List<Link> getPath(Connection c){
+        return paths.get(c);
+    }
+
+    /* Connections traversing the specified link, in its direction, lowest class and smallest bandwidth first */
+    public Set<Connection> getConnectionsOnLink(LinkKey l){
+        return Collections.unmodifiableSet(byLink.getOrDefault(l, Collections.emptySet()));
+    }
+
+    /* Connections with rules on the specified device */
+    public Set<Connection> getConnectionsOnDevice(DeviceId device){
+        return Collections.unmodifiableSet(byDevice.getOrDefault(device, Collections.emptySet()));
+    }
+
+    /* Connections having the specified host as endpoint */
+    public Set<Connection> getConnectionsOfHost(IpPrefix host){
+        return Collections.unmodifiableSet(byHost.getOrDefault(host, Collections.emptySet()));
+    }
+
+    /* Number of registered connections */
+    public int size(){
+        return byEndpoints.size();
+    }
+
+    /* Forget every connection */
+    public void clear(){
+        byEndpoints.clear();
+        byId.clear();
+        paths.clear();
+        byLink.clear();
+        byDevice.clear();
+        byHost.clear();
+    }
+
+    /* Devices traversed by the path, edges included */
+    private static Set<DeviceId> devices(List<Link> path){
+        Set<DeviceId> devices = new HashSet<>();
+        for (Link l : path){
+            devices.add(l.src().deviceId());
+            devices.add(l.dst().deviceId());
+        }
+        return devices;
+    }
+
+    /* Add the connection to a secondary index */
+    private <K> void addToIndex(ConcurrentMap<K, Set<Connection>> index, K key, Connection c, Supplier<Set<Connection>> newSet){
+        index.compute(key, (k, s) -> {
+            Set<Connection> set = s == null ? newSet.get() : s;
+            set.add(c);
+            return set;
+        });
+    }
+
+    /* Remove the connection from a secondary index, dropping the entry when it becomes empty */
+    private <K> void removeFromIndex(ConcurrentMap<K, Set<Connection>> index, K key, Connection c){
+        index.computeIfPresent(key, (k, s) -> {
+            s.remove(c);
+            return s.isEmpty() ? null : s;
+        });
+    }
+}
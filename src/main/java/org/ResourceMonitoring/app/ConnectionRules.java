@@ -0,0 +1,122 @@
+package org.ResourceMonitoring.app;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.group.GroupDescription;
+import org.onosproject.net.group.GroupKey;
+import org.onosproject.net.meter.MeterId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Flow rules and meters pushed to the devices to implement a connection,
+ * recorded at install time so that a withdraw removes exactly them.
+ */
+public class ConnectionRules {
+    // priority of the flow rules
+    private final int priority;
+    private final List<FlowRule> flowRules = new ArrayList<>();
+    // rules of the transit switches shared with other connections, removed only by their last user
+    private final List<FlowRule> sharedRules = new ArrayList<>();
+    // metered rules where the traffic of each direction enters the network, in the same order as the meters
+    private final List<FlowRule> ingressRules = new ArrayList<>();
+    private final List<ImmutablePair<DeviceId, MeterId>> meters = new ArrayList<>();
+    // select groups splitting the traffic of a split connection over its paths
+    private final List<ImmutablePair<DeviceId, GroupKey>> groups = new ArrayList<>();
+    // confirmations of the meters and groups submitted to the devices for these rules
+    private final List<CompletableFuture<Void>> confirmations = new ArrayList<>();
+    // groups to submit together with the flow rules, with the future confirming each of them
+    private final List<ImmutablePair<GroupDescription, CompletableFuture<Void>>> unsubmittedGroups = new ArrayList<>();
+
+    public ConnectionRules(){
+        this(ResourceMonitoringService.RULE_PRIORITY);
+    }
+
+    public ConnectionRules(int priority){
+        this.priority = priority;
+    }
+
+    public int getPriority(){
+        return priority;
+    }
+
+    public synchronized void addFlowRule(FlowRule rule){
+        flowRules.add(rule);
+    }
+
+    public synchronized void addIngressRule(FlowRule rule){
+        flowRules.add(rule);
+        ingressRules.add(rule);
+    }
+
+    public synchronized void addSharedRule(FlowRule rule){
+        sharedRules.add(rule);
+    }
+
+    public synchronized void addMeter(DeviceId device, MeterId meter, CompletableFuture<Void> confirmed){
+        meters.add(new ImmutablePair<>(device, meter));
+        confirmations.add(confirmed);
+    }
+
+    /* Record a group of the rules, to be added to the device, or updated if it is there, when the rules are pushed */
+    public synchronized void addGroup(GroupDescription group, CompletableFuture<Void> confirmed){
+        groups.add(new ImmutablePair<>(group.deviceId(), group.appCookie()));
+        unsubmittedGroups.add(new ImmutablePair<>(group, confirmed));
+        confirmations.add(confirmed);
+    }
+
+    /* Every rule the connection needs on the devices, shared ones included */
+    public synchronized List<FlowRule> getFlowRules(){
+        List<FlowRule> rules = new ArrayList<>(flowRules.size() + sharedRules.size());
+        rules.addAll(flowRules);
+        rules.addAll(sharedRules);
+        return Collections.unmodifiableList(rules);
+    }
+
+    /* Rules used only by this connection */
+    public synchronized List<FlowRule> getOwnRules(){
+        return Collections.unmodifiableList(new ArrayList<>(flowRules));
+    }
+
+    /* Hand over the shared rules to be released, only once even if the connection is removed twice */
+    public synchronized List<FlowRule> takeSharedRules(){
+        List<FlowRule> rules = new ArrayList<>(sharedRules);
+        sharedRules.clear();
+        return rules;
+    }
+
+    public synchronized List<FlowRule> getIngressRules(){
+        return Collections.unmodifiableList(new ArrayList<>(ingressRules));
+    }
+
+    public synchronized List<ImmutablePair<DeviceId, MeterId>> getMeters(){
+        return Collections.unmodifiableList(new ArrayList<>(meters));
+    }
+
+    public synchronized List<ImmutablePair<DeviceId, GroupKey>> getGroups(){
+        return Collections.unmodifiableList(new ArrayList<>(groups));
+    }
+
+    /* Hand over the groups to submit, only once */
+    public synchronized List<ImmutablePair<GroupDescription, CompletableFuture<Void>>> takeUnsubmittedGroups(){
+        List<ImmutablePair<GroupDescription, CompletableFuture<Void>>> g = new ArrayList<>(unsubmittedGroups);
+        unsubmittedGroups.clear();
+        return g;
+    }
+
+    /* Meter used on the specified device, or null */
+    public synchronized MeterId getMeter(DeviceId device){
+        for (ImmutablePair<DeviceId, MeterId> p : meters)
+            if (p.left.equals(device))
+                return p.right;
+        return null;
+    }
+
+    public synchronized List<CompletableFuture<Void>> getConfirmations(){
+        return Collections.unmodifiableList(new ArrayList<>(confirmations));
+    }
+}
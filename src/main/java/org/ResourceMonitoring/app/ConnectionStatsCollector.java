@@ -0,0 +1,177 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.meter.Band;
+import org.onosproject.net.meter.Meter;
+import org.onosproject.net.meter.MeterId;
+import org.onosproject.net.meter.MeterService;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Traffic statistics of each connection: bytes and packets of its ingress rules and packets dropped by its meters.
+ * Every poll asks each device only once for its flow entries and once for its meters,
+ * then matches them to the connections by flow and meter id, so the cost does not depend on the number of flows.
+ */
+public class ConnectionStatsCollector {
+
+    // direction of the traffic, in the order of the ingress rules of the connection
+    public final static int FORWARD = 0;
+    public final static int REVERSE = 1;
+
+    /* Counters of the two directions of a connection */
+    public static final class ConnectionStats {
+        public final long[] bytes = new long[2];
+        public final long[] packets = new long[2];
+        // packets seen and dropped by the meter
+        public final long[] meterPackets = new long[2];
+        public final long[] droppedPackets = new long[2];
+
+        // rate in Mbps and fraction of the packets dropped since the previous poll
+        public final double[] rate = new double[2];
+        public final double[] dropRatio = new double[2];
+
+        private long lastPoll = 0;
+    }
+
+    private final FlowRuleService flowRuleService;
+    private final MeterService meterService;
+    private final Supplier<Iterable<Connection>> connections;
+    private final ScheduledExecutorService executor;
+
+    private ScheduledFuture<?> task;
+
+    private final ConcurrentMap<Long, ConnectionStats> stats = new ConcurrentHashMap<>();
+
+    public ConnectionStatsCollector(FlowRuleService flowRuleService, MeterService meterService,
+                                    Supplier<Iterable<Connection>> connections, ScheduledExecutorService executor){
+        this.flowRuleService = flowRuleService;
+        this.meterService = meterService;
+        this.connections = connections;
+        this.executor = executor;
+    }
+
+    /* (Re)start polling every intervalSeconds, 0 stops it */
+    public synchronized void start(int intervalSeconds){
+        stop();
+        if (intervalSeconds > 0)
+            task = executor.scheduleAtFixedRate(this::poll, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop(){
+        if (task != null){
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    /* Statistics of the connection, or null if it has not been polled yet */
+    public ConnectionStats getStats(Connection c){
+        return stats.get(c.id);
+    }
+
+    /* Collect the counters of every connection */
+    private void poll(){
+        long now = System.nanoTime();
+
+        // what to look for on each device
+        Map<DeviceId, Map<Long, ImmutablePair<ConnectionStats, Integer>>> flows = new HashMap<>();
+        Map<DeviceId, Map<MeterId, ImmutablePair<ConnectionStats, Integer>>> meters = new HashMap<>();
+        Map<Long, ConnectionStats> polled = new HashMap<>();
+
+        for (Connection c : connections.get()){
+            ConnectionStats s = stats.computeIfAbsent(c.id, id -> new ConnectionStats());
+            polled.put(c.id, s);
+
+            List<FlowRule> ingress = c.rules.getIngressRules();
+            for (int d = 0; d < ingress.size() && d < 2; d++){
+                FlowRule r = ingress.get(d);
+                flows.computeIfAbsent(r.deviceId(), k -> new HashMap<>()).put(r.id().value(), new ImmutablePair<>(s, d));
+            }
+
+            List<ImmutablePair<DeviceId, MeterId>> metered = c.rules.getMeters();
+            for (int d = 0; d < metered.size() && d < 2; d++){
+                ImmutablePair<DeviceId, MeterId> m = metered.get(d);
+                meters.computeIfAbsent(m.left, k -> new HashMap<>()).put(m.right, new ImmutablePair<>(s, d));
+            }
+        }
+
+        // forget the connections no longer established
+        stats.keySet().retainAll(polled.keySet());
+
+        flows.forEach((device, wanted) -> {
+            for (FlowEntry e : flowRuleService.getFlowEntries(device)){
+                ImmutablePair<ConnectionStats, Integer> target = wanted.get(e.id().value());
+                if (target != null)
+                    updateFlow(target.left, target.right, e, now);
+            }
+        });
+
+        meters.forEach((device, wanted) -> {
+            for (Meter m : meterService.getMeters(device)){
+                ImmutablePair<ConnectionStats, Integer> target = wanted.get(m.id());
+                if (target != null)
+                    updateMeter(target.left, target.right, m);
+            }
+        });
+
+        polled.values().forEach(s -> s.lastPoll = now);
+    }
+
+    /* Take the counters of an ingress rule and derive the rate since the previous poll */
+    private static void updateFlow(ConnectionStats s, int d, FlowEntry e, long now){
+        long bytes = e.bytes();
+        // a counter going back means the rule has been installed again
+        long delta = bytes >= s.bytes[d] ? bytes - s.bytes[d] : bytes;
+
+        if (s.lastPoll != 0 && now > s.lastPoll)
+            s.rate[d] = delta * 8 / 1e6 / ((now - s.lastPoll) / 1e9);
+
+        s.bytes[d] = bytes;
+        s.packets[d] = e.packets();
+    }
+
+    /* Take the counters of a meter and derive the fraction of the packets dropped since the previous poll */
+    private static void updateMeter(ConnectionStats s, int d, Meter m){
+        long seen = m.packetsSeen();
+        long dropped = 0;
+        for (Band b : m.bands())
+            dropped += b.packets();
+
+        long seenDelta = seen >= s.meterPackets[d] ? seen - s.meterPackets[d] : seen;
+        long droppedDelta = dropped >= s.droppedPackets[d] ? dropped - s.droppedPackets[d] : dropped;
+        // the first poll of a pooled meter also sees what its previous users sent
+        if (s.lastPoll != 0)
+            s.dropRatio[d] = seenDelta == 0 ? 0 : (double) droppedDelta / seenDelta;
+
+        s.meterPackets[d] = seen;
+        s.droppedPackets[d] = dropped;
+    }
+}
@@ -40,7 +40,9 @@ public class ConnectionsCmd extends AbstractShellCommand {
 
     @Override
     protected void doExecute() {
-        Set<Map.Entry<Connection, List<Link>>> connections = rmS.getConnections().entrySet();
+        // a single snapshot, consistent even while connections are being installed
+        ReservationSnapshot snapshot = rmS.getSnapshot();
+        Set<Map.Entry<Connection, List<Link>>> connections = snapshot.getConnections().entrySet();
 
         if (connections.isEmpty()){
             print("No established connection! :(");
@@ -49,9 +51,22 @@ public class ConnectionsCmd extends AbstractShellCommand {
 
         for (Map.Entry<Connection, List<Link>> e : connections) {
             Connection c = e.getKey();
-            print("%s <-> %s (%d Mbps)", c.source.toString(), c.destination.toString(), c.bandwidth);
-            String path = e.getValue().stream().map(l -> l.dst().deviceId().toString()).collect(Collectors.joining(" <-> "));
-            print("\t Path: %s <-> %s", e.getValue().get(0).src().deviceId().toString(), path);
+            print("%s <-> %s (%d Mbps, %s)", c.source.toString(), c.destination.toString(), c.bandwidth, c.reservationClass);
+            List<List<Link>> paths = ConstrainedPathFinder.subpaths(e.getValue());
+            int[] shares = snapshot.getShares(c);
+            for (int i = 0; i < paths.size(); i++){
+                String path = paths.get(i).stream().map(l -> l.dst().deviceId().toString()).collect(Collectors.joining(" <-> "));
+                if (shares == null)
+                    print("\t Path: %s <-> %s", paths.get(i).get(0).src().deviceId().toString(), path);
+                else
+                    print("\t Path: %s <-> %s (%d Mbps)", paths.get(i).get(0).src().deviceId().toString(), path, shares[i]);
+            }
+
+            ConnectionStatsCollector.ConnectionStats s = rmS.getConnectionStats(c);
+            if (s != null)
+                print("\t Rate: %.2f Mbps -> / %.2f Mbps <- (reserved %d Mbps)  Dropped: %.1f%% -> / %.1f%% <-",
+                      s.rate[ConnectionStatsCollector.FORWARD], s.rate[ConnectionStatsCollector.REVERSE], c.bandwidth,
+                      s.dropRatio[ConnectionStatsCollector.FORWARD] * 100, s.dropRatio[ConnectionStatsCollector.REVERSE] * 100);
         }
     }
 
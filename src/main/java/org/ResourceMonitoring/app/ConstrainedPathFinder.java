@@ -0,0 +1,291 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.LinkKey;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * Bandwidth constrained shortest path search over an in-memory adjacency snapshot of the topology.
+ * Links without enough available bandwidth are pruned while the graph is explored. Connections are duplex and
+ * reserve their bandwidth in both directions, so a link is usable only if its opposite link has enough bandwidth too.
+ * When no single path has enough bandwidth the demand can be split over several node disjoint paths.
+ */
+public class ConstrainedPathFinder {
+
+    /* Link weights supported by the search */
+    public enum Weight {
+        // every link costs 1, the shortest feasible path in terms of hops is picked
+        HOP_COUNT,
+        // links with more bandwidth left after the allocation are preferred
+        RESIDUAL_CAPACITY;
+
+        /* Parse the weight name used in the component configuration */
+        public static Weight fromString(String s){
+            return "residualCapacity".equalsIgnoreCase(s) || "RESIDUAL_CAPACITY".equalsIgnoreCase(s) ?
+                    RESIDUAL_CAPACITY : HOP_COUNT;
+        }
+    }
+
+    /* Node disjoint paths sharing a reservation and the bandwidth carried by each of them */
+    public static final class Split {
+        public final List<List<Link>> paths;
+        public final int[] shares;
+
+        Split(List<List<Link>> paths, int[] shares){
+            this.paths = paths;
+            this.shares = shares;
+        }
+
+        /* Links of every path, one path after the other */
+        public List<Link> links(){
+            List<Link> links = new ArrayList<>();
+            paths.forEach(links::addAll);
+            return links;
+        }
+    }
+
+    // outgoing links of every device, replaced as a whole when the topology changes
+    private volatile Graph graph = new Graph(Collections.emptyMap(), Collections.emptyMap());
+
+    /* Replace the adjacency snapshot with the given set of links */
+    public void rebuild(Iterable<Link> links){
+        Map<DeviceId, List<Link>> adjacency = new HashMap<>();
+        Map<LinkKey, Link> byKey = new HashMap<>();
+        for (Link l : links){
+            adjacency.computeIfAbsent(l.src().deviceId(), d -> new ArrayList<>()).add(l);
+            byKey.put(LinkKey.linkKey(l), l);
+        }
+
+        this.graph = new Graph(adjacency, byKey);
+    }
+
+    /* Search the cheapest path from source to destination made only of links with at least the requested bandwidth */
+    public Optional<List<Link>> findPath(DeviceId source, DeviceId destination, int bandwidth,
+                                         ToIntFunction<Link> available, Weight weight){
+        // a path must traverse at least one link
+        if (source.equals(destination))
+            return Optional.empty();
+
+        Graph graph = this.graph;
+        Map<DeviceId, Double> cost = new HashMap<>();
+        Map<DeviceId, Link> previous = new HashMap<>();
+        PriorityQueue<Node> queue = new PriorityQueue<>();
+
+        cost.put(source, 0.0);
+        queue.add(new Node(source, 0.0));
+
+        while (!queue.isEmpty()){
+            Node n = queue.poll();
+            if (n.cost > cost.get(n.device))
+                continue; // stale entry
+
+            if (n.device.equals(destination))
+                return Optional.of(buildPath(previous, source, destination));
+
+            for (Link l : graph.outgoing(n.device)){
+                int residual = graph.available(l, available);
+                if (residual < bandwidth)
+                    continue; // pruned, not enough capacity
+
+                double c = n.cost + linkCost(weight, residual - bandwidth);
+                DeviceId next = l.dst().deviceId();
+                if (c < cost.getOrDefault(next, Double.MAX_VALUE)){
+                    cost.put(next, c);
+                    previous.put(next, l);
+                    queue.add(new Node(next, c));
+                }
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /* Split the bandwidth over at most maxPaths node disjoint paths. Augmenting paths are taken widest first
+     * until the demand is covered, each carrying the smallest bandwidth available on its links */
+    public Optional<Split> findSplit(DeviceId source, DeviceId destination, int bandwidth,
+                                     ToIntFunction<Link> available, int maxPaths){
+        if (source.equals(destination))
+            return Optional.empty();
+
+        Graph graph = this.graph;
+        // devices and links already traversed, transit devices are not shared so that they can forward on the addresses only
+        Set<DeviceId> usedDevices = new HashSet<>();
+        Set<Link> usedLinks = new HashSet<>();
+
+        List<List<Link>> paths = new ArrayList<>();
+        List<Integer> shares = new ArrayList<>();
+        int missing = bandwidth;
+
+        while (missing > 0 && paths.size() < maxPaths){
+            List<Link> path = findWidestPath(graph, source, destination, available, usedDevices, usedLinks);
+            if (path == null)
+                break;
+
+            int width = Integer.MAX_VALUE;
+            for (Link l : path)
+                width = Math.min(width, graph.available(l, available));
+
+            int share = Math.min(width, missing);
+            paths.add(path);
+            shares.add(share);
+            missing -= share;
+
+            usedLinks.addAll(path);
+            for (Link l : path)
+                usedDevices.add(l.dst().deviceId());
+            usedDevices.remove(destination);
+        }
+
+        if (missing > 0)
+            return Optional.empty();
+
+        return Optional.of(new Split(paths, shares.stream().mapToInt(Integer::intValue).toArray()));
+    }
+
+    /* Path from source to destination with the largest bottleneck bandwidth, the shortest one among equally wide paths.
+     * Null if every path traverses a used device or link, or a link without bandwidth left */
+    private List<Link> findWidestPath(Graph graph, DeviceId source, DeviceId destination,
+                                      ToIntFunction<Link> available, Set<DeviceId> usedDevices, Set<Link> usedLinks){
+        Map<DeviceId, Integer> width = new HashMap<>();
+        Map<DeviceId, Link> previous = new HashMap<>();
+        PriorityQueue<WideNode> queue = new PriorityQueue<>();
+        Set<DeviceId> visited = new HashSet<>();
+
+        width.put(source, Integer.MAX_VALUE);
+        queue.add(new WideNode(source, Integer.MAX_VALUE, 0));
+
+        while (!queue.isEmpty()){
+            WideNode n = queue.poll();
+            if (!visited.add(n.device))
+                continue; // stale entry
+
+            if (n.device.equals(destination))
+                return buildPath(previous, source, destination);
+
+            for (Link l : graph.outgoing(n.device)){
+                DeviceId next = l.dst().deviceId();
+                if (usedLinks.contains(l) || visited.contains(next) ||
+                    (usedDevices.contains(next) && !next.equals(destination)))
+                    continue;
+
+                int w = Math.min(n.width, graph.available(l, available));
+                if (w <= 0)
+                    continue; // pruned, no capacity left
+
+                if (w > width.getOrDefault(next, 0)){
+                    width.put(next, w);
+                    previous.put(next, l);
+                    queue.add(new WideNode(next, w, n.hops + 1));
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /* Paths making up the path of a split connection, each one starts from the first device */
+    public static List<List<Link>> subpaths(List<Link> links){
+        List<List<Link>> paths = new ArrayList<>();
+        for (Link l : links){
+            if (paths.isEmpty() || l.src().deviceId().equals(links.get(0).src().deviceId()))
+                paths.add(new ArrayList<>());
+            paths.get(paths.size() - 1).add(l);
+        }
+        return paths;
+    }
+
+    /* Cost of a link that would be left with the specified bandwidth after the allocation */
+    private double linkCost(Weight weight, int leftover){
+        if (weight == Weight.RESIDUAL_CAPACITY)
+            return 1.0 + 1.0 / (leftover + 1);
+
+        return 1.0;
+    }
+
+    /* Walk back the predecessors from destination to source */
+    private List<Link> buildPath(Map<DeviceId, Link> previous, DeviceId source, DeviceId destination){
+        LinkedList<Link> path = new LinkedList<>();
+        DeviceId current = destination;
+        while (!current.equals(source)){
+            Link l = previous.get(current);
+            path.addFirst(l);
+            current = l.src().deviceId();
+        }
+        return new ArrayList<>(path);
+    }
+
+    /* Adjacency snapshot of the topology */
+    private static final class Graph {
+        final Map<DeviceId, List<Link>> adjacency;
+        // every link by its endpoints, to find the opposite ones
+        final Map<LinkKey, Link> links;
+
+        Graph(Map<DeviceId, List<Link>> adjacency, Map<LinkKey, Link> links){
+            this.adjacency = adjacency;
+            this.links = links;
+        }
+
+        List<Link> outgoing(DeviceId device){
+            return adjacency.getOrDefault(device, Collections.emptyList());
+        }
+
+        /* Bandwidth usable by a duplex connection on the link: the smallest of the two directions */
+        int available(Link l, ToIntFunction<Link> available){
+            int forward = available.applyAsInt(l);
+            Link o = links.get(LinkKey.linkKey(l.dst(), l.src()));
+            return o == null ? forward : Math.min(forward, available.applyAsInt(o));
+        }
+    }
+
+    /* Priority queue entry */
+    private static final class Node implements Comparable<Node> {
+        final DeviceId device;
+        final double cost;
+
+        Node(DeviceId device, double cost){
+            this.device = device;
+            this.cost = cost;
+        }
+
+        @Override
+        public int compareTo(Node o){
+            return Double.compare(this.cost, o.cost);
+        }
+    }
+
+    /* Priority queue entry of the widest path search, widest first and then fewest hops */
+    private static final class WideNode implements Comparable<WideNode> {
+        final DeviceId device;
+        final int width;
+        final int hops;
+
+        WideNode(DeviceId device, int width, int hops){
+            this.device = device;
+            this.width = width;
+            this.hops = hops;
+        }
+
+        @Override
+        public int compareTo(WideNode o){
+            return this.width != o.width ? Integer.compare(o.width, this.width) : Integer.compare(this.hops, o.hops);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.ResourceMonitoring.app;
+
+import org.onosproject.net.HostId;
+
+/**
+ * Request of a connection between two hosts with a given bandwidth, admitted as part of a batch.
+ */
+public class Demand {
+    public HostId source, destination;
+    public int bandwidth;
+    public ReservationClass reservationClass;
+
+    public Demand(HostId source, HostId destination, int bandwidth){
+        this(source, destination, bandwidth, ReservationClass.BEST_EFFORT);
+    }
+
+    public Demand(HostId source, HostId destination, int bandwidth, ReservationClass reservationClass){
+        this.source = source;
+        this.destination = destination;
+        this.bandwidth = bandwidth;
+        this.reservationClass = reservationClass;
+    }
+
+    @Override
+    public String toString(){
+        return source.toString() + " <-> " + destination.toString() + " (" + bandwidth + " Mbps)";
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.onlab.packet.IpPrefix;
+import org.onlab.util.KryoNamespace;
+import org.onosproject.cluster.NodeId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.Link;
+import org.onosproject.net.LinkKey;
+import org.onosproject.net.meter.MeterId;
+import org.onosproject.store.serializers.KryoNamespaces;
+import org.onosproject.store.service.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Reservations shared by all the instances of the cluster, so that they admit connections against the same
+ * residual bandwidth and the state survives a change of mastership.
+ * The bandwidth reserved on each link and the connection records are changed together in optimistic transactions,
+ * retried when another instance committed a conflicting change first. Reads are served by a local copy
+ * of the reserved bandwidth kept up to date by the map events.
+ * Each record names the instance owning the connection and holds what is needed to rebuild its rules, so that
+ * another instance can take the connection over when its owner leaves the cluster.
+ */
+public class DistributedReservationStore {
+
+    private final static String RESERVED_MAP = "org.ResourceMonitoring.app.reserved";
+    private final static String CONNECTIONS_MAP = "org.ResourceMonitoring.app.connections";
+    private final static String IDS_COUNTER = "org.ResourceMonitoring.app.connection-ids";
+
+    // commits attempted before giving up because of concurrent changes
+    private final static int MAX_COMMIT_ATTEMPTS = 5;
+
+    // rounds of commits attempted to release a connection, each one after a longer pause
+    private final static int MAX_RELEASE_ROUNDS = 8;
+    private final static int RELEASE_BACKOFF_MS = 10;
+
+    private final static Serializer SERIALIZER = Serializer.using(KryoNamespace.newBuilder()
+                                                                           .register(KryoNamespaces.API)
+                                                                           .register(ConnectionKey.class, Record.class, ReservationClass.class,
+                                                                                     ImmutablePair.class)
+                                                                           .build("ResourceMonitoring"));
+
+    public enum Outcome {COMMITTED, NO_CAPACITY, DUPLICATE, NOT_FOUND, CONFLICT}
+
+    /* What the cluster knows about an established connection */
+    public static final class Record {
+        public final long id;
+        // instance that installed the connection and maintains it
+        public final NodeId owner;
+        public final IpPrefix source;
+        public final IpPrefix destination;
+        public final int bandwidth;
+        public final ReservationClass reservationClass;
+        // null until the rules of the connection are built
+        public final HostLocation sourceLocation;
+        public final HostLocation destinationLocation;
+        public final List<Link> path;
+        // null if the connection follows a single path
+        public final int[] shares;
+        public final List<ImmutablePair<DeviceId, MeterId>> meters;
+        // bandwidth charged on each link, in both directions
+        public final Map<LinkKey, Integer> links;
+
+        Record(Connection c, NodeId owner, List<Link> path, Map<LinkKey, Integer> links){
+            this.id = c.id;
+            this.owner = owner;
+            this.source = c.source;
+            this.destination = c.destination;
+            this.bandwidth = c.bandwidth;
+            this.reservationClass = c.reservationClass;
+            this.sourceLocation = c.sourceLocation;
+            this.destinationLocation = c.destinationLocation;
+            this.path = new ArrayList<>(path);
+            this.shares = c.shares;
+            this.meters = new ArrayList<>(c.rules.getMeters());
+            this.links = links;
+        }
+
+        private Record(Record r, NodeId owner){
+            this.id = r.id;
+            this.owner = owner;
+            this.source = r.source;
+            this.destination = r.destination;
+            this.bandwidth = r.bandwidth;
+            this.reservationClass = r.reservationClass;
+            this.sourceLocation = r.sourceLocation;
+            this.destinationLocation = r.destinationLocation;
+            this.path = r.path;
+            this.shares = r.shares;
+            this.meters = r.meters;
+            this.links = r.links;
+        }
+    }
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final StorageService storageService;
+
+    // this instance, owner of the connections it installs
+    private final NodeId localNode;
+
+    private final ConsistentMap<LinkKey, Integer> reserved;
+
+    private final ConsistentMap<ConnectionKey, Record> connections;
+
+    // ids of the connections, unique across the cluster
+    private final AtomicCounter ids;
+
+    // local copy of the reserved map
+    private final ConcurrentMap<LinkKey, Integer> cache = new ConcurrentHashMap<>();
+
+    private final MapEventListener<LinkKey, Integer> cacheUpdater = event -> {
+        if (event.type() == MapEvent.Type.REMOVE)
+            cache.remove(event.key());
+        else
+            cache.put(event.key(), event.newValue().value());
+    };
+
+    public DistributedReservationStore(StorageService storageService, NodeId localNode){
+        this.storageService = storageService;
+        this.localNode = localNode;
+
+        this.reserved = storageService.<LinkKey, Integer>consistentMapBuilder()
+                                      .withName(RESERVED_MAP)
+                                      .withSerializer(SERIALIZER)
+                                      .build();
+
+        this.connections = storageService.<ConnectionKey, Record>consistentMapBuilder()
+                                         .withName(CONNECTIONS_MAP)
+                                         .withSerializer(SERIALIZER)
+                                         .build();
+
+        this.ids = storageService.getAtomicCounter(IDS_COUNTER);
+
+        // listen before loading so that no change is missed
+        reserved.addListener(cacheUpdater);
+        reserved.entrySet().forEach(e -> cache.put(e.getKey(), e.getValue().value()));
+    }
+
+    /* Stop following the changes of the cluster */
+    public void close(){
+        reserved.removeListener(cacheUpdater);
+    }
+
+    /* Bandwidth reserved on the link by all the instances, as last seen by this one */
+    public int getReserved(Link l){
+        return cache.getOrDefault(LinkKey.linkKey(l), 0);
+    }
+
+    /* Record of a connection established by any instance, or null */
+    public Record getRecord(ConnectionKey key){
+        Versioned<Record> r = connections.get(key);
+        return r == null ? null : r.value();
+    }
+
+    /* Records of every connection established in the cluster */
+    public Collection<Record> getRecords(){
+        List<Record> records = new ArrayList<>();
+        connections.values().forEach(v -> records.add(v.value()));
+        return records;
+    }
+
+    /* True if the record belongs to this instance */
+    public boolean isLocal(Record r){
+        return localNode.equals(r.owner);
+    }
+
+    /* Id for a new connection */
+    public long nextId(){
+        return ids.incrementAndGet();
+    }
+
+    /* Make sure the ids handed out from now on follow the specified one, used by restored connections */
+    public void advanceIds(long id){
+        long current = ids.get();
+        // a failed swap means the counter moved on, up to the id in the worst case
+        while (current < id && !ids.compareAndSet(current, id))
+            current = ids.get();
+    }
+
+    /* Charge the bandwidth of the connection on the links and record it, owned by this instance */
+    public Outcome reserve(Connection c, List<Link> path, Map<Link, Integer> links, ToIntFunction<Link> capacity){
+        Map<LinkKey, Integer> deltas = new LinkedHashMap<>();
+        Map<LinkKey, Link> byKey = new HashMap<>();
+        charge(links, 1, deltas, byKey);
+
+        return transact(tx -> {
+            TransactionalMap<ConnectionKey, Record> records = tx.getTransactionalMap(CONNECTIONS_MAP, SERIALIZER);
+            if (records.get(c.key()) != null)
+                return Outcome.DUPLICATE;
+
+            if (!apply(tx, deltas, byKey, capacity))
+                return Outcome.NO_CAPACITY;
+
+            records.put(c.key(), new Record(c, localNode, path, keys(links)));
+            return Outcome.COMMITTED;
+        });
+    }
+
+    /* Record the locations and meters of the rules of an established connection, if it is still recorded */
+    public void update(Connection c){
+        connections.computeIfPresent(c.key(), (k, r) -> r.id != c.id ? r : new Record(c, r.owner, r.path, r.links));
+    }
+
+    /* Become the owner of a connection, if it is still owned by the specified instance.
+     * Return the record now owned by this instance, or null if another instance took it first */
+    public Record claim(ConnectionKey key, NodeId owner){
+        Versioned<Record> v = connections.computeIfPresent(key, (k, r) -> r.owner.equals(owner) ? new Record(r, localNode) : r);
+        return v == null || !isLocal(v.value()) ? null : v.value();
+    }
+
+    /* Give back the bandwidth charged to the connection and forget it */
+    public void release(Connection c, Map<Link, Integer> links){
+        Map<LinkKey, Integer> deltas = new LinkedHashMap<>();
+        Map<LinkKey, Link> byKey = new HashMap<>();
+        charge(links, -1, deltas, byKey);
+        release(c.key(), c.id, deltas, byKey);
+    }
+
+    /* Give back the bandwidth charged to a recorded connection and forget it */
+    public void release(Record r){
+        Map<LinkKey, Integer> deltas = new LinkedHashMap<>();
+        r.links.forEach((k, b) -> deltas.put(k, -b));
+        release(new ConnectionKey(r.source, r.destination), r.id, deltas, Collections.emptyMap());
+    }
+
+    /* Move the bandwidth charged to the connection from the old links to the new ones */
+    public Outcome move(Connection c, List<Link> path, Map<Link, Integer> old, Map<Link, Integer> links,
+                        ToIntFunction<Link> capacity){
+        Map<LinkKey, Integer> deltas = new LinkedHashMap<>();
+        Map<LinkKey, Link> byKey = new HashMap<>();
+        charge(old, -1, deltas, byKey);
+        charge(links, 1, deltas, byKey);
+
+        return transact(tx -> {
+            if (!apply(tx, deltas, byKey, capacity))
+                return Outcome.NO_CAPACITY;
+
+            TransactionalMap<ConnectionKey, Record> records = tx.getTransactionalMap(CONNECTIONS_MAP, SERIALIZER);
+            records.put(c.key(), new Record(c, localNode, path, keys(links)));
+            return Outcome.COMMITTED;
+        });
+    }
+
+    /* Forget the record with the specified id and apply the deltas, nothing if the record is already gone.
+     * Releasing always fits, the commit is retried until the other instances leave room, pausing longer each round.
+     * After the last round the record and its bandwidth stay in the cluster, until another instance takes it over */
+    private void release(ConnectionKey key, long id, Map<LinkKey, Integer> deltas, Map<LinkKey, Link> byKey){
+        for (int round = 0; round < MAX_RELEASE_ROUNDS; round++){
+            Outcome o = transact(tx -> {
+                TransactionalMap<ConnectionKey, Record> records = tx.getTransactionalMap(CONNECTIONS_MAP, SERIALIZER);
+                Record r = records.get(key);
+                if (r == null || r.id != id)
+                    return Outcome.NOT_FOUND; // released already
+
+                records.remove(key);
+                apply(tx, deltas, byKey, null);
+                return Outcome.COMMITTED;
+            });
+            if (o != Outcome.CONFLICT)
+                return;
+
+            try {
+                Thread.sleep((long) RELEASE_BACKOFF_MS << round);
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        log.warn("Cannot release connection {} in the cluster, too many concurrent changes", id);
+    }
+
+    /* Run the body in a new transaction and commit it if the body says so, retrying on conflicts */
+    private Outcome transact(Function<TransactionContext, Outcome> body){
+        for (int attempt = 0; attempt < MAX_COMMIT_ATTEMPTS; attempt++){
+            TransactionContext tx = storageService.transactionContextBuilder().build();
+            tx.begin();
+
+            Outcome o = body.apply(tx);
+            if (o != Outcome.COMMITTED){
+                tx.abort();
+                return o;
+            }
+
+            if (tx.commit().join() == CommitStatus.SUCCESS)
+                return Outcome.COMMITTED;
+        }
+        return Outcome.CONFLICT;
+    }
+
+    /* Change the bandwidth reserved on each link. Return false if a link would go beyond its capacity,
+     * a null capacity means no check */
+    private boolean apply(TransactionContext tx, Map<LinkKey, Integer> deltas, Map<LinkKey, Link> byKey,
+                          ToIntFunction<Link> capacity){
+        TransactionalMap<LinkKey, Integer> map = tx.getTransactionalMap(RESERVED_MAP, SERIALIZER);
+
+        for (Map.Entry<LinkKey, Integer> e : deltas.entrySet()){
+            int delta = e.getValue();
+            if (delta == 0)
+                continue;
+
+            Integer current = map.get(e.getKey());
+            int next = (current == null ? 0 : current) + delta;
+            if (delta > 0 && capacity != null && next > capacity.applyAsInt(byKey.get(e.getKey())))
+                return false;
+
+            if (next <= 0)
+                map.remove(e.getKey());
+            else
+                map.put(e.getKey(), next);
+        }
+        return true;
+    }
+
+    /* Bandwidth charged on each link, by key */
+    private static Map<LinkKey, Integer> keys(Map<Link, Integer> links){
+        Map<LinkKey, Integer> keys = new HashMap<>();
+        links.forEach((l, b) -> keys.merge(LinkKey.linkKey(l), b, Integer::sum));
+        return keys;
+    }
+
+    /* Add the bandwidth of every link, with the specified sign, to its delta */
+    private void charge(Map<Link, Integer> links, int sign, Map<LinkKey, Integer> deltas, Map<LinkKey, Link> byKey){
+        links.forEach((l, bandwidth) -> {
+            LinkKey k = LinkKey.linkKey(l);
+            deltas.merge(k, sign * bandwidth, Integer::sum);
+            byKey.put(k, l);
+        });
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Repairs the drift between the rules the connections need and the rules found on the devices.
+ * Devices are marked dirty when one of their rules of this application disappears or when they come back;
+ * each cycle diffs only the dirty devices, pushing the missing rules and removing the orphans in batches.
+ * The rules the application itself is removing are tagged: their removal is not a drift, and they are not pushed
+ * again while the removal is pending.
+ */
+public class FlowRuleReconciler {
+
+    // operations pushed in a single batch
+    private final static int BATCH_SIZE = 1000;
+
+    // a removal whose event never came is forgotten after this time
+    private final static long REMOVAL_TIMEOUT_MS = 60000;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final FlowRuleService flowRuleService;
+    private final ApplicationId appId;
+    private final Function<DeviceId, Collection<FlowRule>> expectedRules;
+    private final boolean removeOrphans;
+    private final ScheduledExecutorService executor;
+
+    private ScheduledFuture<?> task;
+
+    private final Set<DeviceId> dirty = ConcurrentHashMap.newKeySet();
+
+    // rules being removed by this application, with when the removal was requested
+    private final Map<FlowRule, Long> removing = new ConcurrentHashMap<>();
+
+    private volatile long repaired = 0;
+
+    /* expectedRules gives the rules of the connections on a device. Rules of this application not expected
+     * are removed only if removeOrphans, in a cluster they may belong to the connections of another instance */
+    public FlowRuleReconciler(FlowRuleService flowRuleService, ApplicationId appId,
+                              Function<DeviceId, Collection<FlowRule>> expectedRules, boolean removeOrphans,
+                              ScheduledExecutorService executor){
+        this.flowRuleService = flowRuleService;
+        this.appId = appId;
+        this.expectedRules = expectedRules;
+        this.removeOrphans = removeOrphans;
+        this.executor = executor;
+    }
+
+    /* (Re)start reconciling every intervalSeconds, 0 stops it */
+    public synchronized void start(int intervalSeconds){
+        stop();
+        if (intervalSeconds > 0)
+            task = executor.scheduleWithFixedDelay(this::reconcile, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop(){
+        if (task != null){
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    /* The rules of the device must be checked at the next cycle */
+    public void markDirty(DeviceId device){
+        dirty.add(device);
+    }
+
+    /* The operations are about to be applied by this application: tag the rules they remove */
+    public void expectRemovals(FlowRuleOperations operations){
+        long now = System.currentTimeMillis();
+        for (Set<FlowRuleOperation> stage : operations.stages())
+            for (FlowRuleOperation op : stage)
+                if (op.type() == FlowRuleOperation.Type.REMOVE)
+                    removing.put(op.rule(), now);
+    }
+
+    /* A rule of this application disappeared from its device: a drift, unless the application removed it */
+    public void ruleRemoved(FlowRule rule){
+        if (removing.remove(rule) == null)
+            markDirty(rule.deviceId());
+    }
+
+    /* Rules pushed or removed so far to repair a drift */
+    public long getRepaired(){
+        return repaired;
+    }
+
+    /* Diff and repair every dirty device */
+    private void reconcile(){
+        List<DeviceId> devices = new ArrayList<>(dirty);
+        dirty.removeAll(devices);
+
+        long expired = System.currentTimeMillis() - REMOVAL_TIMEOUT_MS;
+        removing.values().removeIf(requested -> requested < expired);
+
+        FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+        int pending = 0;
+
+        for (DeviceId device : devices){
+            // rules are equal when they have the same device and match
+            Map<FlowRule, FlowEntry> actual = new HashMap<>();
+            for (FlowEntry e : flowRuleService.getFlowEntries(device)){
+                if (e.appId() == appId.id() && e.state() != FlowEntry.FlowEntryState.PENDING_REMOVE &&
+                    e.state() != FlowEntry.FlowEntryState.REMOVED)
+                    actual.put(e, e);
+            }
+
+            for (FlowRule r : expectedRules.apply(device)){
+                FlowEntry e = actual.remove(r);
+                if (removing.containsKey(r))
+                    continue; // removed meanwhile, not a drift
+                if (e == null)
+                    ops.add(r);
+                else if (!e.exactMatch(r))
+                    ops.modify(r);
+                else
+                    continue;
+
+                if (++pending == BATCH_SIZE){
+                    push(ops, pending);
+                    ops = FlowRuleOperations.builder();
+                    pending = 0;
+                }
+            }
+
+            if (!removeOrphans)
+                continue;
+
+            for (FlowEntry e : actual.values()){
+                ops.remove(e);
+                if (++pending == BATCH_SIZE){
+                    push(ops, pending);
+                    ops = FlowRuleOperations.builder();
+                    pending = 0;
+                }
+            }
+        }
+
+        if (pending > 0)
+            push(ops, pending);
+    }
+
+    private void push(FlowRuleOperations.Builder ops, int size){
+        repaired += size;
+        log.info("Repairing {} rule(s)", size);
+
+        FlowRuleOperations operations = ops.build(new FlowRuleOperationsContext() {
+            @Override
+            public void onError(FlowRuleOperations operations){
+                log.warn("Failed to repair rules, they will be checked again");
+                for (Set<FlowRuleOperation> stage : operations.stages())
+                    for (FlowRuleOperation op : stage)
+                        dirty.add(op.rule().deviceId());
+            }
+        });
+        expectRemovals(operations);
+        flowRuleService.apply(operations);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.onosproject.core.GroupId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.group.Group;
+import org.onosproject.net.group.GroupKey;
+import org.onosproject.net.group.GroupService;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per device pool of the ids of the select groups, taken from a fixed range.
+ * The ids already used on a device, by any application, are read from the group service the first time the device
+ * is seen and then followed with the group events, so an id is never handed out twice on the same device.
+ * Each group key keeps its id until it is released; freed ids are reused only after the others, round robin.
+ */
+public class GroupIdPool {
+
+    private final GroupService groupService;
+
+    // first id of the range and number of ids in it
+    private final int base;
+    private final int range;
+
+    // ids of the range in use on each device, bit i stands for base + i
+    private final Map<DeviceId, BitSet> used = new HashMap<>();
+
+    // where the search of a free id starts on each device
+    private final Map<DeviceId, Integer> next = new HashMap<>();
+
+    private final Map<ImmutablePair<DeviceId, GroupKey>, Integer> assigned = new HashMap<>();
+
+    public GroupIdPool(GroupService groupService, int base, int range){
+        this.groupService = groupService;
+        this.base = base;
+        this.range = range;
+    }
+
+    /* Id of the group with the key on the device, a free one if the key has none yet.
+     * Throws Error if every id of the range is in use on the device */
+    public synchronized GroupId acquire(DeviceId device, GroupKey key) throws Error{
+        ImmutablePair<DeviceId, GroupKey> k = new ImmutablePair<>(device, key);
+        Integer id = assigned.get(k);
+        if (id != null)
+            return new GroupId(id);
+
+        BitSet u = used(device);
+        int start = next.getOrDefault(device, 0);
+        int i = u.nextClearBit(start);
+        if (i >= range){
+            i = u.nextClearBit(0);
+            if (i >= start)
+                throw new Error("No group id left on " + device + "! :(");
+        }
+
+        u.set(i);
+        next.put(device, (i + 1) % range);
+        assigned.put(k, base + i);
+        return new GroupId(base + i);
+    }
+
+    /* Take in use the id of a group with the key already on the device */
+    public synchronized void adopt(DeviceId device, GroupKey key, GroupId id){
+        Integer previous = assigned.put(new ImmutablePair<>(device, key), id.id());
+        if (previous != null && previous != id.id())
+            free(device, previous);
+        mark(used(device), id.id());
+    }
+
+    /* A group appeared on the device, its id cannot be handed out */
+    public synchronized void seen(Group g){
+        BitSet u = used.get(g.deviceId());
+        if (u != null)
+            mark(u, g.id().id());
+    }
+
+    /* Give back the id of the group with the key, once it is removed from the device */
+    public synchronized void release(DeviceId device, GroupKey key){
+        Integer id = assigned.remove(new ImmutablePair<>(device, key));
+        if (id != null)
+            free(device, id);
+    }
+
+    public synchronized void clear(){
+        used.clear();
+        next.clear();
+        assigned.clear();
+    }
+
+    /* Ids of the range in use on the device, read from the group service the first time */
+    private BitSet used(DeviceId device){
+        return used.computeIfAbsent(device, d -> {
+            BitSet u = new BitSet(range);
+            for (Group g : groupService.getGroups(d))
+                mark(u, g.id().id());
+            return u;
+        });
+    }
+
+    private void mark(BitSet u, int id){
+        if (id - base >= 0 && id - base < range)
+            u.set(id - base);
+    }
+
+    private void free(DeviceId device, int id){
+        BitSet u = used.get(device);
+        if (u != null && id - base >= 0 && id - base < range)
+            u.clear(id - base);
+    }
+}
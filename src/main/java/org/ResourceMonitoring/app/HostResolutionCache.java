@@ -0,0 +1,152 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.IpPrefix;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.host.HostService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache of the prefix and of the attachment point of the hosts, by id and by address, so that admissions
+ * do not query the host store. It is kept up to date with the host events; a miss is looked up in the host service.
+ * Hosts without an address are not cached, they cannot be the endpoint of a connection.
+ */
+public class HostResolutionCache {
+
+    /* What the connections need to know about a host */
+    public static final class Attachment {
+        public final HostId id;
+        // address matched by the rules, the first one of the host
+        public final IpPrefix prefix;
+        public final HostLocation location;
+        public final Set<IpAddress> addresses;
+
+        Attachment(Host h){
+            this.id = h.id();
+            this.prefix = IpPrefix.valueOf(h.ipAddresses().iterator().next(), IpPrefix.MAX_INET_MASK_LENGTH);
+            this.location = h.location();
+            this.addresses = h.ipAddresses();
+        }
+    }
+
+    private final HostService hostService;
+
+    private final ConcurrentMap<HostId, Attachment> byId = new ConcurrentHashMap<>();
+
+    // every cached host with the address, an address claimed by more than one host resolves to none
+    private final ConcurrentMap<IpAddress, List<Attachment>> byIp = new ConcurrentHashMap<>();
+
+    public HostResolutionCache(HostService hostService){
+        this.hostService = hostService;
+    }
+
+    /* Cache every host known to the host service */
+    public void load(){
+        for (Host h : hostService.getHosts())
+            update(h);
+    }
+
+    /* Attachment of the host, or null if it is unknown or has no address */
+    public Attachment get(HostId id){
+        Attachment a = byId.get(id);
+        if (a != null)
+            return a;
+
+        Host h = hostService.getHost(id);
+        if (h == null)
+            return null;
+        update(h);
+        return byId.get(id);
+    }
+
+    /* Attachment of the only host with the address, or null if no host or more than one has it */
+    public Attachment get(IpAddress address){
+        List<Attachment> cached = byIp.get(address);
+        if (cached != null)
+            return cached.size() == 1 ? cached.get(0) : null;
+
+        Set<Host> hosts = hostService.getHostsByIp(address);
+        if (hosts.size() != 1)
+            return null;
+        update(hosts.iterator().next());
+        cached = byIp.get(address);
+        return cached != null && cached.size() == 1 ? cached.get(0) : null;
+    }
+
+    /* Cache the current state of the host. Return its previous attachment, or null if it was not cached */
+    public synchronized Attachment update(Host h){
+        if (h.ipAddresses().isEmpty())
+            return remove(h.id());
+
+        Attachment a = new Attachment(h);
+        Attachment previous = byId.put(a.id, a);
+        if (previous != null)
+            for (IpAddress ip : previous.addresses)
+                unindex(ip, previous);
+        for (IpAddress ip : a.addresses)
+            index(ip, a);
+
+        return previous;
+    }
+
+    /* Forget the host. Return its last attachment, or null if it was not cached */
+    public synchronized Attachment remove(HostId id){
+        Attachment previous = byId.remove(id);
+        if (previous != null)
+            for (IpAddress ip : previous.addresses)
+                unindex(ip, previous);
+        return previous;
+    }
+
+    /* Add the host to those with the address. The lists are replaced, never modified, readers do not lock */
+    private void index(IpAddress ip, Attachment a){
+        byIp.compute(ip, (k, hosts) -> {
+            List<Attachment> updated = new ArrayList<>(hosts == null ? 1 : hosts.size() + 1);
+            if (hosts != null)
+                updated.addAll(hosts);
+            updated.add(a);
+            return updated;
+        });
+    }
+
+    /* Remove the host from those with the address */
+    private void unindex(IpAddress ip, Attachment a){
+        byIp.computeIfPresent(ip, (k, hosts) -> {
+            List<Attachment> updated = new ArrayList<>(hosts);
+            updated.remove(a);
+            return updated.isEmpty() ? null : updated;
+        });
+    }
+
+    /* Number of cached hosts */
+    public int size(){
+        return byId.size();
+    }
+
+    public synchronized void clear(){
+        byId.clear();
+        byIp.clear();
+    }
+}
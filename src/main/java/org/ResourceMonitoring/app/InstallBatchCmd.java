@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.onlab.packet.IpAddress;
+import org.onosproject.cli.AbstractShellCommand;
+import org.onosproject.net.HostId;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+
+@Service
+@Command(scope = "RS", name = "install-batch",
+         description = "Install a batch of connections listed in a file, one 'source destination bandwidth' per line")
+public class InstallBatchCmd extends AbstractShellCommand {
+
+    // Get my Resource Monitoring Service instance
+    private ResourceMonitoringService rmS = get(ResourceMonitoringService.class);
+
+    @Argument(index = 0, name = "file", description = "File with one demand per line: source IP, destination IP, bandwidth (Mbps)",
+            required = true, multiValued = false)
+    private String file = null;
+
+    @Override
+    protected void doExecute() {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Paths.get(file));
+        } catch (IOException e){
+            error("Unable to read %s: %s", file, e.getMessage());
+            return;
+        }
+
+        List<Demand> demands = new ArrayList<>();
+        int invalid = 0;
+
+        for (String line : lines){
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            // Parsing of the demand, in case of errors throws IllegalArgumentException
+            try {
+                String[] fields = line.split("[\\s,]+");
+                if (fields.length != 3)
+                    throw new IllegalArgumentException();
+
+                HostId sourceId = rmS.getHostId(IpAddress.valueOf(fields[0]));
+                HostId destinationId = rmS.getHostId(IpAddress.valueOf(fields[1]));
+
+                demands.add(new Demand(sourceId, destinationId, Integer.parseInt(fields[2])));
+            } catch (IllegalArgumentException e){
+                invalid++;
+                print("Rejected: %s (invalid demand or unknown host)", line);
+            }
+        }
+
+        try {
+            BatchReport report = rmS.createConnectionsAsync(demands).join();
+
+            for (Connection c : report.getAdmitted())
+                print("Admitted: %s <-> %s (%d Mbps)", c.source.toString(), c.destination.toString(), c.bandwidth);
+            for (ImmutablePair<Demand, String> r : report.getRejected())
+                print("Rejected: %s (%s)", r.left.toString(), r.right);
+
+            print("%d admitted, %d rejected in %d ms (%.1f demands/s)",
+                  report.getAdmitted().size(), report.getRejected().size() + invalid,
+                  report.getElapsedMillis(), report.getThroughput());
+        } catch (CompletionException e){
+            error(e.getCause().getMessage());
+        }
+    }
+
+}
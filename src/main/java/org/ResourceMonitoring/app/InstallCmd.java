@@ -21,7 +21,6 @@ import org.apache.karaf.shell.api.action.lifecycle.Service;
 import org.onlab.packet.IpAddress;
 import org.onosproject.cli.AbstractShellCommand;
 import org.onosproject.net.HostId;
-import org.onosproject.net.host.HostService;
 
 
 @Service
@@ -29,9 +28,6 @@ import org.onosproject.net.host.HostService;
          description = "Install a new connection between two hosts")
 public class InstallCmd extends AbstractShellCommand {
 
-    // Get the host service
-    protected HostService hostService = get(HostService.class);
-
     // Get my Resource Monitoring Service instance
     private ResourceMonitoringService rmS = get(ResourceMonitoringService.class);
 
@@ -47,20 +43,26 @@ public class InstallCmd extends AbstractShellCommand {
             required = true, multiValued = false)
     private String bandwidth = null;
 
+    @Argument(index = 3, name = "class", description = "Reservation class: best-effort (default), standard or critical",
+            required = false, multiValued = false)
+    private String reservationClass = null;
+
     @Override
     protected void doExecute() {
 
         try {
             // Parsing of the input parameters, in case of errors throws IllegalArgumentException
             int capacity = Integer.parseInt(bandwidth);
+            ReservationClass cls = reservationClass == null ? ReservationClass.BEST_EFFORT :
+                                                              ReservationClass.fromString(reservationClass);
 
             IpAddress sourceIp = IpAddress.valueOf(this.source);
             IpAddress dstIp = IpAddress.valueOf(this.destination);
 
-            HostId sourceId = Helper.HostIdFromIp(sourceIp, this.hostService);
-            HostId destinationId = Helper.HostIdFromIp(dstIp, this.hostService);
+            HostId sourceId = rmS.getHostId(sourceIp);
+            HostId destinationId = rmS.getHostId(dstIp);
 
-            rmS.createConnection(sourceId, destinationId, capacity);
+            rmS.createConnection(sourceId, destinationId, capacity, cls);
 
         } catch (IllegalArgumentException e){
             e.printStackTrace();
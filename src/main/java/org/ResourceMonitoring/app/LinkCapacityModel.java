@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.Link;
+import org.onosproject.net.LinkKey;
+import org.onosproject.net.Port;
+import org.onosproject.net.device.DeviceService;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Capacity of each link in Mbps. It is the speed of the slowest of the two ports of the link,
+ * unless overridden by configuration, or a default when the speed is unknown.
+ * Capacities are cached in a compact array indexed by link and recomputed only when ports or links change.
+ */
+public class LinkCapacityModel {
+
+    private final DeviceService deviceService;
+
+    // position of each link in the capacities array
+    private final ConcurrentMap<LinkKey, Integer> index = new ConcurrentHashMap<>();
+
+    private volatile AtomicIntegerArray capacities = new AtomicIntegerArray(64);
+
+    private volatile int defaultCapacity = ResourceMonitoringService.LINK_CAPACITY;
+
+    private volatile boolean fromPortSpeed = true;
+
+    private volatile Map<LinkKey, Integer> overrides = Collections.emptyMap();
+
+    public LinkCapacityModel(DeviceService deviceService){
+        this.deviceService = deviceService;
+    }
+
+    /* Change the configuration, capacities must then be refreshed with update() */
+    public void configure(int defaultCapacity, boolean fromPortSpeed, Map<LinkKey, Integer> overrides){
+        this.defaultCapacity = defaultCapacity;
+        this.fromPortSpeed = fromPortSpeed;
+        this.overrides = overrides;
+    }
+
+    /* Cached capacity of the link, computed the first time the link is seen */
+    public int getCapacity(Link l){
+        Integer i = index.get(LinkKey.linkKey(l));
+        if (i == null){
+            update(l);
+            i = index.get(LinkKey.linkKey(l));
+        }
+        return capacities.get(i);
+    }
+
+    /* Recompute the capacity of the link. Return how much it changed, 0 for a link never seen before */
+    public synchronized int update(Link l){
+        LinkKey key = LinkKey.linkKey(l);
+        int capacity = compute(l);
+
+        Integer i = index.get(key);
+        if (i == null){
+            i = index.size();
+            if (i == capacities.length())
+                grow();
+            capacities.set(i, capacity);
+            index.put(key, i);
+            return 0;
+        }
+
+        return capacity - capacities.getAndSet(i, capacity);
+    }
+
+    /* Parse overrides in the form "srcDevice/srcPort-dstDevice/dstPort=Mbps,..." */
+    public static Map<LinkKey, Integer> parseOverrides(String s) throws IllegalArgumentException{
+        Map<LinkKey, Integer> parsed = new HashMap<>();
+        if (s == null || s.trim().isEmpty())
+            return parsed;
+
+        for (String entry : s.split(",")){
+            String[] kv = entry.trim().split("=");
+            String[] ends = kv[0].trim().split("-(?=[^-]+/[^/]+$)");
+            if (kv.length != 2 || ends.length != 2)
+                throw new IllegalArgumentException("Invalid link capacity override: " + entry);
+
+            parsed.put(LinkKey.linkKey(ConnectPoint.deviceConnectPoint(ends[0]), ConnectPoint.deviceConnectPoint(ends[1])),
+                       Integer.parseInt(kv[1].trim()));
+        }
+        return parsed;
+    }
+
+    /* Capacity of the link according to the current configuration */
+    private int compute(Link l){
+        Integer override = overrides.get(LinkKey.linkKey(l));
+        if (override != null)
+            return override;
+
+        if (fromPortSpeed){
+            long speed = Math.min(portSpeed(l.src()), portSpeed(l.dst()));
+            if (speed != Long.MAX_VALUE)
+                return (int) Math.min(speed, Integer.MAX_VALUE);
+        }
+
+        return defaultCapacity;
+    }
+
+    /* Speed of the port in Mbps, Long.MAX_VALUE if unknown */
+    private long portSpeed(ConnectPoint cp){
+        Port p = deviceService.getPort(cp.deviceId(), cp.port());
+        return p == null || p.portSpeed() <= 0 ? Long.MAX_VALUE : p.portSpeed();
+    }
+
+    /* Double the size of the capacities array */
+    private void grow(){
+        AtomicIntegerArray bigger = new AtomicIntegerArray(capacities.length() * 2);
+        for (int i = 0; i < capacities.length(); i++)
+            bigger.set(i, capacities.get(i));
+        capacities = bigger;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.LinkKey;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.device.PortStatistics;
+import org.onosproject.net.link.LinkService;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measured rate of the traffic sent on each link, sampled periodically from the port delta statistics
+ * of the source port. Each sample queries every device once, whatever the number of its ports and links.
+ * The last WINDOW samples of each link are kept in a ring buffer, a slice of a single int array.
+ */
+public class LinkUtilizationMonitor {
+
+    // samples kept for each link
+    public final static int WINDOW = 60;
+
+    private final DeviceService deviceService;
+    private final LinkService linkService;
+    private final ScheduledExecutorService executor;
+
+    private ScheduledFuture<?> task;
+
+    // position of each link in the samples array, assigned by the sampling thread only
+    private final ConcurrentMap<LinkKey, Integer> index = new ConcurrentHashMap<>();
+
+    // rate in Kbps of each link, WINDOW consecutive slots per link
+    private volatile int[] samples = new int[64 * WINDOW];
+
+    // samples taken so far, the next one goes in position ticks % WINDOW of each slice
+    private volatile long ticks = 0;
+
+    public LinkUtilizationMonitor(DeviceService deviceService, LinkService linkService, ScheduledExecutorService executor){
+        this.deviceService = deviceService;
+        this.linkService = linkService;
+        this.executor = executor;
+    }
+
+    /* (Re)start sampling every intervalSeconds, 0 stops it */
+    public synchronized void start(int intervalSeconds){
+        stop();
+        if (intervalSeconds > 0)
+            task = executor.scheduleAtFixedRate(this::sample, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop(){
+        if (task != null){
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    /* Last measured rate of the link in Kbps */
+    public int getRate(Link l){
+        Integer i = index.get(LinkKey.linkKey(l));
+        long t = ticks;
+        if (i == null || t == 0)
+            return 0;
+
+        return samples[i * WINDOW + (int) ((t - 1) % WINDOW)];
+    }
+
+    /* Average rate of the link in Kbps over the samples kept */
+    public int getAverageRate(Link l){
+        Integer i = index.get(LinkKey.linkKey(l));
+        long t = ticks;
+        if (i == null || t == 0)
+            return 0;
+
+        int n = (int) Math.min(t, WINDOW);
+        int[] s = samples;
+        long sum = 0;
+        for (int k = 0; k < n; k++)
+            sum += s[i * WINDOW + k];
+        return (int) (sum / n);
+    }
+
+    /* Rates of the link in Kbps, oldest first */
+    public int[] getSeries(Link l){
+        Integer i = index.get(LinkKey.linkKey(l));
+        long t = ticks;
+        if (i == null || t == 0)
+            return new int[0];
+
+        int n = (int) Math.min(t, WINDOW);
+        int[] s = samples;
+        int[] series = new int[n];
+        for (int k = 0; k < n; k++)
+            series[k] = s[i * WINDOW + (int) ((t - n + k) % WINDOW)];
+        return series;
+    }
+
+    /* Take one sample of every active link */
+    private void sample(){
+        Map<DeviceId, Map<PortNumber, PortStatistics>> stats = new HashMap<>();
+        int position = (int) (ticks % WINDOW);
+
+        for (Link l : linkService.getActiveLinks()){
+            PortStatistics p = stats.computeIfAbsent(l.src().deviceId(), this::deltaStatistics)
+                                    .get(l.src().port());
+
+            int i = slot(LinkKey.linkKey(l));
+            samples[i * WINDOW + position] = p == null ? 0 : rate(p);
+        }
+
+        ticks++;
+    }
+
+    /* Delta statistics of the ports of the device, with a single query */
+    private Map<PortNumber, PortStatistics> deltaStatistics(DeviceId device){
+        Map<PortNumber, PortStatistics> ports = new HashMap<>();
+        for (PortStatistics p : deviceService.getPortDeltaStatistics(device))
+            ports.put(p.portNumber(), p);
+        return ports;
+    }
+
+    /* Position of the link, assigning a new one the first time it is seen */
+    private int slot(LinkKey key){
+        Integer i = index.get(key);
+        if (i != null)
+            return i;
+
+        i = index.size();
+        if ((i + 1) * WINDOW > samples.length){
+            int[] bigger = new int[samples.length * 2];
+            System.arraycopy(samples, 0, bigger, 0, samples.length);
+            samples = bigger;
+        }
+        index.put(key, i);
+        return i;
+    }
+
+    /* Rate in Kbps of the traffic sent on the port during the statistics interval */
+    private static int rate(PortStatistics p){
+        double seconds = p.durationSec() + p.durationNano() / 1e9;
+        if (seconds <= 0)
+            return 0;
+
+        return (int) Math.min(p.bytesSent() * 8 / 1000 / seconds, Integer.MAX_VALUE);
+    }
+}
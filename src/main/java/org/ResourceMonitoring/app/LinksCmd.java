@@ -35,21 +35,39 @@ public class LinksCmd extends AbstractShellCommand {
 
     private LinkService linkService = get(LinkService.class);
 
+    // reservations using less than this fraction of their bandwidth on average are reported as idle
+    private final static double IDLE_FRACTION = 0.1;
+
     @Override
     protected void doExecute() {
         Map<Link, Integer> linkStatus = rmS.getLinksStatus();
+        LinkUtilizationMonitor monitor = rmS.getUtilizationMonitor();
 
         for (Link l : linkService.getActiveLinks()){
             int allocated = 0;
             DeviceId srcDeviceId = l.src().deviceId();
             DeviceId dstDeviceId = l.dst().deviceId();
 
-            if (linkStatus.containsKey(l))
-                allocated = rmS.LINK_CAPACITY - linkStatus.get(l);
+            int capacity = rmS.getLinkCapacity(l);
+
+            Integer status = linkStatus.get(l);
+            if (status != null)
+                allocated = capacity - status;
+
+            int available = capacity - allocated;
+
+            double measured = monitor.getRate(l) / 1000.0;
+            double average = monitor.getAverageRate(l) / 1000.0;
 
-            int available = rmS.LINK_CAPACITY - allocated;
+            // reservations whose traffic is well below or above what they hold
+            String flag = "";
+            if (allocated > 0 && average > allocated)
+                flag = "  [oversubscribed]";
+            else if (allocated > 0 && average < allocated * IDLE_FRACTION)
+                flag = "  [idle]";
 
-            print("%s -> %s  (Capacity: %d Mbps  -  Allocated: %d Mbps - Available: %d Mbps)", srcDeviceId.toString(), dstDeviceId.toString(), rmS.LINK_CAPACITY, allocated, available);
+            print("%s -> %s  (Capacity: %d Mbps  -  Allocated: %d Mbps - Available: %d Mbps - Measured: %.2f Mbps, avg %.2f Mbps)%s",
+                  srcDeviceId.toString(), dstDeviceId.toString(), capacity, allocated, available, measured, average, flag);
         }
     }
 
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.meter.*;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Per device pool of meters keyed by (device, rate, unit).
+ * A released meter is kept on the device and handed out again to the next rule asking for the same rate,
+ * skipping the meter round-trip. A meter polices all the traffic of the rules using it, so it is handed out
+ * only when no rule references it anymore. Idle meters beyond a small number per key are reclaimed.
+ */
+public class MeterPool {
+
+    // idle meters kept for each (device, rate, unit)
+    private final static int MAX_IDLE_PER_KEY = 8;
+
+    private final static Meter.Unit UNIT = Meter.Unit.KB_PER_SEC;
+
+    private final MeterService meterService;
+    private final MeterStore meterStore;
+    private final ApplicationId appId;
+
+    private final Map<ImmutableTriple<DeviceId, Long, Meter.Unit>, Deque<MeterId>> idle = new HashMap<>();
+    private final Map<ImmutablePair<DeviceId, MeterId>, Long> rates = new HashMap<>();
+    private final Map<ImmutablePair<DeviceId, MeterId>, Integer> references = new HashMap<>();
+    // outcome of the submission of each meter, only meters confirmed by the device are pooled
+    private final Map<ImmutablePair<DeviceId, MeterId>, CompletableFuture<Void>> confirmations = new HashMap<>();
+
+    private long hits = 0, misses = 0;
+
+    public MeterPool(MeterService meterService, MeterStore meterStore, ApplicationId appId){
+        this.meterService = meterService;
+        this.meterStore = meterStore;
+        this.appId = appId;
+    }
+
+    /* Get a meter with the specified rate on the device, reusing an idle one if possible.
+     * The future completes when the meter is confirmed by the device */
+    public MeterId acquire(DeviceId device, long rate, CompletableFuture<Void> confirmed){
+        synchronized (this){
+            Deque<MeterId> available = idle.get(new ImmutableTriple<>(device, rate, UNIT));
+            if (available != null && !available.isEmpty()){
+                MeterId id = available.pop();
+                references.put(new ImmutablePair<>(device, id), 1);
+                hits++;
+                confirmed.complete(null);
+                return id;
+            }
+            misses++;
+        }
+
+        MeterId id = submit(device, rate, confirmed);
+        synchronized (this){
+            ImmutablePair<DeviceId, MeterId> key = new ImmutablePair<>(device, id);
+            rates.put(key, rate);
+            confirmations.put(key, confirmed);
+            references.merge(key, 1, Integer::sum);
+        }
+        return id;
+    }
+
+    /* Take in use a meter of this application found on the device, e.g. after a restart.
+     * Return false if the meter is already known */
+    public synchronized boolean adopt(Meter meter){
+        ImmutablePair<DeviceId, MeterId> key = new ImmutablePair<>(meter.deviceId(), meter.id());
+        if (references.containsKey(key) || meter.bands().isEmpty())
+            return false;
+
+        rates.put(key, meter.bands().iterator().next().rate());
+        confirmations.put(key, CompletableFuture.completedFuture(null));
+        references.put(key, 1);
+        return true;
+    }
+
+    /* Drop a reference to the meter, once unused it goes back to the pool or is deleted */
+    public void release(DeviceId device, MeterId id){
+        ImmutablePair<DeviceId, MeterId> key = new ImmutablePair<>(device, id);
+
+        synchronized (this){
+            Integer refs = references.computeIfPresent(key, (k, r) -> r > 1 ? r - 1 : null);
+            if (refs != null)
+                return; // still in use
+
+            Long rate = rates.get(key);
+            CompletableFuture<Void> confirmed = confirmations.get(key);
+            if (rate != null && confirmed != null && confirmed.isDone() && !confirmed.isCompletedExceptionally()){
+                Deque<MeterId> available = idle.computeIfAbsent(new ImmutableTriple<>(device, rate, UNIT), k -> new ArrayDeque<>());
+                if (available.size() < MAX_IDLE_PER_KEY){
+                    available.push(id);
+                    return;
+                }
+            }
+
+            rates.remove(key);
+            confirmations.remove(key);
+        }
+
+        delete(device, id);
+    }
+
+    /* Delete every idle meter from the devices */
+    public void clear(){
+        List<ImmutablePair<DeviceId, MeterId>> reclaimed = new ArrayList<>();
+
+        synchronized (this){
+            idle.forEach((k, ids) -> ids.forEach(id -> reclaimed.add(new ImmutablePair<>(k.left, id))));
+            idle.clear();
+            reclaimed.forEach(rates::remove);
+            reclaimed.forEach(confirmations::remove);
+        }
+
+        reclaimed.forEach(p -> delete(p.left, p.right));
+    }
+
+    /* Forget every meter, in use or idle, and delete them from the devices. The meters of each device
+     * are deleted by a task of the executor; the future completes once every device is done */
+    public CompletableFuture<Void> purge(Executor executor){
+        Map<DeviceId, List<MeterId>> meters = new HashMap<>();
+
+        synchronized (this){
+            references.keySet().forEach(k -> meters.computeIfAbsent(k.left, d -> new ArrayList<>()).add(k.right));
+            idle.forEach((k, ids) -> meters.computeIfAbsent(k.left, d -> new ArrayList<>()).addAll(ids));
+            idle.clear();
+            references.clear();
+            rates.clear();
+            confirmations.clear();
+        }
+
+        List<CompletableFuture<Void>> devices = new ArrayList<>(meters.size());
+        meters.forEach((device, ids) -> devices.add(CompletableFuture.runAsync(() -> ids.forEach(id -> delete(device, id)), executor)));
+        return CompletableFuture.allOf(devices.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /* Fraction of the requests served by an idle meter */
+    public synchronized double getHitRate(){
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    public synchronized long getHits(){
+        return hits;
+    }
+
+    public synchronized long getMisses(){
+        return misses;
+    }
+
+    /* Meters of this application on each device: [in use, idle] */
+    public synchronized Map<DeviceId, int[]> getOccupancy(){
+        Map<DeviceId, int[]> occupancy = new TreeMap<>(Comparator.comparing(DeviceId::toString));
+        references.keySet().forEach(k -> occupancy.computeIfAbsent(k.left, d -> new int[2])[0]++);
+        idle.forEach((k, ids) -> occupancy.computeIfAbsent(k.left, d -> new int[2])[1] += ids.size());
+        return occupancy;
+    }
+
+    /* Submit a new meter to the device */
+    private MeterId submit(DeviceId device, long rate, CompletableFuture<Void> confirmed){
+        // Define the Band object
+        Band b = DefaultBand.builder()
+                            .ofType(Band.Type.DROP)
+                            .withRate(rate)
+                            .burstSize(0)
+                            .build();
+
+        // Create a Meter Request
+        MeterRequest m = DefaultMeterRequest.builder()
+                .forDevice(device)
+                .fromApp(this.appId)
+                .withBands(Collections.singleton(b))
+                .withUnit(UNIT)
+                .burst()
+                .withContext(new MeterContext() {
+                    @Override
+                    public void onSuccess(MeterRequest request){
+                        confirmed.complete(null);
+                    }
+
+                    @Override
+                    public void onError(MeterRequest request, MeterFailReason reason){
+                        confirmed.completeExceptionally(new Error("Failed to install meter on " + device + ": " + reason));
+                    }
+                })
+                .add();
+
+        // Retrieve the instantiated meter
+        return meterService.submit(m).id();
+    }
+
+    /* Delete a meter from the device */
+    private void delete(DeviceId device, MeterId id){
+        Meter m = meterService.getMeter(device, id);
+        if (m != null)
+            meterStore.deleteMeterNow(m);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.onosproject.cli.AbstractShellCommand;
+import org.onosproject.net.DeviceId;
+
+import java.util.Map;
+
+
+@Service
+@Command(scope = "RS", name = "meters",
+        description = "Get the state of the meter pool")
+public class MetersCmd extends AbstractShellCommand {
+
+    // Get my Resource Monitoring Service instance
+    private ResourceMonitoringService rmS = get(ResourceMonitoringService.class);
+
+    @Override
+    protected void doExecute() {
+        MeterPool pool = rmS.getMeterPool();
+
+        print("Pool hit rate: %.1f%% (%d hits - %d misses)", pool.getHitRate() * 100, pool.getHits(), pool.getMisses());
+
+        for (Map.Entry<DeviceId, int[]> e : pool.getOccupancy().entrySet())
+            print("%s  (In use: %d meters - Idle: %d meters)", e.getKey().toString(), e.getValue()[0], e.getValue()[1]);
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+/**
+ * Constants for default values of configurable properties.
+ */
+public final class OsgiPropertyConstants {
+
+    private OsgiPropertyConstants() {}
+
+    public static final String PATH_WEIGHT = "pathWeight";
+    public static final String PATH_WEIGHT_DEFAULT = "hopCount";
+
+    public static final String DEFAULT_LINK_CAPACITY = "defaultLinkCapacity";
+    public static final int DEFAULT_LINK_CAPACITY_DEFAULT = 10;
+
+    public static final String LINK_CAPACITY_FROM_PORT_SPEED = "linkCapacityFromPortSpeed";
+    public static final boolean LINK_CAPACITY_FROM_PORT_SPEED_DEFAULT = true;
+
+    public static final String LINK_CAPACITY_OVERRIDES = "linkCapacityOverrides";
+    public static final String LINK_CAPACITY_OVERRIDES_DEFAULT = "";
+
+    public static final String DISTRIBUTED_RESERVATIONS = "distributedReservations";
+    public static final boolean DISTRIBUTED_RESERVATIONS_DEFAULT = false;
+
+    public static final String UTILIZATION_SAMPLE_INTERVAL = "utilizationSampleInterval";
+    public static final int UTILIZATION_SAMPLE_INTERVAL_DEFAULT = 5;
+
+    public static final String PERSIST_RESERVATIONS = "persistReservations";
+    public static final boolean PERSIST_RESERVATIONS_DEFAULT = false;
+
+    public static final String CONNECTION_STATS_INTERVAL = "connectionStatsInterval";
+    public static final int CONNECTION_STATS_INTERVAL_DEFAULT = 10;
+
+    public static final String RECONCILE_INTERVAL = "reconcileInterval";
+    public static final int RECONCILE_INTERVAL_DEFAULT = 10;
+
+    public static final String MULTIPATH_MAX_PATHS = "multipathMaxPaths";
+    public static final int MULTIPATH_MAX_PATHS_DEFAULT = 1;
+
+    public static final String AGGREGATE_TRANSIT_RULES = "aggregateTransitRules";
+    public static final boolean AGGREGATE_TRANSIT_RULES_DEFAULT = false;
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable hash map whose updates return a new map sharing every untouched node with the previous one.
+ * Entries are kept in a hash array mapped trie of 32-way nodes, so an update copies only the few nodes
+ * on the way to its key and a map can be published to readers without locking or copying it.
+ */
+public final class PersistentMap<K, V> implements Iterable<Map.Entry<K, V>> {
+
+    // bits of the hash consumed at each level of the trie
+    private final static int BITS = 5;
+    private final static int MASK = (1 << BITS) - 1;
+
+    // levels of bitmap nodes needed to consume the whole hash, plus a collision node
+    private final static int MAX_DEPTH = (32 + BITS - 1) / BITS + 1;
+
+    private final static PersistentMap<?, ?> EMPTY = new PersistentMap<>(new BitmapNode(0, new Object[0]), 0);
+
+    /* An entry of the map with the hash of its key */
+    private static final class Leaf<K, V> extends AbstractMap.SimpleImmutableEntry<K, V> {
+        private final static long serialVersionUID = 1L;
+
+        final int hash;
+
+        Leaf(K key, V value, int hash){
+            super(key, value);
+            this.hash = hash;
+        }
+
+        boolean matches(Object key, int hash){
+            return this.hash == hash && getKey().equals(key);
+        }
+    }
+
+    private static abstract class Node {
+        // leaves and child nodes of this node
+        abstract Object[] slots();
+
+        abstract Leaf<?, ?> find(Object key, int hash, int shift);
+
+        abstract Node put(Leaf<?, ?> leaf, int shift, boolean[] added);
+
+        /* The node without the key, this node if the key is not found, null if nothing is left */
+        abstract Node remove(Object key, int hash, int shift);
+    }
+
+    /* Node whose bitmap tells which of the 32 slots for the next bits of the hash are taken */
+    private static final class BitmapNode extends Node {
+        final int bitmap;
+        final Object[] slots;
+
+        BitmapNode(int bitmap, Object[] slots){
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        @Override
+        Object[] slots(){
+            return slots;
+        }
+
+        @Override
+        Leaf<?, ?> find(Object key, int hash, int shift){
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0)
+                return null;
+
+            Object o = slots[index(bit)];
+            if (o instanceof Leaf)
+                return ((Leaf<?, ?>) o).matches(key, hash) ? (Leaf<?, ?>) o : null;
+            return ((Node) o).find(key, hash, shift + BITS);
+        }
+
+        @Override
+        Node put(Leaf<?, ?> leaf, int shift, boolean[] added){
+            int bit = bit(leaf.hash, shift);
+            int i = index(bit);
+
+            if ((bitmap & bit) == 0){
+                added[0] = true;
+                Object[] s = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, s, 0, i);
+                s[i] = leaf;
+                System.arraycopy(slots, i, s, i + 1, slots.length - i);
+                return new BitmapNode(bitmap | bit, s);
+            }
+
+            Object o = slots[i];
+            if (o instanceof Leaf){
+                Leaf<?, ?> l = (Leaf<?, ?>) o;
+                if (l.matches(leaf.getKey(), leaf.hash))
+                    return with(i, leaf);
+
+                added[0] = true;
+                return with(i, merge(l, leaf, shift + BITS));
+            }
+
+            Node n = ((Node) o).put(leaf, shift + BITS, added);
+            return n == o ? this : with(i, n);
+        }
+
+        @Override
+        Node remove(Object key, int hash, int shift){
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0)
+                return this;
+
+            int i = index(bit);
+            Object o = slots[i];
+            if (o instanceof Leaf){
+                if (!((Leaf<?, ?>) o).matches(key, hash))
+                    return this;
+                return without(bit, i);
+            }
+
+            Node n = ((Node) o).remove(key, hash, shift + BITS);
+            if (n == o)
+                return this;
+            if (n == null)
+                return without(bit, i);
+
+            // a child left with a single entry is replaced by the entry itself
+            Object[] s = n.slots();
+            return with(i, s.length == 1 && s[0] instanceof Leaf ? s[0] : n);
+        }
+
+        private Node with(int i, Object o){
+            Object[] s = slots.clone();
+            s[i] = o;
+            return new BitmapNode(bitmap, s);
+        }
+
+        private Node without(int bit, int i){
+            if (slots.length == 1)
+                return null;
+
+            Object[] s = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, s, 0, i);
+            System.arraycopy(slots, i + 1, s, i, slots.length - i - 1);
+            return new BitmapNode(bitmap & ~bit, s);
+        }
+
+        private int index(int bit){
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+    }
+
+    /* Entries whose keys have the same hash */
+    private static final class CollisionNode extends Node {
+        final int hash;
+        final Object[] leaves;
+
+        CollisionNode(int hash, Object[] leaves){
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        @Override
+        Object[] slots(){
+            return leaves;
+        }
+
+        @Override
+        Leaf<?, ?> find(Object key, int hash, int shift){
+            if (hash != this.hash)
+                return null;
+
+            for (Object o : leaves)
+                if (((Leaf<?, ?>) o).matches(key, hash))
+                    return (Leaf<?, ?>) o;
+            return null;
+        }
+
+        @Override
+        Node put(Leaf<?, ?> leaf, int shift, boolean[] added){
+            // a different hash splits here, below a bitmap node holding this node
+            if (leaf.hash != hash)
+                return new BitmapNode(bit(hash, shift), new Object[]{this}).put(leaf, shift, added);
+
+            for (int i = 0; i < leaves.length; i++)
+                if (((Leaf<?, ?>) leaves[i]).matches(leaf.getKey(), leaf.hash)){
+                    Object[] l = leaves.clone();
+                    l[i] = leaf;
+                    return new CollisionNode(hash, l);
+                }
+
+            added[0] = true;
+            Object[] l = Arrays.copyOf(leaves, leaves.length + 1);
+            l[leaves.length] = leaf;
+            return new CollisionNode(hash, l);
+        }
+
+        @Override
+        Node remove(Object key, int hash, int shift){
+            if (hash != this.hash)
+                return this;
+
+            for (int i = 0; i < leaves.length; i++)
+                if (((Leaf<?, ?>) leaves[i]).matches(key, hash)){
+                    if (leaves.length == 1)
+                        return null;
+
+                    Object[] l = new Object[leaves.length - 1];
+                    System.arraycopy(leaves, 0, l, 0, i);
+                    System.arraycopy(leaves, i + 1, l, i, leaves.length - i - 1);
+                    return new CollisionNode(hash, l);
+                }
+            return this;
+        }
+    }
+
+    private final BitmapNode root;
+    private final int size;
+
+    private PersistentMap(BitmapNode root, int size){
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentMap<K, V> empty(){
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key){
+        Leaf<?, ?> l = root.find(key, hash(key), 0);
+        return l == null ? null : (V) l.getValue();
+    }
+
+    public V getOrDefault(Object key, V defaultValue){
+        V v = get(key);
+        return v == null ? defaultValue : v;
+    }
+
+    public boolean containsKey(Object key){
+        return root.find(key, hash(key), 0) != null;
+    }
+
+    /* The map with the key bound to the value, keys and values cannot be null */
+    public PersistentMap<K, V> put(K key, V value){
+        boolean[] added = {false};
+        Node n = root.put(new Leaf<>(key, value, hash(key)), 0, added);
+        return new PersistentMap<>((BitmapNode) n, added[0] ? size + 1 : size);
+    }
+
+    /* The map without the key, this map if the key is not found */
+    public PersistentMap<K, V> remove(Object key){
+        Node n = root.remove(key, hash(key), 0);
+        if (n == root)
+            return this;
+        return n == null ? empty() : new PersistentMap<>((BitmapNode) n, size - 1);
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator(){
+        return new EntryIterator<>(root);
+    }
+
+    /* Read only Map view of this map */
+    public Map<K, V> asMap(){
+        return new AbstractMap<K, V>() {
+            @Override
+            public V get(Object key){
+                return PersistentMap.this.get(key);
+            }
+
+            @Override
+            public boolean containsKey(Object key){
+                return PersistentMap.this.containsKey(key);
+            }
+
+            @Override
+            public int size(){
+                return size;
+            }
+
+            @Override
+            public Set<Map.Entry<K, V>> entrySet(){
+                return new AbstractSet<Map.Entry<K, V>>() {
+                    @Override
+                    public Iterator<Map.Entry<K, V>> iterator(){
+                        return PersistentMap.this.iterator();
+                    }
+
+                    @Override
+                    public int size(){
+                        return size;
+                    }
+                };
+            }
+        };
+    }
+
+    /* Depth first walk of the trie */
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        private final Object[][] slots = new Object[MAX_DEPTH][];
+        private final int[] positions = new int[MAX_DEPTH];
+        private int depth = 0;
+        private Leaf<?, ?> next;
+
+        EntryIterator(Node root){
+            slots[0] = root.slots();
+            advance();
+        }
+
+        @Override
+        public boolean hasNext(){
+            return next != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next(){
+            if (next == null)
+                throw new NoSuchElementException();
+
+            Leaf<?, ?> l = next;
+            advance();
+            return (Map.Entry<K, V>) l;
+        }
+
+        private void advance(){
+            next = null;
+            while (depth >= 0){
+                if (positions[depth] == slots[depth].length){
+                    depth--;
+                    continue;
+                }
+
+                Object o = slots[depth][positions[depth]++];
+                if (o instanceof Leaf){
+                    next = (Leaf<?, ?>) o;
+                    return;
+                }
+
+                depth++;
+                slots[depth] = ((Node) o).slots();
+                positions[depth] = 0;
+            }
+        }
+    }
+
+    /* Two entries whose keys share the bits of the hash consumed so far, split at the first bits that differ */
+    private static Node merge(Leaf<?, ?> a, Leaf<?, ?> b, int shift){
+        if (a.hash == b.hash)
+            return new CollisionNode(a.hash, new Object[]{a, b});
+
+        int ba = bit(a.hash, shift);
+        int bb = bit(b.hash, shift);
+        if (ba == bb)
+            return new BitmapNode(ba, new Object[]{merge(a, b, shift + BITS)});
+
+        return new BitmapNode(ba | bb, Integer.compareUnsigned(ba, bb) < 0 ? new Object[]{a, b} : new Object[]{b, a});
+    }
+
+    private static int bit(int hash, int shift){
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    /* Spread the bits of the hash, the low ones pick the slot at the top of the trie */
+    private static int hash(Object key){
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+/**
+ * Priority class of a reservation. A connection can preempt the connections of lower classes
+ * when the links have not enough capacity left, its rules take precedence on the devices.
+ */
+public enum ReservationClass {
+    BEST_EFFORT,
+    STANDARD,
+    CRITICAL;
+
+    /* Priority of the flow rules of the connections of this class */
+    public int rulePriority(){
+        return ResourceMonitoringService.RULE_PRIORITY + ordinal();
+    }
+
+    /* Parse the name of a class, e.g. best-effort or CRITICAL */
+    public static ReservationClass fromString(String s) throws IllegalArgumentException{
+        return valueOf(s.trim().toUpperCase().replace('-', '_'));
+    }
+}
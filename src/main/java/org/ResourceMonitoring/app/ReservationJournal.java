@@ -0,0 +1,440 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.IpPrefix;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultLink;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.Link;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.meter.MeterId;
+import org.onosproject.net.provider.ProviderId;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Append-only binary journal of the established connections and of the bookings, replayed at activation to restore
+ * them without pushing anything to the devices.
+ * Every install or reroute appends the full record of the connection, every withdraw a removal. Bookings are
+ * recorded when booked and when they start, and removed when they end.
+ * When the dead records outnumber the live ones the journal is compacted into a snapshot of the live records,
+ * written aside and then atomically renamed over the journal.
+ */
+public class ReservationJournal {
+
+    private final static int MAGIC = 0x52534a34; // "RSJ4"
+    // previous version, without bookings
+    private final static int MAGIC_V3 = 0x52534a33; // "RSJ3"
+
+    private final static byte PUT = 1;
+    private final static byte REMOVE = 2;
+    private final static byte BOOK = 3;
+    private final static byte UNBOOK = 4;
+
+    // appended records tolerated before considering a compaction
+    private final static int COMPACTION_THRESHOLD = 10000;
+
+    private final static ProviderId PROVIDER_ID = new ProviderId("rs", "org.ResourceMonitoring.app");
+
+    /* A connection as it was when last journaled */
+    public static final class Entry {
+        public final long id;
+        public final IpPrefix source;
+        public final IpPrefix destination;
+        public final int bandwidth;
+        public final ReservationClass reservationClass;
+        public final HostLocation sourceLocation;
+        public final HostLocation destinationLocation;
+        public final List<Link> path;
+        // null if the connection follows a single path
+        public final int[] shares;
+        public final List<ImmutablePair<DeviceId, MeterId>> meters;
+
+        Entry(long id, IpPrefix source, IpPrefix destination, int bandwidth, ReservationClass reservationClass,
+              HostLocation sourceLocation, HostLocation destinationLocation, List<Link> path, int[] shares,
+              List<ImmutablePair<DeviceId, MeterId>> meters){
+            this.id = id;
+            this.source = source;
+            this.destination = destination;
+            this.bandwidth = bandwidth;
+            this.reservationClass = reservationClass;
+            this.sourceLocation = sourceLocation;
+            this.destinationLocation = destinationLocation;
+            this.path = path;
+            this.shares = shares;
+            this.meters = meters;
+        }
+    }
+
+    /* A booking as it was when last journaled */
+    public static final class BookingEntry {
+        public final long id;
+        public final IpPrefix source;
+        public final IpPrefix destination;
+        public final int bandwidth;
+        public final ReservationClass reservationClass;
+        public final long start;
+        public final long end;
+        public final List<Link> path;
+        public final Booking.State state;
+        // id of the connection established at the start, 0 if not started
+        public final long connection;
+
+        BookingEntry(long id, IpPrefix source, IpPrefix destination, int bandwidth, ReservationClass reservationClass,
+                     long start, long end, List<Link> path, Booking.State state, long connection){
+            this.id = id;
+            this.source = source;
+            this.destination = destination;
+            this.bandwidth = bandwidth;
+            this.reservationClass = reservationClass;
+            this.start = start;
+            this.end = end;
+            this.path = path;
+            this.state = state;
+            this.connection = connection;
+        }
+    }
+
+    private final File file;
+
+    // encoded record of each live connection, the content of the next snapshot
+    private final Map<Long, byte[]> live = new HashMap<>();
+
+    // encoded record of each live booking
+    private final Map<Long, byte[]> liveBookings = new HashMap<>();
+
+    // bookings read by the last open
+    private List<BookingEntry> bookings = Collections.emptyList();
+
+    private DataOutputStream out;
+
+    // records appended since the last snapshot
+    private int appended = 0;
+
+    public ReservationJournal(File file){
+        this.file = file;
+    }
+
+    /* Read the journal, then rewrite it as a snapshot and open it for appending. A torn last record is dropped.
+     * A file that is not a journal of this version or of the previous one is left untouched and reported
+     * as an IOException. The bookings read are then returned by getBookings */
+    public synchronized List<Entry> open() throws IOException{
+        Map<Long, Entry> entries = new LinkedHashMap<>();
+        Map<Long, BookingEntry> booked = new LinkedHashMap<>();
+
+        if (file.exists()){
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            if (in.hasRemaining()){
+                int magic = in.remaining() < 4 ? 0 : in.getInt();
+                if (magic != MAGIC && magic != MAGIC_V3)
+                    throw new IOException("Unknown format of the reservation journal " + file + ", left untouched");
+                try {
+                    while (in.hasRemaining()){
+                        int start = in.position();
+                        byte type = in.get();
+                        if (type == PUT){
+                            Entry e = decode(in);
+                            entries.put(e.id, e);
+                            live.put(e.id, record(in, start));
+                        } else if (type == REMOVE){
+                            long id = in.getLong();
+                            entries.remove(id);
+                            live.remove(id);
+                        } else if (type == BOOK){
+                            BookingEntry e = decodeBooking(in);
+                            booked.put(e.id, e);
+                            liveBookings.put(e.id, record(in, start));
+                        } else if (type == UNBOOK){
+                            long id = in.getLong();
+                            booked.remove(id);
+                            liveBookings.remove(id);
+                        } else
+                            break; // garbage left by an interrupted append
+                    }
+                } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e){
+                    // interrupted while appending the last record
+                }
+            }
+        } else
+            file.getParentFile().mkdirs();
+
+        snapshot();
+        bookings = new ArrayList<>(booked.values());
+        return new ArrayList<>(entries.values());
+    }
+
+    /* Bookings read by the last open */
+    public synchronized List<BookingEntry> getBookings(){
+        return bookings;
+    }
+
+    /* Record the current state of an established connection */
+    public void put(Connection c, List<Link> path){
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        try (DataOutputStream d = new DataOutputStream(buffer)){
+            d.writeByte(PUT);
+            encode(d, c, path);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        byte[] record = buffer.toByteArray();
+
+        synchronized (this){
+            live.put(c.id, record);
+            append(record);
+        }
+    }
+
+    /* Record the withdraw of a connection */
+    public synchronized void remove(Connection c){
+        if (live.remove(c.id) == null)
+            return;
+
+        ByteBuffer record = ByteBuffer.allocate(9).put(REMOVE).putLong(c.id);
+        append(record.array());
+    }
+
+    /* Record the current state of a booking */
+    public void book(Booking b){
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        try (DataOutputStream d = new DataOutputStream(buffer)){
+            d.writeByte(BOOK);
+            encodeBooking(d, b);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        byte[] record = buffer.toByteArray();
+
+        synchronized (this){
+            liveBookings.put(b.id, record);
+            append(record);
+        }
+    }
+
+    /* Record the end of a booking */
+    public synchronized void unbook(Booking b){
+        if (liveBookings.remove(b.id) == null)
+            return;
+
+        ByteBuffer record = ByteBuffer.allocate(9).put(UNBOOK).putLong(b.id);
+        append(record.array());
+    }
+
+    /* Forget every connection and booking */
+    public synchronized void clear(){
+        live.clear();
+        liveBookings.clear();
+        snapshot();
+    }
+
+    public synchronized void close(){
+        try {
+            if (out != null)
+                out.close();
+        } catch (IOException e){
+            // nothing left to write
+        }
+        out = null;
+    }
+
+    private void append(byte[] record){
+        try {
+            out.write(record);
+            out.flush();
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+
+        if (++appended > COMPACTION_THRESHOLD && appended > live.size() + liveBookings.size())
+            snapshot();
+    }
+
+    /* Replace the journal with the live records only */
+    private void snapshot(){
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            close();
+            try (FileOutputStream fos = new FileOutputStream(tmp);
+                 DataOutputStream d = new DataOutputStream(new BufferedOutputStream(fos))){
+                d.writeInt(MAGIC);
+                for (byte[] record : live.values())
+                    d.write(record);
+                for (byte[] record : liveBookings.values())
+                    d.write(record);
+                d.flush();
+                fos.getFD().sync();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            appended = 0;
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void encode(DataOutputStream d, Connection c, List<Link> path) throws IOException{
+        d.writeLong(c.id);
+        writePrefix(d, c.source);
+        writePrefix(d, c.destination);
+        d.writeInt(c.bandwidth);
+        d.writeByte(c.reservationClass.ordinal());
+        writePoint(d, c.sourceLocation);
+        writePoint(d, c.destinationLocation);
+
+        writePath(d, path);
+
+        int[] shares = c.shares;
+        d.writeShort(shares == null ? 0 : shares.length);
+        if (shares != null)
+            for (int share : shares)
+                d.writeInt(share);
+
+        List<ImmutablePair<DeviceId, MeterId>> meters = c.rules.getMeters();
+        d.writeShort(meters.size());
+        for (ImmutablePair<DeviceId, MeterId> m : meters){
+            d.writeUTF(m.left.toString());
+            d.writeLong(m.right.id());
+        }
+    }
+
+    private static Entry decode(ByteBuffer in){
+        long id = in.getLong();
+        IpPrefix source = readPrefix(in);
+        IpPrefix destination = readPrefix(in);
+        int bandwidth = in.getInt();
+        ReservationClass reservationClass = ReservationClass.values()[in.get()];
+        HostLocation sourceLocation = new HostLocation(readPoint(in), 0);
+        HostLocation destinationLocation = new HostLocation(readPoint(in), 0);
+
+        List<Link> path = readPath(in);
+
+        int n = in.getShort();
+        int[] shares = n == 0 ? null : new int[n];
+        for (int i = 0; i < n; i++)
+            shares[i] = in.getInt();
+
+        n = in.getShort();
+        List<ImmutablePair<DeviceId, MeterId>> meters = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            meters.add(new ImmutablePair<>(DeviceId.deviceId(readString(in)), MeterId.meterId(in.getLong())));
+
+        return new Entry(id, source, destination, bandwidth, reservationClass, sourceLocation, destinationLocation, path, shares, meters);
+    }
+
+    private static void encodeBooking(DataOutputStream d, Booking b) throws IOException{
+        Connection c = b.connection;
+        d.writeLong(b.id);
+        writePrefix(d, b.source);
+        writePrefix(d, b.destination);
+        d.writeInt(b.bandwidth);
+        d.writeByte(b.reservationClass.ordinal());
+        d.writeLong(b.start);
+        d.writeLong(b.end);
+        writePath(d, b.path);
+        d.writeByte(b.state.ordinal());
+        d.writeLong(c == null ? 0 : c.id);
+    }
+
+    private static BookingEntry decodeBooking(ByteBuffer in){
+        long id = in.getLong();
+        IpPrefix source = readPrefix(in);
+        IpPrefix destination = readPrefix(in);
+        int bandwidth = in.getInt();
+        ReservationClass reservationClass = ReservationClass.values()[in.get()];
+        long start = in.getLong();
+        long end = in.getLong();
+        List<Link> path = readPath(in);
+        Booking.State state = Booking.State.values()[in.get()];
+        long connection = in.getLong();
+
+        return new BookingEntry(id, source, destination, bandwidth, reservationClass, start, end, path, state, connection);
+    }
+
+    /* Bytes of the record read from the specified position */
+    private static byte[] record(ByteBuffer in, int start){
+        byte[] record = new byte[in.position() - start];
+        in.position(start);
+        in.get(record);
+        return record;
+    }
+
+    private static void writePath(DataOutputStream d, List<Link> path) throws IOException{
+        d.writeShort(path.size());
+        for (Link l : path){
+            writePoint(d, l.src());
+            writePoint(d, l.dst());
+            d.writeByte(l.type().ordinal());
+        }
+    }
+
+    private static List<Link> readPath(ByteBuffer in){
+        int n = in.getShort();
+        List<Link> path = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            path.add(DefaultLink.builder()
+                                .providerId(PROVIDER_ID)
+                                .src(readPoint(in))
+                                .dst(readPoint(in))
+                                .type(Link.Type.values()[in.get()])
+                                .state(Link.State.ACTIVE)
+                                .build());
+        return path;
+    }
+
+    private static void writePrefix(DataOutputStream d, IpPrefix p) throws IOException{
+        byte[] octets = p.address().toOctets();
+        d.writeByte(octets.length);
+        d.write(octets);
+        d.writeByte(p.prefixLength());
+    }
+
+    private static IpPrefix readPrefix(ByteBuffer in){
+        int length = in.get() & 0xff;
+        if (length > in.remaining())
+            throw new BufferUnderflowException(); // torn or corrupt record
+        byte[] octets = new byte[length];
+        in.get(octets);
+        IpAddress.Version version = octets.length == IpAddress.INET_BYTE_LENGTH ? IpAddress.Version.INET : IpAddress.Version.INET6;
+        return IpPrefix.valueOf(IpAddress.valueOf(version, octets), in.get());
+    }
+
+    private static void writePoint(DataOutputStream d, ConnectPoint cp) throws IOException{
+        d.writeUTF(cp.deviceId().toString());
+        d.writeLong(cp.port().toLong());
+    }
+
+    private static ConnectPoint readPoint(ByteBuffer in){
+        return new ConnectPoint(DeviceId.deviceId(readString(in)), PortNumber.portNumber(in.getLong()));
+    }
+
+    /* Read a string written by DataOutputStream.writeUTF, device ids are plain ASCII */
+    private static String readString(ByteBuffer in){
+        byte[] bytes = new byte[in.getShort() & 0xffff];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
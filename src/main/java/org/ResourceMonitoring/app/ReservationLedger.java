@@ -0,0 +1,438 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.onosproject.net.DefaultLink;
+import org.onosproject.net.Link;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Thread safe ledger of the established connections and of the bandwidth available on each link.
+ * Bandwidth is reserved on every link of the path (and on its opposite link) under the locks of their stripes,
+ * taken in a fixed order: either every link has enough capacity and all of them are charged, or none is.
+ * A reroute charges only the difference between the new and the old path, the old charge is kept if it fails.
+ * A split connection charges each of its paths only with the share of the bandwidth it carries.
+ * When a distributed store is given the reservations are made in the store instead, shared with the other
+ * instances of the cluster, and only the connections established by this instance are kept locally.
+ * Every change publishes a new snapshot for the readers; the changes of the connections with the same endpoints
+ * are serialized, so their snapshots are published in the order the changes were made.
+ */
+public class ReservationLedger {
+
+    private final ConnectionRegistry registry = new ConnectionRegistry();
+
+    private final ConcurrentMap<Link, AtomicInteger> availableBandwidth = new ConcurrentHashMap<>();
+
+    // bandwidth charged on each link for each connection id, given back exactly even if the topology changed in the meantime
+    private final ConcurrentMap<Long, Map<Link, Integer>> charged = new ConcurrentHashMap<>();
+
+    // serialize the changes of the connections with the same endpoints, taken before the link stripes
+    private final ReentrantLock[] stripes = new ReentrantLock[64];
+
+    // serialize the changes of the bandwidth available on the links, taken in index order
+    private final ReentrantLock[] linkStripes = new ReentrantLock[64];
+
+    // last published view of the connections and of their charges
+    private final AtomicReference<ReservationSnapshot> snapshot = new AtomicReference<>(ReservationSnapshot.EMPTY);
+
+    // capacity of a link never reserved before
+    private final ToIntFunction<Link> capacity;
+
+    // link in the opposite direction, or null if it does not exist
+    private final UnaryOperator<Link> opposite;
+
+    // reservations of the whole cluster, null when running standalone
+    private final DistributedReservationStore store;
+
+    public ReservationLedger(ToIntFunction<Link> capacity, UnaryOperator<Link> opposite){
+        this(capacity, opposite, null);
+    }
+
+    public ReservationLedger(ToIntFunction<Link> capacity, UnaryOperator<Link> opposite, DistributedReservationStore store){
+        this.capacity = capacity;
+        this.opposite = opposite;
+        this.store = store;
+        for (int i = 0; i < stripes.length; i++)
+            stripes[i] = new ReentrantLock();
+        for (int i = 0; i < linkStripes.length; i++)
+            linkStripes[i] = new ReentrantLock();
+    }
+
+    /* Bandwidth still available on the specified link */
+    public int getAvailableBandwidth(Link l){
+        if (store != null)
+            return capacity.applyAsInt(l) - store.getReserved(l);
+
+        AtomicInteger a = availableBandwidth.get(l);
+        return a == null ? capacity.applyAsInt(l) : a.get();
+    }
+
+    /* Atomically reserve the bandwidth of the connection on every link of the path in both directions
+     * and register the connection. Return false, leaving the ledger untouched, if a link has not enough capacity.
+     * Throws Error if another connection with the same endpoints is already registered */
+    public boolean reserve(Connection c, List<Link> path) throws Error{
+        return reserve(c, path, null);
+    }
+
+    /* Reserve a split connection, whose path is made of several paths one after the other, each charged with its share.
+     * Null shares charge the whole bandwidth on a single path */
+    public boolean reserve(Connection c, List<Link> path, int[] shares) throws Error{
+        Map<Link, Integer> links = charges(path, shares, c.bandwidth, opposite);
+
+        if (store != null){
+            DistributedReservationStore.Outcome o = store.reserve(c, path, links, capacity);
+            if (o == DistributedReservationStore.Outcome.DUPLICATE)
+                throw new Error("Another connection already exists with those endpoints!");
+            if (o != DistributedReservationStore.Outcome.COMMITTED)
+                return false;
+        } else if (!tryAllocateAll(links))
+            return false;
+
+        c.shares = shares;
+        if (!register(c, path, links)){
+            giveBack(c, links);
+            throw new Error("Another connection already exists with those endpoints!");
+        }
+        return true;
+    }
+
+    /* Register a connection restored from the journal or taken over from another instance. Its rules are already
+     * on the devices, so its bandwidth is charged even beyond the capacity of the links. Return false if another
+     * connection has the same endpoints, or if another instance owns it */
+    public boolean restore(Connection c, List<Link> path){
+        // links may not be discovered yet, the opposite ones are then rebuilt from the path
+        Map<Link, Integer> links = charges(path, c.shares, c.bandwidth, l -> {
+            Link o = opposite.apply(l);
+            return o != null ? o : reversed(l);
+        });
+
+        if (store != null){
+            DistributedReservationStore.Record r = store.getRecord(c.key());
+            if (r != null && (r.id != c.id || !store.isLocal(r)))
+                return false;
+            // not found if the cluster state has been lost, the reservation is made again
+            if (r == null && store.reserve(c, path, links, l -> Integer.MAX_VALUE) != DistributedReservationStore.Outcome.COMMITTED)
+                return false;
+            store.advanceIds(c.id);
+        } else {
+            ReentrantLock[] locks = lockLinks(links.keySet(), Collections.emptySet());
+            try {
+                links.forEach((l, b) -> bandwidthOf(l).addAndGet(-b));
+            } finally {
+                unlock(locks);
+            }
+        }
+
+        if (!register(c, path, links)){
+            giveBack(c, links);
+            return false;
+        }
+        return true;
+    }
+
+    /* Unregister the connection and free its bandwidth. Return the released path or null if the connection was not registered */
+    public List<Link> release(Connection c){
+        ReentrantLock stripe = stripe(c);
+        stripe.lock();
+        try {
+            List<Link> path = registry.remove(c);
+            if (path == null)
+                return null;
+
+            Map<Link, Integer> links = charged.remove(c.id);
+            snapshot.updateAndGet(s -> s.remove(c, links));
+            giveBack(c, links);
+            return path;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /* Move the reservation of a registered connection to a new path. Return false, leaving the old reservation
+     * in place, if the new path has not enough capacity or the connection is no longer registered */
+    public boolean reroute(Connection c, List<Link> newPath){
+        return reroute(c, newPath, null);
+    }
+
+    /* Move the reservation of a registered connection to new paths, each charged with its share */
+    public boolean reroute(Connection c, List<Link> newPath, int[] shares){
+        ReentrantLock stripe = stripe(c);
+        stripe.lock();
+        try {
+            Map<Link, Integer> old = charged.get(c.id);
+            if (old == null)
+                return false;
+
+            Map<Link, Integer> links = charges(newPath, shares, c.bandwidth, opposite);
+            if (store != null){
+                if (store.move(c, newPath, old, links, capacity) != DistributedReservationStore.Outcome.COMMITTED)
+                    return false;
+            } else if (!tryMove(old, links))
+                return false;
+
+            c.shares = shares;
+            charged.put(c.id, links);
+            registry.updatePath(c, newPath);
+            snapshot.updateAndGet(s -> s.move(c, newPath, shares, old, links));
+            return true;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /* Bandwidth charged to the connection on the link, in that direction */
+    public int getCharged(Connection c, Link l){
+        Map<Link, Integer> links = charged.get(c.id);
+        return links == null ? 0 : links.getOrDefault(l, 0);
+    }
+
+    /* Indexes of the registered connections */
+    public ConnectionRegistry getRegistry(){
+        return registry;
+    }
+
+    /* Consistent view of the registered connections and of their charges, as of the last change */
+    public ReservationSnapshot getSnapshot(){
+        return snapshot.get();
+    }
+
+    /* Read only view of the registered connections, as of the last change */
+    public Map<Connection, List<Link>> getConnections(){
+        return snapshot.get().getConnections();
+    }
+
+    /* Available bandwidth of the specified links that have some bandwidth reserved */
+    public Map<Link, Integer> getLinksStatus(Iterable<Link> links){
+        ReservationSnapshot s = snapshot.get();
+        Map<Link, Integer> status = new HashMap<>();
+        for (Link l : links){
+            // the store also holds the reservations of the other instances
+            int reserved = store != null ? store.getReserved(l) : s.getReserved(l);
+            if (reserved > 0)
+                status.put(l, capacity.applyAsInt(l) - reserved);
+        }
+        return status;
+    }
+
+    /* The capacity of the link changed by the specified amount, reservations are kept even if they no longer fit */
+    public void adjustCapacity(Link l, int delta){
+        // with a distributed store the available bandwidth is always derived from the current capacity
+        if (store != null)
+            return;
+
+        ReentrantLock[] locks = lockLinks(Collections.singleton(l), Collections.emptySet());
+        try {
+            AtomicInteger a = availableBandwidth.get(l);
+            if (a != null)
+                a.addAndGet(delta);
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    /* Forget every connection and every reservation */
+    public void clear(){
+        lockAll();
+        try {
+            registry.clear();
+            availableBandwidth.clear();
+            charged.clear();
+            snapshot.updateAndGet(ReservationSnapshot::cleared);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /* Unregister every connection and free their bandwidth at once. Return the released connections */
+    public Collection<Connection> releaseAll(){
+        lockAll();
+        try {
+            Collection<Connection> released = new ArrayList<>(snapshot.get().getConnections().keySet());
+
+            // the reservations of the other instances stay in the store
+            if (store != null)
+                for (Connection c : released){
+                    Map<Link, Integer> links = charged.get(c.id);
+                    if (links != null)
+                        store.release(c, links);
+                }
+
+            clear();
+            return released;
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /* Register the connection and publish it with its charges. Return false if another connection has the same endpoints */
+    private boolean register(Connection c, List<Link> path, Map<Link, Integer> links){
+        ReentrantLock stripe = stripe(c);
+        stripe.lock();
+        try {
+            // the same connection may be reserved twice, its charges are not replaced
+            if (charged.putIfAbsent(c.id, links) != null)
+                return false;
+            if (!registry.add(c, path)){
+                charged.remove(c.id);
+                return false;
+            }
+            int[] shares = c.shares;
+            snapshot.updateAndGet(s -> s.add(c, path, shares, links));
+            return true;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /* Decrease the available bandwidth of every link by its charge, or of none if one of them has not enough */
+    private boolean tryAllocateAll(Map<Link, Integer> links){
+        return tryMove(Collections.emptyMap(), links);
+    }
+
+    /* Replace the old charges with the new ones, applying on each link only the difference. If a link has not
+     * enough bandwidth for its increase nothing changes. The stripes of both sets of links are held throughout,
+     * so the bandwidth given back by the old links cannot be taken by others before the new ones are charged */
+    private boolean tryMove(Map<Link, Integer> old, Map<Link, Integer> links){
+        Map<Link, Integer> delta = new HashMap<>(links);
+        old.forEach((l, b) -> delta.merge(l, -b, Integer::sum));
+
+        ReentrantLock[] locks = lockLinks(old.keySet(), links.keySet());
+        try {
+            for (Map.Entry<Link, Integer> e : delta.entrySet())
+                if (e.getValue() > 0 && bandwidthOf(e.getKey()).get() < e.getValue())
+                    return false;
+
+            delta.forEach((l, d) -> {
+                if (d != 0)
+                    bandwidthOf(l).addAndGet(-d);
+            });
+            return true;
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    /* Give back the bandwidth charged to the connection on the links */
+    private void giveBack(Connection c, Map<Link, Integer> links){
+        if (store != null)
+            store.release(c, links);
+        else
+            deallocateAll(links);
+    }
+
+    private void deallocateAll(Map<Link, Integer> links){
+        ReentrantLock[] locks = lockLinks(links.keySet(), Collections.emptySet());
+        try {
+            links.forEach((l, b) -> {
+                AtomicInteger a = availableBandwidth.get(l);
+                if (a != null)
+                    a.addAndGet(b);
+            });
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    /* Available bandwidth of the link, created at its capacity. Changed only under the stripe of the link */
+    private AtomicInteger bandwidthOf(Link l){
+        return availableBandwidth.computeIfAbsent(l, k -> new AtomicInteger(capacity.applyAsInt(k)));
+    }
+
+    // connections with the same endpoints are equal and share the stripe
+    private ReentrantLock stripe(Connection c){
+        return stripes[c.hashCode() & (stripes.length - 1)];
+    }
+
+    /* Lock the stripes of the links of both sets, each once and in index order so that concurrent changes
+     * cannot deadlock. Return the locks taken */
+    private ReentrantLock[] lockLinks(Set<Link> a, Set<Link> b){
+        BitSet indexes = new BitSet(linkStripes.length);
+        for (Link l : a)
+            indexes.set(linkStripe(l));
+        for (Link l : b)
+            indexes.set(linkStripe(l));
+
+        ReentrantLock[] locks = new ReentrantLock[indexes.cardinality()];
+        int n = 0;
+        for (int i = indexes.nextSetBit(0); i >= 0; i = indexes.nextSetBit(i + 1)){
+            locks[n++] = linkStripes[i];
+            linkStripes[i].lock();
+        }
+        return locks;
+    }
+
+    private int linkStripe(Link l){
+        int h = l.hashCode();
+        return (h ^ (h >>> 16)) & (linkStripes.length - 1);
+    }
+
+    private static void unlock(ReentrantLock[] locks){
+        for (int i = locks.length - 1; i >= 0; i--)
+            locks[i].unlock();
+    }
+
+    /* Lock every stripe, connections first as the single changes do */
+    private void lockAll(){
+        for (ReentrantLock l : stripes)
+            l.lock();
+        for (ReentrantLock l : linkStripes)
+            l.lock();
+    }
+
+    private void unlockAll(){
+        for (int i = linkStripes.length - 1; i >= 0; i--)
+            linkStripes[i].unlock();
+        for (int i = stripes.length - 1; i >= 0; i--)
+            stripes[i].unlock();
+    }
+
+    /* The same link in the opposite direction */
+    private static Link reversed(Link l){
+        return DefaultLink.builder()
+                          .providerId(l.providerId())
+                          .src(l.dst())
+                          .dst(l.src())
+                          .type(l.type())
+                          .state(l.state())
+                          .build();
+    }
+
+    /* Bandwidth to charge on the links of the path and on their opposite links, when opposite gives one.
+     * A split path is made of paths starting at the same device, each charged with its share */
+    private static Map<Link, Integer> charges(List<Link> path, int[] shares, int bandwidth, UnaryOperator<Link> opposite){
+        Map<Link, Integer> links = new LinkedHashMap<>();
+
+        List<List<Link>> paths = shares == null ? Collections.singletonList(path) : ConstrainedPathFinder.subpaths(path);
+        for (int i = 0; i < paths.size(); i++){
+            int share = shares == null ? bandwidth : shares[i];
+            for (Link l : paths.get(i)){
+                links.merge(l, share, Integer::sum);
+                Link o = opposite.apply(l);
+                if (o != null)
+                    links.merge(o, share, Integer::sum);
+            }
+        }
+        return links;
+    }
+}
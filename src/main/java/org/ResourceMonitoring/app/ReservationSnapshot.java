@@ -0,0 +1,116 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.onosproject.net.Link;
+import org.onosproject.net.LinkKey;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Point-in-time view of the established connections, with their paths, and of the bandwidth they charge on each link.
+ * Every change of the ledger publishes a new snapshot sharing the untouched part of the previous one,
+ * so readers get a consistent view without locking and without copying anything.
+ */
+public final class ReservationSnapshot {
+
+    public final static ReservationSnapshot EMPTY = new ReservationSnapshot(0, PersistentMap.empty(), PersistentMap.empty(),
+                                                                          PersistentMap.empty());
+
+    // number of changes published before this snapshot
+    public final long epoch;
+
+    private final PersistentMap<Connection, List<Link>> connections;
+
+    // bandwidth carried by each path of the split connections, copied: the connections change theirs when rerouted
+    private final PersistentMap<Connection, int[]> shares;
+
+    // bandwidth charged on each link, in its direction, by the connections of this snapshot
+    private final PersistentMap<LinkKey, Integer> reserved;
+
+    private ReservationSnapshot(long epoch, PersistentMap<Connection, List<Link>> connections,
+                                PersistentMap<Connection, int[]> shares, PersistentMap<LinkKey, Integer> reserved){
+        this.epoch = epoch;
+        this.connections = connections;
+        this.shares = shares;
+        this.reserved = reserved;
+    }
+
+    /* Read only view of the connections and their paths */
+    public Map<Connection, List<Link>> getConnections(){
+        return connections.asMap();
+    }
+
+    /* Bandwidth carried by each path of the connection as of this snapshot, in the order the paths appear
+     * in its path. Null if the connection follows a single path or is not in the snapshot */
+    public int[] getShares(Connection c){
+        int[] s = shares.get(c);
+        return s == null ? null : s.clone();
+    }
+
+    public int getConnectionCount(){
+        return connections.size();
+    }
+
+    /* Bandwidth charged on the link by the connections */
+    public int getReserved(Link l){
+        return reserved.getOrDefault(LinkKey.linkKey(l), 0);
+    }
+
+    /* Links charged by at least one connection, with the bandwidth charged on them */
+    public Iterable<Map.Entry<LinkKey, Integer>> getReservedLinks(){
+        return reserved;
+    }
+
+    /* The snapshot with the connection added, split with the given shares if not null, and its charges applied */
+    ReservationSnapshot add(Connection c, List<Link> path, int[] pathShares, Map<Link, Integer> charges){
+        return new ReservationSnapshot(epoch + 1, connections.put(c, path), withShares(shares, c, pathShares),
+                                       charge(reserved, charges, 1));
+    }
+
+    /* The snapshot without the connection and its charges */
+    ReservationSnapshot remove(Connection c, Map<Link, Integer> charges){
+        return new ReservationSnapshot(epoch + 1, connections.remove(c), shares.remove(c), charge(reserved, charges, -1));
+    }
+
+    /* The snapshot with the connection moved from its old charges to a new path */
+    ReservationSnapshot move(Connection c, List<Link> path, int[] pathShares, Map<Link, Integer> old,
+                             Map<Link, Integer> charges){
+        return new ReservationSnapshot(epoch + 1, connections.put(c, path), withShares(shares, c, pathShares),
+                                       charge(charge(reserved, old, -1), charges, 1));
+    }
+
+    /* An empty snapshot following this one */
+    ReservationSnapshot cleared(){
+        return new ReservationSnapshot(epoch + 1, PersistentMap.empty(), PersistentMap.empty(), PersistentMap.empty());
+    }
+
+    private static PersistentMap<Connection, int[]> withShares(PersistentMap<Connection, int[]> shares, Connection c,
+                                                               int[] pathShares){
+        return pathShares == null ? shares.remove(c) : shares.put(c, pathShares.clone());
+    }
+
+    private static PersistentMap<LinkKey, Integer> charge(PersistentMap<LinkKey, Integer> reserved,
+                                                         Map<Link, Integer> charges, int sign){
+        for (Map.Entry<Link, Integer> e : charges.entrySet()){
+            LinkKey k = LinkKey.linkKey(e.getKey());
+            int b = reserved.getOrDefault(k, 0) + sign * e.getValue();
+            reserved = b == 0 ? reserved.remove(k) : reserved.put(k, b);
+        }
+        return reserved;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.SlidingWindowReservoir;
+import com.codahale.metrics.Timer;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.onlab.metrics.MetricsComponent;
+import org.onlab.metrics.MetricsFeature;
+import org.onlab.metrics.MetricsService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers and counters of the provisioning phases, registered in the ONOS MetricsService.
+ * Timers and histograms keep the last samples in fixed arrays, so recording a value allocates nothing.
+ */
+public class ResourceMonitoringMetrics {
+
+    // samples kept by each timer and histogram
+    private final static int RESERVOIR_SIZE = 1024;
+
+    private final MetricsService metricsService;
+    private final MetricsComponent component;
+
+    // every registered metric, by feature and name, in registration order
+    private final Map<String, Metric> metrics = new LinkedHashMap<>();
+    private final List<ImmutablePair<MetricsFeature, String>> registered = new ArrayList<>();
+
+    public final Timer pathSearch;
+    public final Histogram pathsExamined;
+    public final Timer admission;
+    public final Counter admitted;
+    public final Counter rejected;
+
+    public final Timer install;
+    public final Counter rulesPushed;
+    public final Counter rollbacks;
+
+    public final Timer withdraw;
+
+    public ResourceMonitoringMetrics(MetricsService metricsService, MeterPool meterPool){
+        this.metricsService = metricsService;
+        this.component = metricsService.registerComponent("ResourceMonitoring");
+
+        MetricsFeature admissionFeature = component.registerFeature("admission");
+        this.pathSearch = register(admissionFeature, "pathSearch", new Timer(new SlidingWindowReservoir(RESERVOIR_SIZE)));
+        this.pathsExamined = register(admissionFeature, "pathsExamined", new Histogram(new SlidingWindowReservoir(RESERVOIR_SIZE)));
+        this.admission = register(admissionFeature, "admission", new Timer(new SlidingWindowReservoir(RESERVOIR_SIZE)));
+        this.admitted = register(admissionFeature, "admitted", new Counter());
+        this.rejected = register(admissionFeature, "rejected", new Counter());
+
+        MetricsFeature installFeature = component.registerFeature("install");
+        this.install = register(installFeature, "install", new Timer(new SlidingWindowReservoir(RESERVOIR_SIZE)));
+        this.rulesPushed = register(installFeature, "rulesPushed", new Counter());
+        // every miss of the pool submits a new meter to a device
+        register(installFeature, "metersPushed", (Gauge<Long>) meterPool::getMisses);
+        register(installFeature, "meterPoolHitRate", (Gauge<Double>) meterPool::getHitRate);
+        this.rollbacks = register(installFeature, "rollbacks", new Counter());
+
+        MetricsFeature withdrawFeature = component.registerFeature("withdraw");
+        this.withdraw = register(withdrawFeature, "withdraw", new Timer(new SlidingWindowReservoir(RESERVOIR_SIZE)));
+    }
+
+    /* Time elapsed since start, a value of System.nanoTime() */
+    public static void record(Timer timer, long start){
+        timer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /* Read only view of the metrics by name, in the form feature.name */
+    public Map<String, Metric> getMetrics(){
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    /* Remove the metrics from the MetricsService */
+    public void remove(){
+        for (ImmutablePair<MetricsFeature, String> m : registered)
+            metricsService.removeMetric(component, m.left, m.right);
+        registered.clear();
+        metrics.clear();
+    }
+
+    private <T extends Metric> T register(MetricsFeature feature, String name, T metric){
+        T m = metricsService.registerMetric(component, feature, name, metric);
+        registered.add(new ImmutablePair<>(feature, name));
+        metrics.put(feature.getName() + "." + name, m);
+        return m;
+    }
+}
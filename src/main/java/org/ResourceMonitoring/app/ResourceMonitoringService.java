@@ -20,21 +20,33 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.onlab.packet.Ethernet;
 import org.onlab.packet.IpAddress;
 import org.onlab.packet.IpPrefix;
+import org.onlab.metrics.MetricsService;
+import org.onlab.util.AbstractAccumulator;
+import org.onlab.util.SharedExecutors;
 import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.cluster.ClusterEvent;
+import org.onosproject.cluster.ClusterEventListener;
+import org.onosproject.cluster.ClusterService;
+import org.onosproject.cluster.ControllerNode;
+import org.onosproject.cluster.NodeId;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
+import org.onosproject.core.GroupId;
 import org.onosproject.net.*;
 import org.onosproject.net.flow.*;
-import org.onosproject.net.flow.criteria.Criterion;
-import org.onosproject.net.flow.criteria.IPCriterion;
-import org.onosproject.net.flowobjective.DefaultForwardingObjective;
-import org.onosproject.net.flowobjective.FlowObjectiveService;
-import org.onosproject.net.flowobjective.ForwardingObjective;
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.device.DeviceListener;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.group.*;
+import org.onosproject.net.host.HostEvent;
+import org.onosproject.net.host.HostListener;
 import org.onosproject.net.host.HostService;
+import org.onosproject.net.link.LinkEvent;
+import org.onosproject.net.link.LinkListener;
 import org.onosproject.net.link.LinkService;
 import org.onosproject.net.meter.*;
-import org.onosproject.net.topology.PathService;
 import org.onosproject.net.topology.TopologyService;
+import org.onosproject.store.service.StorageService;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
@@ -45,23 +57,111 @@ import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Predicate;
-
+import java.util.function.ToIntFunction;
+
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.AGGREGATE_TRANSIT_RULES;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.AGGREGATE_TRANSIT_RULES_DEFAULT;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.CONNECTION_STATS_INTERVAL;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.CONNECTION_STATS_INTERVAL_DEFAULT;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.DEFAULT_LINK_CAPACITY;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.DEFAULT_LINK_CAPACITY_DEFAULT;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.DISTRIBUTED_RESERVATIONS;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.DISTRIBUTED_RESERVATIONS_DEFAULT;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.LINK_CAPACITY_FROM_PORT_SPEED;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.LINK_CAPACITY_FROM_PORT_SPEED_DEFAULT;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.LINK_CAPACITY_OVERRIDES;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.LINK_CAPACITY_OVERRIDES_DEFAULT;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.MULTIPATH_MAX_PATHS;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.MULTIPATH_MAX_PATHS_DEFAULT;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.PATH_WEIGHT;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.PATH_WEIGHT_DEFAULT;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.PERSIST_RESERVATIONS;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.PERSIST_RESERVATIONS_DEFAULT;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.RECONCILE_INTERVAL;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.RECONCILE_INTERVAL_DEFAULT;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.UTILIZATION_SAMPLE_INTERVAL;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.UTILIZATION_SAMPLE_INTERVAL_DEFAULT;
 import static org.onlab.util.Tools.get;
+import static org.onlab.util.Tools.getIntegerProperty;
+import static org.onlab.util.Tools.isPropertyEnabled;
+import static org.onlab.util.Tools.groupedThreads;
 
 /**
  * Skeletal ONOS application component.
  */
 @Component(immediate = true,
-           service = {ResourceMonitoringService.class}
+           service = {ResourceMonitoringService.class},
+           property = {
+               PATH_WEIGHT + "=" + PATH_WEIGHT_DEFAULT,
+               DEFAULT_LINK_CAPACITY + ":Integer=" + DEFAULT_LINK_CAPACITY_DEFAULT,
+               LINK_CAPACITY_FROM_PORT_SPEED + ":Boolean=" + LINK_CAPACITY_FROM_PORT_SPEED_DEFAULT,
+               LINK_CAPACITY_OVERRIDES + "=" + LINK_CAPACITY_OVERRIDES_DEFAULT,
+               DISTRIBUTED_RESERVATIONS + ":Boolean=" + DISTRIBUTED_RESERVATIONS_DEFAULT,
+               PERSIST_RESERVATIONS + ":Boolean=" + PERSIST_RESERVATIONS_DEFAULT,
+               UTILIZATION_SAMPLE_INTERVAL + ":Integer=" + UTILIZATION_SAMPLE_INTERVAL_DEFAULT,
+               CONNECTION_STATS_INTERVAL + ":Integer=" + CONNECTION_STATS_INTERVAL_DEFAULT,
+               RECONCILE_INTERVAL + ":Integer=" + RECONCILE_INTERVAL_DEFAULT,
+               MULTIPATH_MAX_PATHS + ":Integer=" + MULTIPATH_MAX_PATHS_DEFAULT,
+               AGGREGATE_TRANSIT_RULES + ":Boolean=" + AGGREGATE_TRANSIT_RULES_DEFAULT,
+           }
           )
 public class ResourceMonitoringService {
 
-    // link capacity in terms of Mbps
-    public final static int LINK_CAPACITY = 10;
+    // link capacity in terms of Mbps, used when the speed of the ports is unknown
+    public final static int LINK_CAPACITY = DEFAULT_LINK_CAPACITY_DEFAULT;
+
+    public final static int RULE_PRIORITY = 10;
+
+    // shared transit rules stay below the rules of the connections, so an exact rule wins where sharing is not possible
+    public final static int TRANSIT_RULE_PRIORITY = RULE_PRIORITY - 1;
+
+    // attempts to admit a connection when concurrent admissions take the capacity of the computed path
+    private final static int MAX_ADMISSION_ATTEMPTS = 3;
+
+    // threads and queued requests of the provisioning executor
+    private final static int PROVISIONING_THREADS = Runtime.getRuntime().availableProcessors();
+    private final static int PROVISIONING_QUEUE_SIZE = 1024;
+
+    // threads deleting the meters of the devices when the application is stopped
+    private final static int PURGE_THREADS = 4;
 
-    public final static short DEFAULT_GROUP = 0;
+    // how long the synchronous API waits for the devices to confirm an operation
+    public final static int SYNC_TIMEOUT_SECONDS = 30;
+
+    // link failures arriving within this window are handled by a single reroute pass
+    private final static int REROUTE_MAX_EVENTS = 1000;
+    private final static int REROUTE_MAX_BATCH_MS = 500;
+    private final static int REROUTE_MAX_IDLE_MS = 50;
+
+    // range of the ids of the select groups of split connections, one per connection on each edge device
+    private final static int GROUP_ID_BASE = 0x52530000;
+    private final static int GROUP_ID_RANGE = 0x10000;
+
+    // scheduled reservations: ticks of the timer wheel, its slots and how early the rules are installed
+    private final static int BOOKING_TICK_MS = 1000;
+    private final static int BOOKING_WHEEL_SIZE = 512;
+    private final static int BOOKING_LEAD_MS = 2000;
+
+    // journal of the established connections, kept across restarts
+    private final static File JOURNAL_FILE = new File(System.getProperty("karaf.data", "."),
+                                                      "resource-monitoring/reservations.journal");
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected CoreService coreService;
@@ -72,9 +172,6 @@ public class ResourceMonitoringService {
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected HostService hostService;
 
-    @Reference(cardinality = ReferenceCardinality.MANDATORY)
-    protected FlowObjectiveService flowObjectiveService;
-
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected MeterService meterService;
 
@@ -84,11 +181,23 @@ public class ResourceMonitoringService {
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected MeterStore meterStore;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected GroupService groupService;
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected LinkService linkService;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
-    protected PathService pathService;
+    protected DeviceService deviceService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected StorageService storageService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected ClusterService clusterService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected MetricsService metricsService;
 
 
     private final Logger log = LoggerFactory.getLogger(getClass());
@@ -98,20 +207,160 @@ public class ResourceMonitoringService {
 
     private ApplicationId appId;
 
+    /** Weight used by the path search: hopCount or residualCapacity. */
+    private String pathWeight = PATH_WEIGHT_DEFAULT;
 
-    /// MY DATA STRUCTURES!!!
+    private ConstrainedPathFinder.Weight weight = ConstrainedPathFinder.Weight.HOP_COUNT;
+
+    /** Capacity in Mbps of links whose port speed is unknown. */
+    private int defaultLinkCapacity = DEFAULT_LINK_CAPACITY_DEFAULT;
+
+    /** Use the speed of the ports as capacity of the links. */
+    private boolean linkCapacityFromPortSpeed = LINK_CAPACITY_FROM_PORT_SPEED_DEFAULT;
+
+    /** Capacity in Mbps of specific links: srcDevice/srcPort-dstDevice/dstPort=Mbps,... */
+    private String linkCapacityOverrides = LINK_CAPACITY_OVERRIDES_DEFAULT;
+
+    /** Share the reservations with the other instances of the cluster, opt-in, read at activation. */
+    private boolean distributedReservations = DISTRIBUTED_RESERVATIONS_DEFAULT;
+
+    /** Keep the connections installed across restarts and restore them from a journal, read at activation. */
+    private boolean persistReservations = PERSIST_RESERVATIONS_DEFAULT;
+
+    /** Seconds between two samples of the link utilization, 0 disables sampling. */
+    private int utilizationSampleInterval = UTILIZATION_SAMPLE_INTERVAL_DEFAULT;
+
+    /** Seconds between two polls of the connection statistics, 0 disables polling. */
+    private int connectionStatsInterval = CONNECTION_STATS_INTERVAL_DEFAULT;
+
+    /** Seconds between two checks of the rules of the devices that changed, 0 disables the checks. */
+    private int reconcileInterval = RECONCILE_INTERVAL_DEFAULT;
+
+    /** Paths a connection can be split over when no single path has enough bandwidth, 1 disables splitting. */
+    private int multipathMaxPaths = MULTIPATH_MAX_PATHS_DEFAULT;
+
+    /** Share the rules of the transit switches among the connections towards the same destination. */
+    private boolean aggregateTransitRules = AGGREGATE_TRANSIT_RULES_DEFAULT;
+
+    private LinkCapacityModel capacityModel;
+
+    private final ConstrainedPathFinder pathFinder = new ConstrainedPathFinder();
+
+    private final LinkListener linkListener = new InternalLinkListener();
+
+    private final DeviceListener deviceListener = new InternalDeviceListener();
+
+    private final FlowRuleListener flowRuleListener = new InternalFlowRuleListener();
+
+    private final GroupListener groupListener = new InternalGroupListener();
+
+    private final HostListener hostListener = new InternalHostListener();
+
+    private final ClusterEventListener clusterListener = new InternalClusterListener();
+
+    // ids of the select groups on each device
+    private GroupIdPool groupIds;
+
+    // groups submitted to the devices and not yet confirmed
+    private final Map<ImmutablePair<DeviceId, GroupKey>, CompletableFuture<Void>> pendingGroups = new ConcurrentHashMap<>();
+
+    private ExecutorService provisioningExecutor;
+
+    private LinkFailureAccumulator failureAccumulator;
+
+    private MeterPool meterPool;
+
+    private ResourceMonitoringMetrics metrics;
+
+    private DistributedReservationStore reservationStore;
+
+    private ReservationJournal journal;
+
+    private ScheduledExecutorService monitorExecutor;
 
-    private Map<Connection, List<Link>> connections;
+    private LinkUtilizationMonitor utilizationMonitor;
 
-    private Map<Link, Integer> availableBandwidth;
+    private ConnectionStatsCollector statsCollector;
+
+    private FlowRuleReconciler reconciler;
+
+    private final BookingCalendar calendar = new BookingCalendar();
+
+    private final TransitRuleTable transitRules = new TransitRuleTable();
+
+    private TimerWheel bookingTimer;
+
+    private HostResolutionCache hostCache;
+
+
+    /// MY DATA STRUCTURES!!!
+
+    private ReservationLedger ledger;
 
     @Activate
-    protected void activate() {
+    protected void activate(ComponentContext context) {
         appId = coreService.registerApplication("org.ResourceMonitoring.app");
         cfgService.registerProperties(getClass());
 
-        this.connections = new HashMap<>();
-        this.availableBandwidth = new HashMap<>();
+        this.capacityModel = new LinkCapacityModel(deviceService);
+        this.hostCache = new HostResolutionCache(hostService);
+
+        this.distributedReservations = isPropertyEnabled(context.getProperties(), DISTRIBUTED_RESERVATIONS, distributedReservations);
+        if (distributedReservations)
+            this.reservationStore = new DistributedReservationStore(storageService, clusterService.getLocalNode().id());
+        this.ledger = new ReservationLedger(capacityModel::getCapacity, this::getOppositeLink, reservationStore);
+
+        this.monitorExecutor = Executors.newSingleThreadScheduledExecutor(groupedThreads("onos/rs", "monitor", log));
+        this.utilizationMonitor = new LinkUtilizationMonitor(deviceService, linkService, monitorExecutor);
+        this.statsCollector = new ConnectionStatsCollector(flowRuleService, meterService,
+                                                           () -> ledger.getConnections().keySet(), monitorExecutor);
+        this.reconciler = new FlowRuleReconciler(flowRuleService, appId, this::expectedRules,
+                                                 !distributedReservations, monitorExecutor);
+        this.bookingTimer = new TimerWheel(BOOKING_TICK_MS, BOOKING_WHEEL_SIZE, monitorExecutor);
+        modified(context);
+
+        this.meterPool = new MeterPool(meterService, meterStore, appId);
+        this.groupIds = new GroupIdPool(groupService, GROUP_ID_BASE, GROUP_ID_RANGE);
+        this.metrics = new ResourceMonitoringMetrics(metricsService, meterPool);
+
+        // bounded, requests beyond the queue size are rejected instead of piling up
+        this.provisioningExecutor = new ThreadPoolExecutor(PROVISIONING_THREADS, PROVISIONING_THREADS,
+                                                           0L, TimeUnit.MILLISECONDS,
+                                                           new ArrayBlockingQueue<>(PROVISIONING_QUEUE_SIZE),
+                                                           groupedThreads("onos/rs", "provisioning-%d", log));
+
+        this.failureAccumulator = new LinkFailureAccumulator();
+
+        bookingTimer.start();
+
+        // keep the adjacency snapshot used by the path search in sync with the topology
+        linkService.addListener(linkListener);
+        pathFinder.rebuild(linkService.getActiveLinks());
+
+        // keep the capacity of the links in sync with the speed of the ports
+        deviceService.addListener(deviceListener);
+
+        // repair the rules that disappear from the devices
+        flowRuleService.addListener(flowRuleListener);
+
+        // confirm the select groups of the split connections
+        groupService.addListener(groupListener);
+
+        // keep the host cache up to date and follow the hosts that move, listening before loading so that no change is missed
+        hostService.addListener(hostListener);
+        hostCache.load();
+
+        this.persistReservations = isPropertyEnabled(context.getProperties(), PERSIST_RESERVATIONS, persistReservations);
+        if (persistReservations){
+            this.journal = new ReservationJournal(JOURNAL_FILE);
+            restoreReservations();
+        }
+
+        // the connections of the instances that left while this one was not running, or lost by this one
+        if (reservationStore != null){
+            clusterService.addListener(clusterListener);
+            adoptOrphans(r -> reservationStore.isLocal(r) ? ledger.getRegistry().get(r.id) == null : !isActive(r.owner));
+        }
 
         log.info("Started");
 
@@ -120,66 +369,610 @@ public class ResourceMonitoringService {
     @Deactivate
     protected void deactivate() {
         cfgService.unregisterProperties(getClass(), false);
+        linkService.removeListener(linkListener);
+        deviceService.removeListener(deviceListener);
+        flowRuleService.removeListener(flowRuleListener);
+        groupService.removeListener(groupListener);
+        hostService.removeListener(hostListener);
+        clusterService.removeListener(clusterListener);
         log.info("Stopped");
 
-        // delete all flow rules installed by this application
-        for (Connection c : connections.keySet()){
-            HostId h1 = hostService.getHostsByIp(c.source.address())
-                    .stream()
-                    .findFirst()
-                    .get()
-                    .id();
-            HostId h2 = hostService.getHostsByIp(c.destination.address())
-                    .stream()
-                    .findFirst()
-                    .get()
-                    .id();
-
-            this.deleteConnection(h1, h2);
-        }
+        // nothing may install or repair rules while they are removed
+        provisioningExecutor.shutdown();
+        utilizationMonitor.stop();
+        statsCollector.stop();
+        reconciler.stop();
+        bookingTimer.stop();
+
+        // delete all flow rules installed by this application, unless they are restored at the next activation
+        if (!persistReservations)
+            teardown();
+
+        calendar.clear();
+        transitRules.clear();
+        hostCache.clear();
+        monitorExecutor.shutdown();
+        meterPool.clear();
+        groupIds.clear();
+        metrics.remove();
+        if (journal != null)
+            journal.close();
+        if (reservationStore != null)
+            reservationStore.close();
     }
 
     @Modified
     public void modified(ComponentContext context) {
-        log.info("Reconfigured");
+        Dictionary<?, ?> properties = context.getProperties();
+
+        String s = get(properties, PATH_WEIGHT);
+        if (s != null)
+            this.pathWeight = s.trim();
+        this.weight = ConstrainedPathFinder.Weight.fromString(pathWeight);
+
+        this.defaultLinkCapacity = getIntegerProperty(properties, DEFAULT_LINK_CAPACITY, defaultLinkCapacity);
+        this.linkCapacityFromPortSpeed = isPropertyEnabled(properties, LINK_CAPACITY_FROM_PORT_SPEED, linkCapacityFromPortSpeed);
+
+        s = get(properties, LINK_CAPACITY_OVERRIDES);
+        if (s != null)
+            this.linkCapacityOverrides = s.trim();
+
+        Map<LinkKey, Integer> overrides;
+        try {
+            overrides = LinkCapacityModel.parseOverrides(linkCapacityOverrides);
+        } catch (IllegalArgumentException e){
+            log.warn("Ignoring link capacity overrides: {}", e.getMessage());
+            overrides = Collections.emptyMap();
+        }
+
+        capacityModel.configure(defaultLinkCapacity, linkCapacityFromPortSpeed, overrides);
+        for (Link l : linkService.getLinks())
+            updateCapacity(l);
+
+        this.utilizationSampleInterval = getIntegerProperty(properties, UTILIZATION_SAMPLE_INTERVAL, utilizationSampleInterval);
+        utilizationMonitor.start(utilizationSampleInterval);
+
+        this.connectionStatsInterval = getIntegerProperty(properties, CONNECTION_STATS_INTERVAL, connectionStatsInterval);
+        statsCollector.start(connectionStatsInterval);
+
+        this.reconcileInterval = getIntegerProperty(properties, RECONCILE_INTERVAL, reconcileInterval);
+        reconciler.start(reconcileInterval);
+
+        this.multipathMaxPaths = Math.max(1, getIntegerProperty(properties, MULTIPATH_MAX_PATHS, multipathMaxPaths));
+        // applies to the rules built from now on, the installed ones are left as they are
+        boolean aggregate = isPropertyEnabled(properties, AGGREGATE_TRANSIT_RULES, aggregateTransitRules);
+        if (aggregate && distributedReservations){
+            // the references to the shared rules are counted by each instance, not by the cluster
+            log.warn("Shared transit rules are not supported with distributed reservations, ignored");
+            aggregate = false;
+        }
+        this.aggregateTransitRules = aggregate;
+
+        log.info("Reconfigured, path weight: {}, default link capacity: {} Mbps, capacity from port speed: {}, " +
+                 "utilization sampled every {} s, connection statistics every {} s, split over up to {} path(s), " +
+                 "shared transit rules: {}",
+                 weight, defaultLinkCapacity, linkCapacityFromPortSpeed, utilizationSampleInterval, connectionStatsInterval,
+                 multipathMaxPaths, aggregateTransitRules);
+    }
+
+    /* Recompute the capacity of the link and apply the difference to its available bandwidth */
+    private void updateCapacity(Link l){
+        int delta = capacityModel.update(l);
+        if (delta != 0)
+            ledger.adjustCapacity(l, delta);
     }
 
-    /* Establish a connection between the two specified hosts with the specified bandwidth, if possible */
+    /* Capacity of the link in Mbps */
+    public int getLinkCapacity(Link l){
+        return capacityModel.getCapacity(l);
+    }
+
+    /* Last collected statistics of the connection, or null */
+    public ConnectionStatsCollector.ConnectionStats getConnectionStats(Connection c){
+        return statsCollector.getStats(c);
+    }
+
+    /* Id of the only host with the specified address. Throws IllegalArgumentException if no host or more than one has it */
+    public HostId getHostId(IpAddress address) throws IllegalArgumentException{
+        HostResolutionCache.Attachment a = hostCache.get(address);
+        if (a == null)
+            throw new IllegalArgumentException("No single host with address " + address);
+        return a.id;
+    }
+
+    /* Measured utilization of the links */
+    public LinkUtilizationMonitor getUtilizationMonitor(){
+        return utilizationMonitor;
+    }
+
+    /* Establish a connection between the two specified hosts with the specified bandwidth, if possible.
+     * Waits until the devices confirm the installation */
     public void createConnection(final HostId from, final HostId to, final int bandwidth) throws Error{
-        HostLocation sourceHostLocation = hostService.getHost(from).location();
-        HostLocation destinationHostLocation = hostService.getHost(to).location();
+        createConnection(from, to, bandwidth, ReservationClass.BEST_EFFORT);
+    }
 
-        IpPrefix sourcePrefix = Helper.getIpPrefix(hostService, from);
-        IpPrefix destPrefix = Helper.getIpPrefix(hostService, to);
+    /* Establish a connection of the specified class, preempting connections of lower classes if needed */
+    public void createConnection(final HostId from, final HostId to, final int bandwidth,
+                                 final ReservationClass reservationClass) throws Error{
+        await(createConnectionAsync(from, to, bandwidth, reservationClass));
+    }
+
+    /* Delete the connection between the to specified hosts if established. Waits until the devices confirm the removal */
+    public void deleteConnection(HostId from, HostId to) throws Error{
+        await(deleteConnectionAsync(from, to));
+    }
+
+    /* Establish a connection without blocking the caller. The future completes with the connection once
+     * its meters and rules are confirmed by the devices, or exceptionally with an Error describing the failure */
+    public CompletableFuture<Connection> createConnectionAsync(final HostId from, final HostId to, final int bandwidth){
+        return createConnectionAsync(from, to, bandwidth, ReservationClass.BEST_EFFORT);
+    }
+
+    /* Establish a connection of the specified class without blocking the caller */
+    public CompletableFuture<Connection> createConnectionAsync(final HostId from, final HostId to, final int bandwidth,
+                                                               final ReservationClass reservationClass){
+        final long start = System.nanoTime();
+
+        return submit(() -> admitConnection(from, to, bandwidth, reservationClass))
+                .whenComplete((c, e) -> {
+                    ResourceMonitoringMetrics.record(metrics.admission, start);
+                    if (e == null){
+                        metrics.admitted.inc();
+                        log.debug("Connection {} installed in {} ms", c.key(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    } else
+                        metrics.rejected.inc();
+                });
+    }
+
+    /* Delete a connection without blocking the caller. The future completes once the devices confirm the removal */
+    public CompletableFuture<Connection> deleteConnectionAsync(final HostId from, final HostId to){
+        final long start = System.nanoTime();
+
+        return submit(() -> withdrawConnection(from, to))
+                .whenComplete((c, e) -> ResourceMonitoringMetrics.record(metrics.withdraw, start));
+    }
+
+    /* Book a connection for the window between start and end, in milliseconds since the epoch. The bandwidth is
+     * checked on a path for the whole window, the rules are installed just before the start and removed at the end */
+    public Booking scheduleConnection(final HostId from, final HostId to, final int bandwidth,
+                                      final ReservationClass reservationClass, final long start, final long end) throws Error{
+        if (end <= start || end <= System.currentTimeMillis())
+            throw new Error("The reservation must end after its start and in the future! :(");
+
+        HostResolutionCache.Attachment source = resolve(from);
+        HostResolutionCache.Attachment destination = resolve(to);
+
+        HostLocation sourceHostLocation = source.location;
+        HostLocation destinationHostLocation = destination.location;
+
+        IpPrefix sourcePrefix = source.prefix;
+        IpPrefix destPrefix = destination.prefix;
+
+        // checked again when booking, under the lock of the calendar
+        if (calendar.overlaps(new ConnectionKey(sourcePrefix, destPrefix), start, end))
+            throw new Error("Another reservation between those endpoints overlaps the requested window!");
+
+        // the bandwidth available now minus what is booked at some time of the window
+        ToIntFunction<Link> available = l -> ledger.getAvailableBandwidth(l) - calendar.getBooked(l, start, end);
+        Optional<List<Link>> path = pathFinder.findPath(sourceHostLocation.deviceId(),
+                                                        destinationHostLocation.deviceId(),
+                                                        bandwidth,
+                                                        available,
+                                                        weight);
+        if (path.isEmpty())
+            throw new Error("No path found from source to destination with enough capacity in the requested window! :(");
+
+        List<Link> links = new ArrayList<>(path.get());
+        for (Link l : path.get()){
+            Link o = getOppositeLink(l);
+            if (o != null)
+                links.add(o);
+        }
+
+        Booking b = new Booking(sourcePrefix, destPrefix, bandwidth, reservationClass, start, end, path.get());
+        if (!calendar.book(b, links, ledger::getAvailableBandwidth))
+            throw new Error("The requested window has been booked meanwhile! :(");
+
+        journalBook(b);
+        arm(b);
+        log.info("Connection {} booked from {} to {}", b.key(), new Date(start), new Date(end));
+        return b;
+    }
+
+    /* Cancel a booking, withdrawing its connection if already established */
+    public void cancelBooking(long id) throws Error{
+        Booking b = calendar.get(id);
+        if (b == null)
+            throw new Error("No reservation found with id " + id + " ! :(");
+
+        // the timers are set right after booking
+        if (b.activation != null)
+            b.activation.cancel();
+        if (b.expiry != null)
+            b.expiry.cancel();
+        await(submit(() -> endBooking(b, Booking.State.CANCELLED)));
+    }
+
+    /* Bookings not yet expired */
+    public Collection<Booking> getBookings(){
+        return calendar.getBookings();
+    }
+
+    /* Admit a batch of demands without blocking the caller. Demands are placed largest first on the paths with
+     * the most residual capacity, then the rules of all the admitted ones are pushed in a single batch.
+     * The future completes with the report once the devices confirm the batch */
+    public CompletableFuture<BatchReport> createConnectionsAsync(final List<Demand> demands){
+        final long start = System.nanoTime();
+
+        return submit(() -> admitBatch(demands))
+                .thenApply(report -> {
+                    report.setElapsedNanos(System.nanoTime() - start);
+                    metrics.admitted.inc(report.getAdmitted().size());
+                    metrics.rejected.inc(report.getRejected().size());
+                    return report;
+                });
+    }
+
+    /* Run a provisioning step on the bounded executor */
+    private <T> CompletableFuture<T> submit(ProvisioningTask<T> task){
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        try {
+            provisioningExecutor.execute(() -> {
+                try {
+                    task.run().whenComplete((c, e) -> {
+                        if (e != null)
+                            result.completeExceptionally(unwrap(e));
+                        else
+                            result.complete(c);
+                    });
+                } catch (Error | RuntimeException e){
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e){
+            result.completeExceptionally(new Error("Too many pending requests, retry later! :("));
+        }
+
+        return result;
+    }
+
+    /* Compute the path, reserve the bandwidth and push meters and rules of a new connection */
+    private CompletableFuture<Connection> admitConnection(final HostId from, final HostId to, final int bandwidth,
+                                                          final ReservationClass reservationClass) throws Error{
+        HostResolutionCache.Attachment source = resolve(from);
+        HostResolutionCache.Attachment destination = resolve(to);
+
+        HostLocation sourceHostLocation = source.location;
+        HostLocation destinationHostLocation = destination.location;
+
+        IpPrefix sourcePrefix = source.prefix;
+        IpPrefix destPrefix = destination.prefix;
 
         // check the existence of a connection between the two hosts
         if (isAlreadyInstalled(sourcePrefix, destPrefix))
             throw new Error("Another connection already exists with those endpoints!");
 
-        // Retrieve all possible paths form source to destination
-        // Pick the shortest path with enough bandwidth
-        Optional<Path> shortestPath = pathService.getKShortestPaths(sourceHostLocation.elementId(),destinationHostLocation.elementId())
-                                                 //.sorted(shorterPath())
-                                                 .filter(hasEnoughResource(bandwidth))
-                                                 .findFirst();
+        Connection connection = newConnection(sourcePrefix, destPrefix, bandwidth, reservationClass);
+        List<Link> traversedLinks = reservePath(connection, sourceHostLocation, destinationHostLocation, weight);
+
+        return installConnection(connection, sourceHostLocation, destinationHostLocation, traversedLinks);
+    }
+
+    /* Push the rules of a connection whose path has been reserved */
+    private CompletableFuture<Connection> installConnection(Connection connection, HostLocation sourceHostLocation,
+                                                            HostLocation destinationHostLocation, List<Link> traversedLinks){
+        // build all the rules of the connection and push them to the devices in a single batch
+        // as soon as the devices confirm the meters referenced by the rules
+        FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+        try {
+            connection.rules = buildConnectionRules(connection, sourceHostLocation, destinationHostLocation, traversedLinks, null);
+        } catch (Error e){
+            ledger.release(connection);
+            throw e;
+        }
+        connection.rules.getFlowRules().forEach(ops::add);
+
+        return installRules(ops, connection.rules.getConfirmations(), Collections.singletonList(connection))
+                .thenApply(v -> {
+                    journalPut(connection);
+                    return connection;
+                });
+    }
+
+    /* Establish the connection of a booking on its booked path, or on a new one if the booked path is gone */
+    private CompletableFuture<Connection> startBooking(Booking b){
+        synchronized (b){
+            if (b.state != Booking.State.SCHEDULED)
+                return CompletableFuture.completedFuture(null);
+
+            HostLocation sourceHostLocation = locate(b.source);
+            HostLocation destinationHostLocation = locate(b.destination);
+            if (sourceHostLocation == null || destinationHostLocation == null)
+                return failBooking(b, "endpoint not found");
+
+            Connection c = newConnection(b.source, b.destination, b.bandwidth, b.reservationClass);
+
+            // the booked links as they are now, null if one of them is down
+            List<Link> path = new ArrayList<>(b.path.size());
+            for (Link l : b.path){
+                Link current = linkService.getLink(l.src(), l.dst());
+                if (current == null || current.state() != Link.State.ACTIVE){
+                    path = null;
+                    break;
+                }
+                path.add(current);
+            }
+
+            if (path != null && reserveQuietly(c, path))
+                calendar.activate(b);
+            else {
+                // the booked bandwidth is given back before searching another path
+                calendar.remove(b);
+                try {
+                    path = reservePath(c, sourceHostLocation, destinationHostLocation, weight);
+                } catch (Error e){
+                    return failBooking(b, e.getMessage());
+                }
+            }
+
+            b.connection = c;
+            b.state = Booking.State.ACTIVE;
+            log.info("Booked connection {} started", b.key());
+            return installConnection(c, sourceHostLocation, destinationHostLocation, path)
+                    .thenApply(v -> {
+                        journalBook(b);
+                        return v;
+                    });
+        }
+    }
+
+    /* Set the timers starting and ending a booking, a start already past runs at the next tick */
+    private void arm(Booking b){
+        if (b.state == Booking.State.SCHEDULED)
+            b.activation = bookingTimer.schedule(() -> submit(() -> startBooking(b)), b.start - BOOKING_LEAD_MS);
+        b.expiry = bookingTimer.schedule(() -> submit(() -> endBooking(b, Booking.State.EXPIRED)), b.end);
+    }
+
+    /* Forget a booking that cannot start */
+    private CompletableFuture<Connection> failBooking(Booking b, String reason){
+        if (b.expiry != null)
+            b.expiry.cancel();
+        calendar.remove(b);
+        journalUnbook(b);
+        b.state = Booking.State.FAILED;
+        log.warn("Booked connection {} not established: {}", b.key(), reason);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /* Forget a booking at its end or when cancelled, withdrawing its connection if established */
+    private CompletableFuture<Connection> endBooking(Booking b, Booking.State state){
+        synchronized (b){
+            Booking.State previous = b.state;
+            if (previous != Booking.State.SCHEDULED && previous != Booking.State.ACTIVE)
+                return CompletableFuture.completedFuture(null);
+
+            calendar.remove(b);
+            journalUnbook(b);
+            b.state = state;
+
+            Connection c = b.connection;
+            if (c == null || ledger.release(c) == null)
+                return CompletableFuture.completedFuture(c); // never started or withdrawn meanwhile
 
-        if (shortestPath.isEmpty())
-            throw new Error("No path found from source to destination with enough capacity! :(");
+            journalRemove(c);
+            log.info("Booked connection {} ended", b.key());
+            return removeRules(c).thenApply(v -> c);
+        }
+    }
+
+    /* Register again the connections of the journal and reconcile their rules with the ones on the devices:
+     * only the missing rules are pushed and the rules of this application matching no connection are removed */
+    private void restoreReservations(){
+        long start = System.nanoTime();
+
+        List<ReservationJournal.Entry> entries;
+        try {
+            entries = journal.open();
+        } catch (IOException | UncheckedIOException e){
+            // nothing is restored nor removed from the devices, the rules of the journaled connections stay there
+            log.error("Cannot open the reservation journal, connections will not be persisted: {}", e.getMessage());
+            journal = null;
+            return;
+        }
+
+        List<Connection> restored = new ArrayList<>(entries.size());
+        List<CompletableFuture<Void>> meters = new ArrayList<>();
+        for (ReservationJournal.Entry e : entries){
+            Connection c = new Connection(e.id, e.source, e.destination, e.bandwidth, e.reservationClass);
+            c.shares = e.shares;
+            if (!restoreConnection(c, e.sourceLocation, e.destinationLocation, e.path, e.meters)){
+                journal.remove(c);
+                continue;
+            }
+            meters.addAll(c.rules.getConfirmations());
+            restored.add(c);
+        }
+
+        // rules are equal when they have the same device and match
+        Map<FlowRule, FlowEntry> installed = new HashMap<>();
+        for (FlowEntry fe : flowRuleService.getFlowEntriesById(appId))
+            installed.put(fe, fe);
+
+        FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+        Set<FlowRule> expected = new HashSet<>();
+        int pushed = 0;
+        for (Connection c : restored){
+            for (FlowRule r : c.rules.getFlowRules()){
+                if (!expected.add(r))
+                    continue; // shared with a connection already checked
+
+                FlowEntry fe = installed.remove(r);
+                if (fe == null || !fe.exactMatch(r)){
+                    if (fe == null)
+                        ops.add(r);
+                    else
+                        ops.modify(r);
+                    pushed++;
+                }
+            }
+        }
+        // in a cluster the other rules may belong to connections of the other instances
+        if (reservationStore != null)
+            installed.clear();
+        installed.keySet().forEach(ops::remove);
+
+        if (pushed > 0 || !installed.isEmpty())
+            installRules(ops, meters, restored);
+        else
+            restored.forEach(c -> submitGroups(c.rules));
 
+        log.info("Restored {} connection(s) in {} ms, {} rule(s) pushed, {} orphan rule(s) removed",
+                 restored.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), pushed, installed.size());
 
-        // save the current connection
-        List<Link> traversedLinks = shortestPath.get().links();
-        connections.put(new Connection(sourcePrefix, destPrefix, bandwidth), traversedLinks);
+        restoreBookings(journal.getBookings());
+    }
+
+    /* Register again a connection whose rules are on the devices and build its rules, reusing the meters still
+     * on the devices. Return false, leaving nothing registered, if the connection cannot be restored */
+    private boolean restoreConnection(Connection c, HostLocation sourceLocation, HostLocation destinationLocation,
+                                      List<Link> path, List<ImmutablePair<DeviceId, MeterId>> meters){
+        if (!ledger.restore(c, path))
+            return false;
+
+        // the meters still on the devices are used again, the missing ones are created
+        ConnectionRules previous = new ConnectionRules();
+        for (ImmutablePair<DeviceId, MeterId> m : meters){
+            Meter meter = meterService.getMeter(m.left, m.right);
+            if (meter != null && meterPool.adopt(meter))
+                previous.addMeter(m.left, m.right, CompletableFuture.completedFuture(null));
+        }
+
+        try {
+            c.rules = buildConnectionRules(c, sourceLocation, destinationLocation, path, previous);
+        } catch (Error err){
+            log.warn("Cannot restore connection {}: {}", c.key(), err.getMessage());
+            ledger.release(c);
+            previous.getMeters().forEach(m -> meterPool.release(m.left, m.right));
+            return false;
+        }
+        return true;
+    }
 
-        // update the resulting available bandwidth for each traversed link
-        for (Link l : traversedLinks){
-            AllocateBandwidth(l, bandwidth);
-            AllocateBandwidth(getOppositeLink(l), bandwidth);
+    /* Take over the recorded connections matching the predicate and push their rules again, in case the devices
+     * lost some while their owner was gone */
+    private void adoptOrphans(Predicate<DistributedReservationStore.Record> orphan){
+        int adopted = 0;
+        for (DistributedReservationStore.Record r : reservationStore.getRecords()){
+            if (!orphan.test(r))
+                continue;
+
+            Connection c = takeOver(r);
+            if (c == null)
+                continue;
+
+            FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+            c.rules.getFlowRules().forEach(ops::add);
+            installRules(ops, c.rules.getConfirmations(), Collections.singletonList(c))
+                    .thenRun(() -> journalPut(c));
+            adopted++;
         }
 
+        if (adopted > 0)
+            log.info("Took over {} connection(s) of the instances no longer active", adopted);
+    }
+
+    /* Become the owner of a recorded connection and register it here. Return null if another instance took it
+     * first or if it cannot be restored, its reservation is then given back */
+    private Connection takeOver(DistributedReservationStore.Record record){
+        DistributedReservationStore.Record r = reservationStore.claim(new ConnectionKey(record.source, record.destination), record.owner);
+        if (r == null)
+            return null;
+
+        Connection c = new Connection(r.id, r.source, r.destination, r.bandwidth, r.reservationClass);
+        c.shares = r.shares;
+        // the locations are missing if the owner left before building the rules
+        if (r.sourceLocation != null && restoreConnection(c, r.sourceLocation, r.destinationLocation, r.path, r.meters)){
+            log.info("Took over connection {} of instance {}", c.key(), record.owner);
+            return c;
+        }
 
-        // install rules on the first switch of the path
-        installRule(
+        reservationStore.release(r);
+        log.warn("Cannot take over connection {} of instance {}, its reservation is given back", c.key(), record.owner);
+        return null;
+    }
+
+    /* True if the instance is still part of the cluster */
+    private boolean isActive(NodeId node){
+        ControllerNode.State state = clusterService.getState(node);
+        return state != null && state.isActive();
+    }
+
+    /* A new connection, numbered across the cluster when the reservations are shared */
+    private Connection newConnection(IpPrefix source, IpPrefix destination, int bandwidth, ReservationClass reservationClass){
+        if (reservationStore == null)
+            return new Connection(source, destination, bandwidth, reservationClass);
+        return new Connection(reservationStore.nextId(), source, destination, bandwidth, reservationClass);
+    }
+
+    /* Book again the journaled bookings and set their timers. A started booking takes back its restored connection,
+     * so that the connection is still withdrawn at the end of the window; the bookings that ended while the
+     * application was stopped are ended at the next tick */
+    private void restoreBookings(List<ReservationJournal.BookingEntry> entries){
+        for (ReservationJournal.BookingEntry e : entries){
+            Booking b = new Booking(e.id, e.source, e.destination, e.bandwidth, e.reservationClass, e.start, e.end, e.path);
+
+            Connection c = null;
+            if (e.state == Booking.State.ACTIVE){
+                c = ledger.getRegistry().get(e.connection);
+                if (c == null){
+                    // the connection could not be restored
+                    journal.unbook(b);
+                    continue;
+                }
+            } else if (e.start - BOOKING_LEAD_MS <= System.currentTimeMillis()){
+                // stopped after establishing the connection but before journaling the start
+                c = ledger.getRegistry().get(e.source, e.destination);
+                if (c != null && (c.bandwidth != e.bandwidth || c.reservationClass != e.reservationClass))
+                    c = null;
+            }
+
+            calendar.restore(b);
+
+            if (c != null){
+                b.connection = c;
+                b.state = Booking.State.ACTIVE;
+                calendar.activate(b);
+                if (e.state != Booking.State.ACTIVE)
+                    journalBook(b);
+            }
+            arm(b);
+        }
+
+        if (!entries.isEmpty())
+            log.info("Restored {} booking(s)", calendar.getBookings().size());
+    }
+
+    /* Build the rules implementing the connection along the specified path. Meters of the previous rules
+     * of the connection, if any, are reused on the same devices */
+    private ConnectionRules buildConnectionRules(Connection connection, HostLocation sourceHostLocation, HostLocation destinationHostLocation,
+                                                 List<Link> traversedLinks, ConnectionRules previous){
+        ConnectionRules rules = new ConnectionRules(connection.reservationClass.rulePriority());
+        connection.sourceLocation = sourceHostLocation;
+        connection.destinationLocation = destinationHostLocation;
+        IpPrefix sourcePrefix = connection.source;
+        IpPrefix destPrefix = connection.destination;
+        int bandwidth = connection.bandwidth;
+
+        if (connection.shares != null){
+            buildSplitRules(rules, previous, connection, ConstrainedPathFinder.subpaths(traversedLinks));
+            return rules;
+        }
+
+        // rules on the first switch of the path
+        buildRule(
+                rules,
+                previous,
                 sourceHostLocation.deviceId(),
                 sourceHostLocation.port(),
                 traversedLinks.get(0).src().port(),
@@ -187,7 +980,9 @@ public class ResourceMonitoringService {
                 destPrefix,
                 bandwidth
         );
-        installRule(
+        buildRule(
+                rules,
+                previous,
                 sourceHostLocation.deviceId(),
                 traversedLinks.get(0).src().port(),
                 sourceHostLocation.port(),
@@ -201,12 +996,14 @@ public class ResourceMonitoringService {
             PortNumber incoming = traversedLinks.get(i).dst().port();
             PortNumber outgoing = traversedLinks.get(i+1).src().port();
 
-            installDuplexRule(device, incoming, outgoing, sourcePrefix, destPrefix);
+            buildDuplexRule(rules, device, incoming, outgoing, sourcePrefix, destPrefix);
         }
 
-        // install rules on destination edge switch
+        // rules on destination edge switch
         PortNumber incoming = traversedLinks.get(traversedLinks.size()-1).dst().port();
-        installRule(
+        buildRule(
+                rules,
+                previous,
                 destinationHostLocation.deviceId(),
                 incoming,
                 destinationHostLocation.port(),
@@ -214,7 +1011,9 @@ public class ResourceMonitoringService {
                 destPrefix,
                 -1 // do not install meter
         );
-        installRule(
+        buildRule(
+                rules,
+                previous,
                 destinationHostLocation.deviceId(),
                 destinationHostLocation.port(),
                 incoming,
@@ -222,98 +1021,825 @@ public class ResourceMonitoringService {
                 sourcePrefix,
                 bandwidth
         );
+
+        return rules;
     }
 
-    /* Delete the connection between the to specified hosts if established */
-    public void deleteConnection(HostId from, HostId to) throws Error{
-        /* Note that the group concept here is simply a logical grouping of flows.
-         * This is not the same as a group in the GroupService, and this method will not return flows that are mapped to a particular Group. */
-        Iterable<FlowRule> flowRules = flowRuleService.getFlowRulesByGroupId(this.appId, DEFAULT_GROUP);
+    /* Build the rules of a connection split over several node disjoint paths. On each edge switch the traffic entering
+     * the network is metered as a whole and spread over the paths by a select group, weighted by their shares */
+    private void buildSplitRules(ConnectionRules rules, ConnectionRules previous, Connection connection, List<List<Link>> paths){
+        HostLocation source = connection.sourceLocation;
+        HostLocation destination = connection.destinationLocation;
+        int[] shares = connection.shares;
+
+        // the group ids are taken first, nothing else is acquired if a device has none left
+        GroupKey key = groupKey(connection);
+        GroupId forwardGroup = groupId(source.deviceId(), key);
+        GroupId reverseGroup;
+        try {
+            reverseGroup = groupId(destination.deviceId(), key);
+        } catch (Error e){
+            if (previous == null || !previous.getGroups().contains(new ImmutablePair<>(source.deviceId(), key)))
+                groupIds.release(source.deviceId(), key);
+            throw e;
+        }
+
+        List<GroupBucket> forward = new ArrayList<>(paths.size());
+        List<GroupBucket> reverse = new ArrayList<>(paths.size());
+
+        for (int p = 0; p < paths.size(); p++){
+            List<Link> path = paths.get(p);
+            PortNumber first = path.get(0).src().port();
+            PortNumber last = path.get(path.size() - 1).dst().port();
+            short weight = (short) Math.max(1, shares[p] * 100L / connection.bandwidth);
 
-        IpPrefix sourcePrefix = Helper.getIpPrefix(hostService, from);
-        IpPrefix destPrefix = Helper.getIpPrefix(hostService, to);
+            forward.add(DefaultGroupBucket.createSelectGroupBucket(DefaultTrafficTreatment.builder().setOutput(first).build(), weight));
+            reverse.add(DefaultGroupBucket.createSelectGroupBucket(DefaultTrafficTreatment.builder().setOutput(last).build(), weight));
+
+            // traffic coming back on this path to the edge switches
+            buildRule(rules, previous, source.deviceId(), first, source.port(), connection.destination, connection.source, -1);
+            for (int i = 0; i < path.size() - 1; i++)
+                buildDuplexRule(rules, path.get(i).dst().deviceId(), path.get(i).dst().port(), path.get(i + 1).src().port(),
+                                connection.source, connection.destination);
+            buildRule(rules, previous, destination.deviceId(), last, destination.port(), connection.source, connection.destination, -1);
+        }
+
+        buildGroup(rules, source.deviceId(), key, forwardGroup, forward);
+        buildRule(rules, previous, source.deviceId(), source.port(), DefaultTrafficTreatment.builder().group(forwardGroup),
+                  connection.source, connection.destination, connection.bandwidth);
+
+        buildGroup(rules, destination.deviceId(), key, reverseGroup, reverse);
+        buildRule(rules, previous, destination.deviceId(), destination.port(), DefaultTrafficTreatment.builder().group(reverseGroup),
+                  connection.destination, connection.source, connection.bandwidth);
+    }
 
-        Optional<Connection> connection = connections.keySet().stream()
-                                                              .filter(hasEndpoints(sourcePrefix, destPrefix))
-                                                              .findFirst();
+    /* Id of the select group with the key on the device: the one of the group already there, or else a free id
+     * of the device. Throws Error if the device has no id left */
+    private GroupId groupId(DeviceId device, GroupKey key) throws Error{
+        Group existing = groupService.getGroup(device, key);
+        if (existing == null)
+            return groupIds.acquire(device, key);
 
-        if (connection.isEmpty())
+        groupIds.adopt(device, key, existing.id());
+        return existing.id();
+    }
+
+    /* Record in the rules of the connection its select group on the device, submitted when the rules are pushed */
+    private void buildGroup(ConnectionRules rules, DeviceId device, GroupKey key, GroupId id, List<GroupBucket> buckets){
+        rules.addGroup(new DefaultGroupDescription(device, GroupDescription.Type.SELECT, new GroupBuckets(buckets), key,
+                                                   id.id(), appId),
+                       new CompletableFuture<>());
+    }
+
+    /* Add to the devices the groups of the rules, or update the buckets of those already there */
+    private void submitGroups(ConnectionRules rules){
+        for (ImmutablePair<GroupDescription, CompletableFuture<Void>> g : rules.takeUnsubmittedGroups()){
+            GroupDescription d = g.left;
+            GroupKey key = d.appCookie();
+            Group existing = groupService.getGroup(d.deviceId(), key);
+            if (existing == null){
+                pendingGroups.put(new ImmutablePair<>(d.deviceId(), key), g.right);
+                groupService.addGroup(d);
+            } else {
+                if (!existing.buckets().equals(d.buckets()))
+                    groupService.setBucketsForGroup(d.deviceId(), key, d.buckets(), key, appId);
+                g.right.complete(null); // already on the device
+            }
+        }
+    }
+
+    /* Key of the select groups of a split connection */
+    private static GroupKey groupKey(Connection c){
+        return new DefaultGroupKey(("rs-" + c.id).getBytes());
+    }
+
+    /* Place the demands largest first and push the rules of the admitted ones in a single batch */
+    private CompletableFuture<BatchReport> admitBatch(List<Demand> demands){
+        BatchReport report = new BatchReport();
+
+        List<Demand> sorted = new ArrayList<>(demands);
+        sorted.sort(Comparator.comparingInt((Demand d) -> d.bandwidth).reversed());
+
+        FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+        Set<FlowRule> batched = new HashSet<>();
+        List<CompletableFuture<Void>> meters = new ArrayList<>();
+
+        for (Demand d : sorted){
+            try {
+                HostResolutionCache.Attachment source = resolve(d.source);
+                HostResolutionCache.Attachment destination = resolve(d.destination);
+
+                IpPrefix sourcePrefix = source.prefix;
+                IpPrefix destPrefix = destination.prefix;
+
+                if (isAlreadyInstalled(sourcePrefix, destPrefix))
+                    throw new Error("Another connection already exists with those endpoints!");
+
+                // the paths with more residual capacity are preferred to leave room for the next demands
+                Connection connection = newConnection(sourcePrefix, destPrefix, d.bandwidth, d.reservationClass);
+                List<Link> path = reservePath(connection, source.location, destination.location,
+                                              ConstrainedPathFinder.Weight.RESIDUAL_CAPACITY);
+
+                try {
+                    connection.rules = buildConnectionRules(connection, source.location, destination.location, path, null);
+                } catch (Error e){
+                    ledger.release(connection);
+                    throw e;
+                }
+                for (FlowRule r : connection.rules.getFlowRules())
+                    if (batched.add(r)) // shared rules are pushed once
+                        ops.add(r);
+                meters.addAll(connection.rules.getConfirmations());
+                report.admit(connection);
+            } catch (Error e){
+                report.reject(d, e.getMessage());
+            }
+        }
+
+        if (report.getAdmitted().isEmpty())
+            return CompletableFuture.completedFuture(report);
+
+        return installRules(ops, meters, report.getAdmitted())
+                .thenApply(v -> {
+                    report.getAdmitted().forEach(this::journalPut);
+                    return report;
+                });
+    }
+
+    /* Search a path with enough bandwidth between the two locations and reserve it for the connection */
+    private List<Link> reservePath(Connection connection, HostLocation source, HostLocation destination,
+                                   ConstrainedPathFinder.Weight pathWeight) throws Error{
+        for (int attempt = 0; attempt < MAX_ADMISSION_ATTEMPTS; attempt++){
+            // Search the shortest path with enough bandwidth, links without enough capacity are pruned
+            long start = System.nanoTime();
+            Optional<List<Link>> shortestPath = pathFinder.findPath(source.deviceId(),
+                                                                    destination.deviceId(),
+                                                                    connection.bandwidth,
+                                                                    this::getAdmissibleBandwidth,
+                                                                    pathWeight);
+            ResourceMonitoringMetrics.record(metrics.pathSearch, start);
+
+            if (shortestPath.isEmpty())
+                break;
+
+            // reserve the bandwidth on each traversed link and save the current connection,
+            // fails if a concurrent admission took the capacity in the meantime
+            if (ledger.reserve(connection, shortestPath.get())){
+                metrics.pathsExamined.update(attempt + 1);
+                return shortestPath.get();
+            }
+        }
+
+        // several paths together may have enough bandwidth
+        if (multipathMaxPaths > 1){
+            List<Link> path = reserveSplit(connection, source, destination);
+            if (path != null)
+                return path;
+        }
+
+        // the capacity held by lower classes can be taken
+        if (connection.reservationClass.ordinal() > 0){
+            List<Link> path = preempt(connection, source, destination, pathWeight);
+            if (path != null)
+                return path;
+        }
+
+        throw new Error("No path found from source to destination with enough capacity! :(");
+    }
+
+    /* Reserve node disjoint paths sharing the bandwidth of the connection, return them one after the other or null */
+    private List<Link> reserveSplit(Connection connection, HostLocation source, HostLocation destination){
+        for (int attempt = 0; attempt < MAX_ADMISSION_ATTEMPTS; attempt++){
+            long start = System.nanoTime();
+            Optional<ConstrainedPathFinder.Split> split = pathFinder.findSplit(source.deviceId(),
+                                                                               destination.deviceId(),
+                                                                               connection.bandwidth,
+                                                                               this::getAdmissibleBandwidth,
+                                                                               multipathMaxPaths);
+            ResourceMonitoringMetrics.record(metrics.pathSearch, start);
+
+            if (split.isEmpty())
+                return null;
+
+            List<Link> links = split.get().links();
+            if (ledger.reserve(connection, links, split.get().shares)){
+                log.info("Connection {} split over {} paths", connection.key(), split.get().paths.size());
+                return links;
+            }
+        }
+        return null;
+    }
+
+    /* Reserve a path for the connection by displacing connections of lower classes, choosing the path and the victims
+     * that displace the least bandwidth. Victims are rerouted if possible, withdrawn otherwise. Return null if even
+     * preempting every lower class there is not enough capacity */
+    private List<Link> preempt(Connection connection, HostLocation source, HostLocation destination,
+                               ConstrainedPathFinder.Weight pathWeight){
+        // the path search sees as available also the bandwidth held by lower classes
+        Optional<List<Link>> path = pathFinder.findPath(source.deviceId(),
+                                                        destination.deviceId(),
+                                                        connection.bandwidth,
+                                                        l -> getAdmissibleBandwidth(l) + preemptible(l, connection.reservationClass),
+                                                        pathWeight);
+        if (path.isEmpty())
+            return null;
+
+        Set<Connection> victims = selectVictims(connection, path.get());
+        if (victims == null)
+            return null;
+
+        List<Connection> released = new ArrayList<>(victims.size());
+        for (Connection v : victims){
+            if (ledger.release(v) != null){
+                journalRemove(v);
+                released.add(v);
+            }
+        }
+
+        boolean reserved = ledger.reserve(connection, path.get());
+        // the victims are moved elsewhere in any case, their capacity may have been taken concurrently
+        released.forEach(v -> submit(() -> readmit(v)));
+
+        if (!reserved)
+            return null;
+
+        log.info("Connection {} preempted {} connection(s)", connection.key(), released.size());
+        return path.get();
+    }
+
+    /* Bandwidth held on the link, in any direction, by connections of classes lower than the specified one */
+    private int preemptible(Link l, ReservationClass reservationClass){
+        int bandwidth = 0;
+        for (Connection c : connectionsOnLink(l)){
+            if (c.reservationClass.compareTo(reservationClass) >= 0)
+                break; // sorted by class
+            bandwidth += ledger.getCharged(c, l);
+        }
+        return bandwidth;
+    }
+
+    /* Connections of lower classes to preempt to make room for the connection on every link of the path, or null.
+     * On each link lacking capacity the lowest class is taken first, within a class the smallest connection that
+     * covers the missing bandwidth alone, or else the largest ones until it is covered */
+    private Set<Connection> selectVictims(Connection connection, List<Link> path){
+        Set<Connection> victims = new LinkedHashSet<>();
+
+        List<Link> links = new ArrayList<>(path);
+        for (Link l : path){
+            Link o = getOppositeLink(l);
+            if (o != null)
+                links.add(o);
+        }
+
+        for (Link l : links){
+            List<Connection> candidates = connectionsOnLink(l);
+
+            int missing = connection.bandwidth - getAdmissibleBandwidth(l);
+            for (Connection v : candidates)
+                if (victims.contains(v))
+                    missing -= ledger.getCharged(v, l);
+
+            for (int i = 0; missing > 0 && i < candidates.size(); ){
+                ReservationClass level = candidates.get(i).reservationClass;
+                if (level.compareTo(connection.reservationClass) >= 0)
+                    return null;
+
+                // candidates of this class not chosen yet, smallest bandwidth first
+                List<Connection> sameClass = new ArrayList<>();
+                for (; i < candidates.size() && candidates.get(i).reservationClass == level; i++)
+                    if (!victims.contains(candidates.get(i)))
+                        sameClass.add(candidates.get(i));
+
+                while (missing > 0 && !sameClass.isEmpty()){
+                    Connection chosen = null;
+                    for (Connection v : sameClass)
+                        if (ledger.getCharged(v, l) >= missing){
+                            chosen = v;
+                            break;
+                        }
+                    if (chosen == null)
+                        chosen = sameClass.get(sameClass.size() - 1);
+
+                    sameClass.remove(chosen);
+                    victims.add(chosen);
+                    missing -= ledger.getCharged(chosen, l);
+                }
+            }
+
+            if (missing > 0)
+                return null;
+        }
+
+        return victims;
+    }
+
+    /* Connections whose bandwidth is charged on the link, lowest class and smallest bandwidth first */
+    private List<Connection> connectionsOnLink(Link l){
+        ConnectionRegistry registry = ledger.getRegistry();
+        List<Connection> connections = new ArrayList<>(registry.getConnectionsOnLink(LinkKey.linkKey(l)));
+        connections.addAll(registry.getConnectionsOnLink(LinkKey.linkKey(l.dst(), l.src())));
+        connections.sort(Comparator.comparing((Connection c) -> c.reservationClass).thenComparingInt(c -> c.bandwidth));
+        return connections;
+    }
+
+    /* Find a new path for a preempted connection, whose rules are still on the devices, or withdraw it */
+    private CompletableFuture<Connection> readmit(Connection c){
+        HostLocation sourceHostLocation = locate(c.source);
+        HostLocation destinationHostLocation = locate(c.destination);
+
+        Optional<List<Link>> path = sourceHostLocation == null || destinationHostLocation == null ? Optional.empty() :
+                pathFinder.findPath(sourceHostLocation.deviceId(), destinationHostLocation.deviceId(), c.bandwidth,
+                                    this::getAdmissibleBandwidth, weight);
+
+        if (path.isEmpty() || !reserveQuietly(c, path.get())){
+            log.warn("Withdrawing preempted connection {}: no path with enough capacity", c.key());
+            return removeRules(c).thenApply(v -> c);
+        }
+
+        ConnectionRules old = c.rules;
+        try {
+            c.rules = buildConnectionRules(c, sourceHostLocation, destinationHostLocation, path.get(), old);
+        } catch (Error e){
+            log.warn("Withdrawing preempted connection {}: {}", c.key(), e.getMessage());
+            ledger.release(c);
+            return removeRules(c).thenApply(v -> c);
+        }
+
+        return installRules(diffRules(old, c.rules), c.rules.getConfirmations(), Collections.singletonList(c))
+                .thenApply(v -> {
+                    releaseUnusedMeters(old, c.rules);
+                    removeUnusedGroups(old, c.rules);
+                    journalPut(c);
+                    log.info("Preempted connection {} rerouted", c.key());
+                    return c;
+                });
+    }
+
+    /* Reserve the path for the connection, false also if a connection with the same endpoints appeared meanwhile */
+    private boolean reserveQuietly(Connection c, List<Link> path){
+        try {
+            return ledger.reserve(c, path);
+        } catch (Error e){
+            return false;
+        }
+    }
+
+    /* Move a connection whose path is broken to a new path with enough capacity, reprogramming only the changed hops.
+     * If no such path exists the connection is withdrawn */
+    private CompletableFuture<Connection> rerouteConnection(Connection c){
+        List<Link> oldPath = ledger.getRegistry().getPath(c);
+        if (oldPath == null)
+            return CompletableFuture.completedFuture(c); // withdrawn in the meantime
+
+        HostLocation sourceHostLocation = locate(c.source);
+        HostLocation destinationHostLocation = locate(c.destination);
+        if (sourceHostLocation == null || destinationHostLocation == null)
+            return evict(c, "endpoint not found");
+
+        // the bandwidth held by the connection itself is available to its new path
+        ToIntFunction<Link> available = l -> getAdmissibleBandwidth(l) + ledger.getCharged(c, l);
+        Optional<List<Link>> path = pathFinder.findPath(sourceHostLocation.deviceId(),
+                                                        destinationHostLocation.deviceId(),
+                                                        c.bandwidth,
+                                                        available,
+                                                        weight);
+
+        List<Link> newPath = null;
+        if (path.isPresent() && ledger.reroute(c, path.get()))
+            newPath = path.get();
+        else if (multipathMaxPaths > 1){
+            Optional<ConstrainedPathFinder.Split> split = pathFinder.findSplit(sourceHostLocation.deviceId(),
+                                                                               destinationHostLocation.deviceId(),
+                                                                               c.bandwidth,
+                                                                               available,
+                                                                               multipathMaxPaths);
+            if (split.isPresent() && ledger.reroute(c, split.get().links(), split.get().shares))
+                newPath = split.get().links();
+        }
+
+        if (newPath == null)
+            return evict(c, "no path with enough capacity");
+
+        ConnectionRules old = c.rules;
+        try {
+            c.rules = buildConnectionRules(c, sourceHostLocation, destinationHostLocation, newPath, old);
+        } catch (Error e){
+            return evict(c, e.getMessage());
+        }
+
+        return installRules(diffRules(old, c.rules), c.rules.getConfirmations(), Collections.singletonList(c))
+                .thenApply(v -> {
+                    releaseUnusedMeters(old, c.rules);
+                    removeUnusedGroups(old, c.rules);
+                    journalPut(c);
+                    log.info("Connection {} rerouted", c.key());
+                    return c;
+                });
+    }
+
+    /* Reroute the connections one after the other by a single provisioning task: a failure may affect more
+     * connections than the provisioning queue holds, a task each would leave the rejected ones on a broken path */
+    private void rerouteAll(Collection<Connection> affected){
+        submit(() -> {
+            List<CompletableFuture<Void>> reroutes = new ArrayList<>();
+            for (Connection c : affected){
+                CompletableFuture<Connection> r;
+                try {
+                    r = rerouteConnection(c);
+                } catch (Error | RuntimeException e){
+                    r = new CompletableFuture<>();
+                    r.completeExceptionally(e);
+                }
+
+                reroutes.add(r.handle((v, e) -> {
+                    if (e != null)
+                        log.warn("Unable to reroute connection {}: {}", c.key(), unwrap(e).getMessage());
+                    return null;
+                }));
+            }
+            return CompletableFuture.allOf(reroutes.toArray(new CompletableFuture<?>[0]));
+        }).whenComplete((v, e) -> {
+            if (e != null)
+                log.warn("Unable to reroute {} connection(s): {}", affected.size(), e.getMessage());
+        });
+    }
+
+    /* Withdraw a connection that cannot be kept */
+    private CompletableFuture<Connection> evict(Connection c, String reason){
+        if (ledger.release(c) == null)
+            return CompletableFuture.completedFuture(c);
+
+        journalRemove(c);
+        log.warn("Withdrawing connection {}: {}", c.key(), reason);
+        return removeRules(c).thenApply(v -> c);
+    }
+
+    /* Operations turning the old rules of a connection into the new ones: hops with a different output are modified,
+     * new hops added and, in a following stage, the hops no longer traversed removed. The shared rules of the old
+     * ones are released, and removed if no other connection uses them */
+    private FlowRuleOperations.Builder diffRules(ConnectionRules old, ConnectionRules updated){
+        // rules are equal when they have the same device and match
+        Map<FlowRule, FlowRule> previous = new HashMap<>();
+        old.getFlowRules().forEach(r -> previous.put(r, r));
+
+        FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+        for (FlowRule r : updated.getFlowRules()){
+            FlowRule o = previous.remove(r);
+            if (o == null)
+                ops.add(r);
+            else if (!o.exactMatch(r))
+                ops.modify(r);
+        }
+
+        ops.newStage();
+        List<FlowRule> shared = old.takeSharedRules();
+        for (FlowRule r : previous.keySet())
+            if (!shared.contains(r))
+                ops.remove(r);
+        for (FlowRule r : shared)
+            if (transitRules.release(r))
+                ops.remove(r);
+        return ops;
+    }
+
+    /* Give back to the pool the meters of the old rules that the new rules do not use */
+    private void releaseUnusedMeters(ConnectionRules old, ConnectionRules updated){
+        Set<ImmutablePair<DeviceId, MeterId>> used = new HashSet<>(updated.getMeters());
+        for (ImmutablePair<DeviceId, MeterId> p : old.getMeters())
+            if (!used.contains(p))
+                meterPool.release(p.left, p.right);
+    }
+
+    /* Remove from the devices the groups of the old rules that the new rules do not use */
+    private void removeUnusedGroups(ConnectionRules old, ConnectionRules updated){
+        Set<ImmutablePair<DeviceId, GroupKey>> used = new HashSet<>(updated.getGroups());
+        for (ImmutablePair<DeviceId, GroupKey> g : old.getGroups())
+            if (!used.contains(g)){
+                groupService.removeGroup(g.left, g.right, appId);
+                groupIds.release(g.left, g.right);
+            }
+    }
+
+    /* Current location of the host with the specified address, or null */
+    private HostLocation locate(IpPrefix prefix){
+        HostResolutionCache.Attachment a = hostCache.get(prefix.address());
+        return a == null ? null : a.location;
+    }
+
+    /* Prefix and location of the host, throws Error if it is unknown or has no address */
+    private HostResolutionCache.Attachment resolve(HostId host) throws Error{
+        HostResolutionCache.Attachment a = hostCache.get(host);
+        if (a == null)
+            throw new Error("Unknown host " + host + "! :(");
+        return a;
+    }
+
+    /* Unregister a connection, free its bandwidth and remove its meters and rules */
+    private CompletableFuture<Connection> withdrawConnection(HostId from, HostId to) throws Error{
+        return withdrawConnection(resolve(from).prefix, resolve(to).prefix);
+    }
+
+    private CompletableFuture<Connection> withdrawConnection(IpPrefix sourcePrefix, IpPrefix destPrefix) throws Error{
+        Connection c = ledger.getRegistry().get(sourcePrefix, destPrefix);
+
+        // installed by another instance, taken over if that instance is gone
+        if (c == null && reservationStore != null){
+            DistributedReservationStore.Record r = reservationStore.getRecord(new ConnectionKey(sourcePrefix, destPrefix));
+            if (r != null && !reservationStore.isLocal(r)){
+                if (isActive(r.owner))
+                    throw new Error("The connection " + sourcePrefix + " -> " + destPrefix + " is owned by instance " + r.owner + ", withdraw it there! :(");
+                c = takeOver(r);
+            }
+        }
+
+        // free allocated bandwidth, only one of concurrent withdraws of the same connection gets its path
+        if (c == null || ledger.release(c) == null)
             throw new Error("No connection found between " + sourcePrefix.toString() + " -> " + destPrefix.toString() + " ! :(");
+        journalRemove(c);
 
+        Connection withdrawn = c;
+        return removeRules(withdrawn).thenApply(v -> withdrawn);
+    }
 
-        ArrayList<ImmutablePair<DeviceId, MeterId>>  meters = new ArrayList<>();
+    /* Push a batch of rules once the meters they reference are confirmed. If a meter or the batch fails
+     * the connections it implements are rolled back */
+    private CompletableFuture<Void> installRules(FlowRuleOperations.Builder ops, List<CompletableFuture<Void>> meters,
+                                                 Collection<Connection> batch){
+        final long start = System.nanoTime();
+
+        // the groups are submitted only now, with the rules using them
+        batch.forEach(c -> submitGroups(c.rules));
+
+        return CompletableFuture.allOf(meters.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((v, e) -> {
+                    if (e != null){
+                        log.warn("Failed to install meters of {} connection(s), rolling back", batch.size());
+                        batch.forEach(this::rollback);
+                    }
+                })
+                .thenCompose(v -> applyRules(ops, batch))
+                .whenComplete((v, e) -> ResourceMonitoringMetrics.record(metrics.install, start));
+    }
 
-        for (FlowRule f : flowRules){
-            if (isSelectorOfConnection(f.selector(), connection.get())) {
-                // save the meter id associated with this flow rule
-                f.treatment().meters().forEach(m -> meters.add(new ImmutablePair<>(f.deviceId(), m.meterId())));
+    /* Push a batch of rules to the devices. If the batch fails the connections it implements are rolled back */
+    private CompletableFuture<Void> applyRules(FlowRuleOperations.Builder ops, Collection<Connection> batch){
+        CompletableFuture<Void> result = new CompletableFuture<>();
+
+        apply(ops.build(new FlowRuleOperationsContext() {
+            @Override
+            public void onSuccess(FlowRuleOperations operations){
+                for (Set<FlowRuleOperation> stage : operations.stages())
+                    metrics.rulesPushed.inc(stage.size());
+                log.debug("Installed rules of {} connection(s)", batch.size());
+                result.complete(null);
+            }
 
-                flowRuleService.removeFlowRules(f);
+            @Override
+            public void onError(FlowRuleOperations operations){
+                log.warn("Failed to install rules of {} connection(s), rolling back", batch.size());
+                batch.forEach(ResourceMonitoringService.this::rollback);
+                result.completeExceptionally(new Error("Failed to install the rules on the devices! :("));
             }
+        }));
+
+        return result;
+    }
+
+    /* Apply operations on the rules of the connections. The rules they remove are tagged first,
+     * so that the reconciler does not take their removal for a drift */
+    private void apply(FlowRuleOperations operations){
+        reconciler.expectRemovals(operations);
+        flowRuleService.apply(operations);
+    }
+
+    /* Undo a partially installed connection: free its bandwidth and remove whatever was pushed for it */
+    private void rollback(Connection c){
+        metrics.rollbacks.inc();
+        ledger.release(c);
+        journalRemove(c);
+        removeRules(c);
+    }
+
+    /* Rules that the established connections need on the device */
+    private Collection<FlowRule> expectedRules(DeviceId device){
+        // shared rules are expected once
+        Set<FlowRule> rules = new LinkedHashSet<>();
+        for (Connection c : ledger.getRegistry().getConnectionsOnDevice(device))
+            for (FlowRule r : c.rules.getFlowRules())
+                if (r.deviceId().equals(device))
+                    rules.add(r);
+        return rules;
+    }
+
+    /* Record the current path and meters of an established connection, in the journal if persistence is enabled
+     * and in the cluster if the reservations are shared */
+    private void journalPut(Connection c){
+        if (reservationStore != null)
+            reservationStore.update(c);
+
+        List<Link> path = ledger.getRegistry().getPath(c);
+        try {
+            if (journal != null && path != null)
+                journal.put(c, path);
+        } catch (UncheckedIOException e){
+            log.warn("Cannot journal connection {}: {}", c.key(), e.getMessage());
         }
+    }
 
-        for (ImmutablePair<DeviceId, MeterId> p : meters){
-            Meter m = meterService.getMeter(p.left, p.right);
-            meterStore.deleteMeterNow(m);
+    /* Record the current state of a booking, if persistence is enabled */
+    private void journalBook(Booking b){
+        try {
+            if (journal != null)
+                journal.book(b);
+        } catch (UncheckedIOException e){
+            log.warn("Cannot journal booking {}: {}", b.key(), e.getMessage());
         }
+    }
 
-        // free allocated bandwidth
-        for(Link l : connections.get(connection.get())) {
-            DeallocateBandwidth(l, connection.get().bandwidth);
-            DeallocateBandwidth(getOppositeLink(l), connection.get().bandwidth);
+    /* Record the end of a booking, if persistence is enabled */
+    private void journalUnbook(Booking b){
+        try {
+            if (journal != null)
+                journal.unbook(b);
+        } catch (UncheckedIOException e){
+            log.warn("Cannot journal the end of booking {}: {}", b.key(), e.getMessage());
         }
+    }
 
-        connections.remove(connection.get());
+    /* Record the withdraw of a connection, if persistence is enabled */
+    private void journalRemove(Connection c){
+        try {
+            if (journal != null)
+                journal.remove(c);
+        } catch (UncheckedIOException e){
+            log.warn("Cannot journal the withdraw of connection {}: {}", c.key(), e.getMessage());
+        }
     }
 
-    /* check if the traffic selector t is the one that implements Connection c */
-    private boolean isSelectorOfConnection(TrafficSelector t, Connection c){
-        // To make the verification the Criterion is converted to string, trimmed from the pointless part and then compared */
-        return ((t.getCriterion(Criterion.Type.IPV4_SRC).toString().substring(9).equals(c.source.toString()) &&
-                t.getCriterion(Criterion.Type.IPV4_DST).toString().substring(9).equals(c.destination.toString())) || (
-                t.getCriterion(Criterion.Type.IPV4_SRC).toString().substring(9).equals(c.destination.toString()) &&
-                t.getCriterion(Criterion.Type.IPV4_DST).toString().substring(9).equals(c.source.toString())
-                ));
+    /* Remove in a single batch exactly the rules pushed at install time, then the meters they referenced */
+    private CompletableFuture<Void> removeRules(Connection c){
+        CompletableFuture<Void> result = new CompletableFuture<>();
+
+        FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+        c.rules.getOwnRules().forEach(ops::remove);
+        for (FlowRule r : c.rules.takeSharedRules())
+            if (transitRules.release(r))
+                ops.remove(r);
+        apply(ops.build(new FlowRuleOperationsContext() {
+            @Override
+            public void onSuccess(FlowRuleOperations operations){
+                deleteMeters(c);
+                deleteGroups(c);
+                result.complete(null);
+            }
+
+            @Override
+            public void onError(FlowRuleOperations operations){
+                deleteMeters(c);
+                deleteGroups(c);
+                result.completeExceptionally(new Error("Failed to remove the rules from the devices! :("));
+            }
+        }));
+
+        return result;
     }
 
-    /* Predicate to filter paths that have at least the specified bandwidth */
-    private Predicate<Path> hasEnoughResource(final int bandwidth) {
-        return p -> {
-            for (Link l : p.links())
-                if (this.availableBandwidth.containsKey(l) && this.availableBandwidth.get(l) < bandwidth)
-                    return false;
+    /* Forget every connection at once and remove their rules, groups and meters from the devices.
+     * Groups and meters are deleted once the devices confirmed the removal of the rules using them,
+     * the meters of each device by a separate task of an executor that is shut down before returning */
+    private void teardown(){
+        final long start = System.nanoTime();
+
+        Collection<Connection> connections = ledger.releaseAll();
+        transitRules.clear();
+
+        // a single batch of removals
+        FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+        Set<FlowRule> removed = new HashSet<>();
+        if (distributedReservations){
+            // the other instances of the cluster install rules of this application too, only ours are removed
+            for (Connection c : connections)
+                for (FlowRule r : c.rules.getFlowRules())
+                    if (removed.add(r))
+                        ops.remove(r);
+        } else {
+            // including the rules no connection knows about
+            for (FlowEntry fe : flowRuleService.getFlowEntriesById(appId))
+                if (removed.add(fe))
+                    ops.remove(fe);
+        }
+
+        CompletableFuture<Void> rules = new CompletableFuture<>();
+        apply(ops.build(new FlowRuleOperationsContext() {
+            @Override
+            public void onSuccess(FlowRuleOperations operations){
+                rules.complete(null);
+            }
+
+            @Override
+            public void onError(FlowRuleOperations operations){
+                rules.completeExceptionally(new Error("Failed to remove the rules from the devices! :("));
+            }
+        }));
+
+        ExecutorService purgeExecutor = Executors.newFixedThreadPool(PURGE_THREADS, groupedThreads("onos/rs", "purge-%d", log));
+
+        // meters and groups are deleted even if some rules could not be removed
+        CompletableFuture<Void> done = rules.exceptionally(e -> {
+                    log.warn("Failed to remove some rules: {}", e.getMessage());
+                    return null;
+                })
+                .thenRun(() -> connections.forEach(this::deleteGroups))
+                .thenCompose(v -> meterPool.purge(purgeExecutor));
+
+        try {
+            await(done);
+            log.info("Removed {} connection(s) in {} ms", connections.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (Error e){
+            log.warn("Removed {} connection(s), some meters or groups may be left on the devices: {}", connections.size(), e.getMessage());
+        }
 
-            return true;
-        };
+        // no deletion may run once the application is stopped
+        purgeExecutor.shutdown();
+        try {
+            if (!purgeExecutor.awaitTermination(SYNC_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                purgeExecutor.shutdownNow();
+        } catch (InterruptedException e){
+            purgeExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
     }
 
-    /* Comparator to sort Paths */
-    private Comparator<Path> shorterPath(){
-        return (p1, p2) -> p1.links().size() - p2.links().size();
+    /* Give back to the pool the meters used by the connection */
+    private void deleteMeters(Connection c){
+        for (ImmutablePair<DeviceId, MeterId> p : c.rules.getMeters())
+            meterPool.release(p.left, p.right);
     }
 
-    /* Allocate bandwidth (in the local Link Status data structure) for the specified link */
-    private void AllocateBandwidth(Link l, int bandwidth){
-        if (availableBandwidth.containsKey(l))
-            availableBandwidth.merge(l, (-bandwidth), Integer::sum);
-        else
-            availableBandwidth.put(l, (LINK_CAPACITY - bandwidth));
+    /* Remove from the devices the groups used by the connection */
+    private void deleteGroups(Connection c){
+        for (ImmutablePair<DeviceId, GroupKey> g : c.rules.getGroups()){
+            groupService.removeGroup(g.left, g.right, appId);
+            groupIds.release(g.left, g.right);
+        }
+    }
+
+    /* Wait for the outcome of an asynchronous operation, failures are rethrown as Error */
+    private <T> T await(CompletableFuture<T> future) throws Error{
+        try {
+            return future.get(SYNC_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e){
+            throw asError(e.getCause());
+        } catch (TimeoutException e){
+            throw new Error("Timed out waiting for the devices! :(");
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new Error("Interrupted while waiting for the devices! :(");
+        }
     }
 
-    /* Free allocated bandwidth (in the local Link Status data structure)  for the specified link */
-    private void DeallocateBandwidth(Link l, int bandwidth){
-        availableBandwidth.merge(l, bandwidth, Integer::sum);
+    /* Strip the CompletionException wrapping added by the future chain */
+    private static Throwable unwrap(Throwable t){
+        return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+    }
+
+    /* Failures are reported as Error to the callers, like the rest of the API */
+    private static Error asError(Throwable t){
+        Throwable cause = unwrap(t);
+        return cause instanceof Error ? (Error) cause : new Error(cause.getMessage(), cause);
     }
 
     /* This method install rules on intermediate switches
     * Band is set to -1 to not install meters */
-    private void installDuplexRule(DeviceId device, PortNumber a, PortNumber b, IpPrefix ip_a, IpPrefix ip_b){
-        installRule(device, a, b, ip_a, ip_b, -1);
-        installRule(device, b, a, ip_b, ip_a, -1);
+    private void buildDuplexRule(ConnectionRules rules, DeviceId device, PortNumber a, PortNumber b, IpPrefix ip_a, IpPrefix ip_b){
+        if (aggregateTransitRules){
+            buildTransitRule(rules, device, a, b, ip_a, ip_b);
+            buildTransitRule(rules, device, b, a, ip_b, ip_a);
+            return;
+        }
+        buildRule(rules, null, device, a, b, ip_a, ip_b, -1);
+        buildRule(rules, null, device, b, a, ip_b, ip_a, -1);
+    }
+
+    /* Use the shared rule forwarding towards the destination, or an exact rule if the shared one goes elsewhere */
+    private void buildTransitRule(ConnectionRules rules, DeviceId device, PortNumber incomingPort, PortNumber outgoingPort,
+                                  IpPrefix srcPrefix, IpPrefix destPrefix){
+        FlowRule shared = TransitRuleTable.buildRule(appId, TRANSIT_RULE_PRIORITY, device, incomingPort, outgoingPort, destPrefix);
+        if (transitRules.acquire(shared))
+            rules.addSharedRule(shared);
+        else
+            buildRule(rules, null, device, incomingPort, outgoingPort, srcPrefix, destPrefix, -1);
     }
 
-    /* Create and install a single rule to the specified device with specified parameters */
-    private void installRule(DeviceId device, PortNumber incomingPort, PortNumber outgoingPort, IpPrefix srcPrefix, IpPrefix destPrefix, int bandwidth){
+    /* Create a single rule for the specified device with specified parameters and record it in the rules of the connection */
+    private void buildRule(ConnectionRules rules, ConnectionRules previous, DeviceId device, PortNumber incomingPort, PortNumber outgoingPort, IpPrefix srcPrefix, IpPrefix destPrefix, int bandwidth){
+        buildRule(rules, previous, device, incomingPort, DefaultTrafficTreatment.builder().setOutput(outgoingPort),
+                  srcPrefix, destPrefix, bandwidth);
+    }
+
+    /* Create a single rule forwarding with the specified treatment, e.g. to a group */
+    private void buildRule(ConnectionRules rules, ConnectionRules previous, DeviceId device, PortNumber incomingPort,
+                           TrafficTreatment.Builder treatmentBuilder, IpPrefix srcPrefix, IpPrefix destPrefix, int bandwidth){
         // Selector
         TrafficSelector selector = DefaultTrafficSelector.builder()
                 .matchInPort(incomingPort)
@@ -322,76 +1848,209 @@ public class ResourceMonitoringService {
                 .matchIPDst(destPrefix)
                 .build();
 
-        // Treatment builder
-        TrafficTreatment.Builder treatmentBuilder = DefaultTrafficTreatment.builder()
-                .setOutput(outgoingPort);
-
         // if the bandwidth is set greater than 0 install meter, otherwise do not install meter
-        if (bandwidth > 0)
-            treatmentBuilder.meter(this.createMeter(device, bandwidth).id());
+        if (bandwidth > 0) {
+            CompletableFuture<Void> confirmed = new CompletableFuture<>();
+            MeterId meterId = previous == null ? null : previous.getMeter(device);
+            if (meterId != null)
+                confirmed.complete(null); // already on the device
+            else
+                meterId = meterPool.acquire(device, bandwidth * 1000, confirmed);
+
+            rules.addMeter(device, meterId, confirmed);
+            treatmentBuilder.meter(meterId);
+        }
 
         TrafficTreatment treatment = treatmentBuilder.build();
 
-        // Forward Objective
-        ForwardingObjective forwardingObjective = DefaultForwardingObjective.builder()
+        // Flow Rule
+        FlowRule rule = DefaultFlowRule.builder()
+                .forDevice(device)
                 .withSelector(selector)
                 .withTreatment(treatment)
-                .withPriority(10)
-                .withFlag(ForwardingObjective.Flag.VERSATILE)
+                .withPriority(rules.getPriority())
                 .fromApp(appId)
                 .makePermanent()
-                .add();
-
-
-        // push the Forward Objective to the device
-        flowObjectiveService.forward(device, forwardingObjective);
-
-    }
-
-    /* Create and submit to the specified device a meter with specified bandwidth */
-    private Meter createMeter(DeviceId device, int bandwidth){
-        // Define the Band object
-        Band b = DefaultBand.builder()
-                            .ofType(Band.Type.DROP)
-                            .withRate(bandwidth * 1000)
-                            .burstSize(0)
-                            .build();
+                .build();
 
-        // Create a Meter Request
-        MeterRequest m =  DefaultMeterRequest.builder()
-                .forDevice(device)
-                .fromApp(this.appId)
-                .withBands(Collections.singleton(b))
-                .withUnit(Meter.Unit.KB_PER_SEC)
-                .burst()
-                .add();
-        // Retrieve the instantiated meter
-        Meter meter = meterService.submit(m);
-        return meter;
-    }
+        if (bandwidth > 0)
+            rules.addIngressRule(rule);
+        else
+            rules.addFlowRule(rule);
 
-    /* Predicate to filter connections by source and destination IpPrefixes (or opposite order) */
-    private Predicate<Connection> hasEndpoints(IpPrefix a, IpPrefix b){
-        return c -> (c.destination.equals(b) && c.source.equals(a)) || (c.destination.equals(a) && c.source.equals(b));
     }
 
     /* Check if a connection between two ipPrefix is already established in the system */
     private boolean isAlreadyInstalled(IpPrefix a, IpPrefix b){
-        return connections.keySet()
-                          .stream()
-                          .filter(hasEndpoints(a, b))
-                          .count() == 1;
+        return ledger.getRegistry().get(a, b) != null;
     }
 
+    /* Meter pool getter, for its metrics */
+    public MeterPool getMeterPool(){return this.meterPool;}
+
+    /* Shared transit rules getter, for the rule count report */
+    public TransitRuleTable getTransitRules(){return this.transitRules;}
+
+    /* Provisioning metrics getter */
+    public ResourceMonitoringMetrics getMetrics(){return this.metrics;}
+
     /* Link status data structure getter */
-    public Map<Link, Integer> getLinksStatus(){return this.availableBandwidth;}
+    public Map<Link, Integer> getLinksStatus(){return this.ledger.getLinksStatus(linkService.getLinks());}
 
     /* Established connections data structure getter */
-    public Map<Connection, List<Link>> getConnections(){return this.connections;}
+    public Map<Connection, List<Link>> getConnections(){return this.ledger.getConnections();}
+
+    /* Consistent view of the established connections and of their reservations */
+    public ReservationSnapshot getSnapshot(){return this.ledger.getSnapshot();}
+
+    /* Bandwidth of the link not reserved by any connection */
+    public int getAvailableBandwidth(Link l){return this.ledger.getAvailableBandwidth(l);}
+
+    /* Bandwidth of the link that a connection established now can take: it will last beyond any booking,
+     * so what is booked from now on is kept aside */
+    private int getAdmissibleBandwidth(Link l){
+        return ledger.getAvailableBandwidth(l) - calendar.getBooked(l, System.currentTimeMillis(), Long.MAX_VALUE);
+    }
 
     /* Given a Link object, return a Link object of the opposite direction */
     private Link getOppositeLink(Link l){
         return linkService.getLink(l.dst(), l.src());
     }
 
+    /* A provisioning step run on the executor, it may complete later when the devices answer */
+    private interface ProvisioningTask<T> {
+        CompletableFuture<T> run() throws Error;
+    }
+
+    /* Rebuild the adjacency snapshot of the path search whenever the set of links changes */
+    private class InternalLinkListener implements LinkListener {
+        @Override
+        public void event(LinkEvent event){
+            if (event.type() != LinkEvent.Type.LINK_REMOVED)
+                updateCapacity(event.subject());
+
+            pathFinder.rebuild(linkService.getActiveLinks());
+
+            // connections over a link gone down are rerouted, a device leaving removes its links too
+            if (event.type() == LinkEvent.Type.LINK_REMOVED || event.subject().state() == Link.State.INACTIVE)
+                failureAccumulator.add(event.subject());
+        }
+    }
+
+    /* Coalesce link failures and reroute only the connections traversing the failed links, in a single pass */
+    private class LinkFailureAccumulator extends AbstractAccumulator<Link> {
+        LinkFailureAccumulator(){
+            super(SharedExecutors.getTimer(), REROUTE_MAX_EVENTS, REROUTE_MAX_BATCH_MS, REROUTE_MAX_IDLE_MS);
+        }
+
+        @Override
+        public void processItems(List<Link> links){
+            Set<Connection> affected = new HashSet<>();
+            for (Link l : links){
+                affected.addAll(ledger.getRegistry().getConnectionsOnLink(LinkKey.linkKey(l)));
+                affected.addAll(ledger.getRegistry().getConnectionsOnLink(LinkKey.linkKey(l.dst(), l.src())));
+            }
+
+            if (affected.isEmpty())
+                return;
+
+            log.info("Rerouting {} connection(s) affected by {} link failure(s)", affected.size(), links.size());
+            rerouteAll(affected);
+        }
+    }
+
+    /* Update the capacity of the links attached to a port whose speed may have changed,
+     * and check again the rules of the devices coming back */
+    private class InternalDeviceListener implements DeviceListener {
+        @Override
+        public void event(DeviceEvent event){
+            // a device coming back may have lost its rules
+            if ((event.type() == DeviceEvent.Type.DEVICE_ADDED || event.type() == DeviceEvent.Type.DEVICE_AVAILABILITY_CHANGED) &&
+                deviceService.isAvailable(event.subject().id()))
+                reconciler.markDirty(event.subject().id());
+
+            if (event.port() == null || (event.type() != DeviceEvent.Type.PORT_ADDED && event.type() != DeviceEvent.Type.PORT_UPDATED))
+                return;
+
+            ConnectPoint cp = new ConnectPoint(event.subject().id(), event.port().number());
+            for (Link l : linkService.getLinks(cp))
+                updateCapacity(l);
+        }
+    }
+
+    /* Mark for reconciliation the devices where a rule of this application disappeared */
+    private class InternalFlowRuleListener implements FlowRuleListener {
+        @Override
+        public void event(FlowRuleEvent event){
+            if (event.type() == FlowRuleEvent.Type.RULE_REMOVED && event.subject().appId() == appId.id())
+                reconciler.ruleRemoved(event.subject());
+        }
+    }
+
+    /* Take over the connections of the instances that left the cluster */
+    private class InternalClusterListener implements ClusterEventListener {
+        @Override
+        public void event(ClusterEvent event){
+            if (event.type() != ClusterEvent.Type.INSTANCE_DEACTIVATED && event.type() != ClusterEvent.Type.INSTANCE_REMOVED)
+                return;
+
+            // every instance tries, only one claims each connection
+            NodeId node = event.subject().id();
+            submit(() -> {
+                adoptOrphans(r -> r.owner.equals(node));
+                return CompletableFuture.completedFuture(null);
+            }).whenComplete((v, e) -> {
+                if (e != null)
+                    log.warn("Unable to take over the connections of instance {}: {}", node, e.getMessage());
+            });
+        }
+    }
+
+    /* Keep the host cache up to date. The connections of a host that moved are rerouted from its new location */
+    private class InternalHostListener implements HostListener {
+        @Override
+        public void event(HostEvent event){
+            Host host = event.subject();
+
+            if (event.type() == HostEvent.Type.HOST_REMOVED){
+                hostCache.remove(host.id());
+                return;
+            }
+
+            HostResolutionCache.Attachment previous = hostCache.update(host);
+            if (event.type() != HostEvent.Type.HOST_MOVED || previous == null || previous.location.equals(host.location()))
+                return;
+
+            Set<Connection> affected = ledger.getRegistry().getConnectionsOfHost(previous.prefix);
+            if (affected.isEmpty())
+                return;
+
+            log.info("Rerouting {} connection(s) of host {} moved to {}", affected.size(), host.id(), host.location());
+            rerouteAll(new ArrayList<>(affected));
+        }
+    }
+
+    /* Confirm the select groups once the devices installed them */
+    private class InternalGroupListener implements GroupListener {
+        @Override
+        public void event(GroupEvent event){
+            if (event.type() != GroupEvent.Type.GROUP_ADDED && event.type() != GroupEvent.Type.GROUP_ADD_FAILED)
+                return;
+
+            Group g = event.subject();
+            // the ids of the groups of every application are taken
+            if (event.type() == GroupEvent.Type.GROUP_ADDED)
+                groupIds.seen(g);
+
+            CompletableFuture<Void> confirmed = pendingGroups.remove(new ImmutablePair<>(g.deviceId(), g.appCookie()));
+            if (confirmed == null)
+                return;
+
+            if (event.type() == GroupEvent.Type.GROUP_ADDED)
+                confirmed.complete(null);
+            else
+                confirmed.completeExceptionally(new Error("Failed to install a group on " + g.deviceId() + "! :("));
+        }
+    }
+
 }
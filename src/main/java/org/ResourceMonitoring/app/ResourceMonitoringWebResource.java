@@ -0,0 +1,468 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.onlab.packet.IpAddress;
+import org.onosproject.net.HostId;
+import org.onosproject.net.Link;
+import org.onosproject.net.link.LinkService;
+import org.onosproject.rest.AbstractWebResource;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Resource Monitoring REST resources.
+ * Requests and listings are read and written token by token, so neither a bulk request nor a listing
+ * is ever held in memory as a JSON tree.
+ */
+@Path("")
+public class ResourceMonitoringWebResource extends AbstractWebResource {
+
+    // items of a listing when no limit is given
+    private final static int DEFAULT_LIMIT = 1000;
+
+    /* A connection as found in a bulk request, before resolving its hosts */
+    private static final class Item {
+        String source, destination, reservationClass;
+        int bandwidth;
+    }
+
+    /**
+     * Get the latency and the counters of admission, install and withdraw.
+     * Latencies are in milliseconds.
+     *
+     * @return 200 OK with the metrics
+     */
+    @GET
+    @Path("stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getStats() {
+        ResourceMonitoringService rmS = get(ResourceMonitoringService.class);
+        ObjectNode root = mapper().createObjectNode();
+
+        for (Map.Entry<String, Metric> e : rmS.getMetrics().getMetrics().entrySet()){
+            Metric m = e.getValue();
+
+            if (m instanceof Timer){
+                Snapshot s = ((Timer) m).getSnapshot();
+                root.putObject(e.getKey())
+                    .put("count", ((Timer) m).getCount())
+                    .put("mean", millis(s.getMean()))
+                    .put("median", millis(s.getMedian()))
+                    .put("p99", millis(s.get99thPercentile()))
+                    .put("max", millis(s.getMax()));
+            } else if (m instanceof Histogram){
+                Snapshot s = ((Histogram) m).getSnapshot();
+                root.putObject(e.getKey())
+                    .put("count", ((Histogram) m).getCount())
+                    .put("mean", s.getMean())
+                    .put("max", s.getMax());
+            } else if (m instanceof Counter)
+                root.put(e.getKey(), ((Counter) m).getCount());
+            else if (m instanceof Gauge)
+                root.putPOJO(e.getKey(), ((Gauge<?>) m).getValue());
+        }
+
+        return ok(root).build();
+    }
+
+    /**
+     * Establish a batch of connections.
+     * The body is {"connections": [{"source": ip, "destination": ip, "bandwidth": Mbps, "class": name}, ...]},
+     * the class is optional. The batch is admitted as a whole and its rules pushed in a single batch.
+     *
+     * @param stream the connections to establish
+     * @return 200 OK with the admitted and the rejected connections
+     */
+    @POST
+    @Path("connections")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response createConnections(InputStream stream) {
+        ResourceMonitoringService rmS = get(ResourceMonitoringService.class);
+
+        List<Demand> demands = new ArrayList<>();
+        Map<Demand, Item> requested = new IdentityHashMap<>();
+        List<ImmutablePair<Item, String>> invalid = new ArrayList<>();
+
+        for (Item i : readItems(stream, true)){
+            try {
+                HostId source = rmS.getHostId(IpAddress.valueOf(i.source));
+                HostId destination = rmS.getHostId(IpAddress.valueOf(i.destination));
+                ReservationClass reservationClass = i.reservationClass == null ? ReservationClass.BEST_EFFORT :
+                                                    ReservationClass.fromString(i.reservationClass);
+                Demand d = new Demand(source, destination, i.bandwidth, reservationClass);
+                demands.add(d);
+                requested.put(d, i);
+            } catch (IllegalArgumentException | NullPointerException e){
+                invalid.add(new ImmutablePair<>(i, "Invalid connection or unknown host"));
+            }
+        }
+
+        BatchReport report = demands.isEmpty() ? null : await(rmS.createConnectionsAsync(demands));
+
+        StreamingOutput output = out -> {
+            try (JsonGenerator g = mapper().getFactory().createGenerator(out)){
+                g.writeStartObject();
+
+                g.writeArrayFieldStart("admitted");
+                if (report != null)
+                    for (Connection c : report.getAdmitted()){
+                        g.writeStartObject();
+                        writeConnection(g, c);
+                        g.writeEndObject();
+                    }
+                g.writeEndArray();
+
+                g.writeArrayFieldStart("rejected");
+                for (ImmutablePair<Item, String> r : invalid)
+                    writeEndpoints(g, r.left, r.right);
+                if (report != null)
+                    for (ImmutablePair<Demand, String> r : report.getRejected())
+                        writeEndpoints(g, requested.get(r.left), r.right);
+                g.writeEndArray();
+
+                if (report != null)
+                    g.writeNumberField("elapsedMillis", report.getElapsedMillis());
+                g.writeEndObject();
+            }
+        };
+
+        return ok(output).build();
+    }
+
+    /**
+     * Delete a batch of connections.
+     * The body is {"connections": [{"source": ip, "destination": ip}, ...]}, the connections are withdrawn concurrently.
+     *
+     * @param stream the connections to delete
+     * @return 200 OK with the deleted connections and the ones that could not be deleted
+     */
+    @DELETE
+    @Path("connections")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response deleteConnections(InputStream stream) {
+        ResourceMonitoringService rmS = get(ResourceMonitoringService.class);
+
+        List<Item> items = readItems(stream, false);
+        List<CompletableFuture<Connection>> futures = new ArrayList<>(items.size());
+
+        for (Item i : items){
+            try {
+                HostId source = rmS.getHostId(IpAddress.valueOf(i.source));
+                HostId destination = rmS.getHostId(IpAddress.valueOf(i.destination));
+                futures.add(rmS.deleteConnectionAsync(source, destination));
+            } catch (IllegalArgumentException | NullPointerException e){
+                CompletableFuture<Connection> f = new CompletableFuture<>();
+                f.completeExceptionally(new Error("Invalid connection or unknown host"));
+                futures.add(f);
+            }
+        }
+
+        // wait for all the withdraws, then report each of them
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                             .get(ResourceMonitoringService.SYNC_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e){
+            // reported item by item
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+
+        StreamingOutput output = out -> {
+            try (JsonGenerator g = mapper().getFactory().createGenerator(out)){
+                g.writeStartObject();
+                g.writeArrayFieldStart("deleted");
+                for (int i = 0; i < items.size(); i++){
+                    CompletableFuture<Connection> f = futures.get(i);
+                    if (f.isDone() && !f.isCompletedExceptionally())
+                        writeEndpoints(g, items.get(i), null);
+                }
+                g.writeEndArray();
+
+                g.writeArrayFieldStart("failed");
+                for (int i = 0; i < items.size(); i++){
+                    CompletableFuture<Connection> f = futures.get(i);
+                    if (!f.isDone())
+                        writeEndpoints(g, items.get(i), "Timed out waiting for the devices");
+                    else if (f.isCompletedExceptionally())
+                        writeEndpoints(g, items.get(i), reason(f));
+                }
+                g.writeEndArray();
+                g.writeEndObject();
+            }
+        };
+
+        return ok(output).build();
+    }
+
+    /**
+     * Get the established connections, with their paths and their last statistics.
+     * Every request lists a consistent snapshot of the connections, in no particular order. The epoch of the
+     * snapshot changes whenever a connection is established, rerouted or deleted, so pages taken from
+     * different epochs may miss a connection or list it twice.
+     *
+     * @param offset connections to skip
+     * @param limit  maximum number of connections to list
+     * @return 200 OK with the connections
+     */
+    @GET
+    @Path("connections")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getConnections(@QueryParam("offset") @DefaultValue("0") int offset,
+                                   @QueryParam("limit") @DefaultValue("" + DEFAULT_LIMIT) int limit) {
+        ResourceMonitoringService rmS = get(ResourceMonitoringService.class);
+
+        StreamingOutput output = out -> {
+            try (JsonGenerator g = mapper().getFactory().createGenerator(out)){
+                g.writeStartObject();
+                ReservationSnapshot snapshot = rmS.getSnapshot();
+                g.writeNumberField("epoch", snapshot.epoch);
+                g.writeNumberField("total", snapshot.getConnectionCount());
+                g.writeNumberField("offset", offset);
+
+                // the snapshot is walked in place, nothing is copied
+                g.writeArrayFieldStart("connections");
+                Iterator<Map.Entry<Connection, List<Link>>> it = snapshot.getConnections().entrySet().iterator();
+                skip(it, offset);
+                for (int n = 0; n < limit && it.hasNext(); n++){
+                    Map.Entry<Connection, List<Link>> e = it.next();
+                    Connection c = e.getKey();
+
+                    g.writeStartObject();
+                    writeConnection(g, c);
+                    writePaths(g, c, e.getValue(), snapshot.getShares(c));
+
+                    ConnectionStatsCollector.ConnectionStats s = rmS.getConnectionStats(c);
+                    if (s != null){
+                        g.writeArrayFieldStart("rate");
+                        g.writeNumber(s.rate[ConnectionStatsCollector.FORWARD]);
+                        g.writeNumber(s.rate[ConnectionStatsCollector.REVERSE]);
+                        g.writeEndArray();
+                        g.writeArrayFieldStart("dropRatio");
+                        g.writeNumber(s.dropRatio[ConnectionStatsCollector.FORWARD]);
+                        g.writeNumber(s.dropRatio[ConnectionStatsCollector.REVERSE]);
+                        g.writeEndArray();
+                    }
+                    g.writeEndObject();
+                }
+                g.writeEndArray();
+                g.writeEndObject();
+            }
+        };
+
+        return ok(output).build();
+    }
+
+    /**
+     * Get the capacity, the available bandwidth and the measured rate of the active links.
+     * Bandwidths are in Mbps.
+     *
+     * @param offset links to skip
+     * @param limit  maximum number of links to list
+     * @return 200 OK with the links
+     */
+    @GET
+    @Path("links")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getLinks(@QueryParam("offset") @DefaultValue("0") int offset,
+                             @QueryParam("limit") @DefaultValue("" + DEFAULT_LIMIT) int limit) {
+        ResourceMonitoringService rmS = get(ResourceMonitoringService.class);
+        LinkService linkService = get(LinkService.class);
+        LinkUtilizationMonitor monitor = rmS.getUtilizationMonitor();
+
+        StreamingOutput output = out -> {
+            try (JsonGenerator g = mapper().getFactory().createGenerator(out)){
+                g.writeStartObject();
+                g.writeNumberField("offset", offset);
+
+                g.writeArrayFieldStart("links");
+                Iterator<Link> it = linkService.getActiveLinks().iterator();
+                skip(it, offset);
+                for (int n = 0; n < limit && it.hasNext(); n++){
+                    Link l = it.next();
+                    g.writeStartObject();
+                    g.writeStringField("src", l.src().toString());
+                    g.writeStringField("dst", l.dst().toString());
+                    g.writeNumberField("capacity", rmS.getLinkCapacity(l));
+                    g.writeNumberField("available", rmS.getAvailableBandwidth(l));
+                    g.writeNumberField("measured", monitor.getRate(l) / 1000.0);
+                    g.writeNumberField("average", monitor.getAverageRate(l) / 1000.0);
+                    g.writeEndObject();
+                }
+                g.writeEndArray();
+                g.writeEndObject();
+            }
+        };
+
+        return ok(output).build();
+    }
+
+    /* Parse the connections of a bulk request, the bandwidth is required only when creating */
+    private List<Item> readItems(InputStream stream, boolean bandwidth){
+        List<Item> items = new ArrayList<>();
+
+        try (JsonParser p = mapper().getFactory().createParser(stream)){
+            if (p.nextToken() != JsonToken.START_OBJECT)
+                throw new IllegalArgumentException("Expected an object");
+
+            while (p.nextToken() == JsonToken.FIELD_NAME){
+                if (!"connections".equals(p.getCurrentName())){
+                    p.nextToken();
+                    p.skipChildren();
+                    continue;
+                }
+
+                if (p.nextToken() != JsonToken.START_ARRAY)
+                    throw new IllegalArgumentException("Expected an array of connections");
+
+                while (p.nextToken() == JsonToken.START_OBJECT){
+                    Item i = new Item();
+                    while (p.nextToken() == JsonToken.FIELD_NAME){
+                        String field = p.getCurrentName();
+                        p.nextToken();
+                        switch (field){
+                            case "source":
+                                i.source = p.getValueAsString();
+                                break;
+                            case "destination":
+                                i.destination = p.getValueAsString();
+                                break;
+                            case "bandwidth":
+                                i.bandwidth = p.getValueAsInt(-1);
+                                break;
+                            case "class":
+                                i.reservationClass = p.getValueAsString();
+                                break;
+                            default:
+                                p.skipChildren();
+                        }
+                    }
+
+                    if (i.source == null || i.destination == null || (bandwidth && i.bandwidth <= 0))
+                        throw new IllegalArgumentException("Every connection needs a source, a destination and a bandwidth");
+                    items.add(i);
+                }
+            }
+        } catch (IOException e){
+            throw new IllegalArgumentException("Malformed request: " + e.getMessage(), e);
+        }
+
+        return items;
+    }
+
+    private static void writeConnection(JsonGenerator g, Connection c) throws IOException{
+        g.writeNumberField("id", c.id);
+        g.writeStringField("source", c.source.address().toString());
+        g.writeStringField("destination", c.destination.address().toString());
+        g.writeNumberField("bandwidth", c.bandwidth);
+        g.writeStringField("class", c.reservationClass.toString());
+    }
+
+    /* The devices crossed by each path of the connection, with the bandwidth it carries */
+    private static void writePaths(JsonGenerator g, Connection c, List<Link> path, int[] shares) throws IOException{
+        g.writeArrayFieldStart("paths");
+        if (!path.isEmpty()){
+            List<List<Link>> paths = ConstrainedPathFinder.subpaths(path);
+            for (int i = 0; i < paths.size(); i++){
+                g.writeStartObject();
+                g.writeNumberField("bandwidth", shares == null ? c.bandwidth : shares[i]);
+                g.writeArrayFieldStart("devices");
+                g.writeString(paths.get(i).get(0).src().deviceId().toString());
+                for (Link l : paths.get(i))
+                    g.writeString(l.dst().deviceId().toString());
+                g.writeEndArray();
+                g.writeEndObject();
+            }
+        }
+        g.writeEndArray();
+    }
+
+    private static void writeEndpoints(JsonGenerator g, Item i, String reason) throws IOException{
+        g.writeStartObject();
+        g.writeStringField("source", i.source);
+        g.writeStringField("destination", i.destination);
+        if (reason != null)
+            g.writeStringField("reason", reason);
+        g.writeEndObject();
+    }
+
+    private static void skip(Iterator<?> it, int n){
+        for (int i = 0; i < n && it.hasNext(); i++)
+            it.next();
+    }
+
+    /* Wait for the batch, failures of the whole batch are reported as 409 Conflict by the REST layer */
+    private static <T> T await(CompletableFuture<T> future){
+        try {
+            return future.get(ResourceMonitoringService.SYNC_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e){
+            throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+        } catch (TimeoutException e){
+            throw new IllegalStateException("Timed out waiting for the devices");
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the devices");
+        }
+    }
+
+    private static String reason(CompletableFuture<?> f){
+        try {
+            f.join();
+            return null;
+        } catch (CompletionException e){
+            return e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+        }
+    }
+
+    private static double millis(double nanos){
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.onosproject.cli.AbstractShellCommand;
+
+
+@Service
+@Command(scope = "RS", name = "rules",
+        description = "Get how many transit rules are saved by sharing them")
+public class RulesCmd extends AbstractShellCommand {
+
+    // Get my Resource Monitoring Service instance
+    private ResourceMonitoringService rmS = get(ResourceMonitoringService.class);
+
+    @Override
+    protected void doExecute() {
+        TransitRuleTable t = rmS.getTransitRules();
+        print("Shared transit rules: %d used by %d hops (%d rules saved), %d hops could not share a rule so far",
+              t.size(), t.getReferences(), t.getReferences() - t.size(), t.getConflicts());
+    }
+
+}
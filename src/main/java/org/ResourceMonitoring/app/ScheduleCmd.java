@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.onlab.packet.IpAddress;
+import org.onosproject.cli.AbstractShellCommand;
+import org.onosproject.net.HostId;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+
+
+@Service
+@Command(scope = "RS", name = "schedule",
+        description = "Book a connection between two hosts for a window of time")
+public class ScheduleCmd extends AbstractShellCommand {
+
+    // Get my Resource Monitoring Service instance
+    private ResourceMonitoringService rmS = get(ResourceMonitoringService.class);
+
+    @Argument(index = 0, name = "source", description = "Host ID of source",
+            required = true, multiValued = false)
+    private String source = null;
+
+    @Argument(index = 1, name = "destination", description = "Host ID of destination",
+            required = true, multiValued = false)
+    private String destination = null;
+
+    @Argument(index = 2, name = "bandwidth", description = "Capacity of the link in terms of bandwidth (Mbps)",
+            required = true, multiValued = false)
+    private String bandwidth = null;
+
+    @Argument(index = 3, name = "start", description = "Start as +seconds from now or as local date-time, e.g. 2020-06-01T10:00",
+            required = true, multiValued = false)
+    private String start = null;
+
+    @Argument(index = 4, name = "end", description = "End as +seconds from now or as local date-time",
+            required = true, multiValued = false)
+    private String end = null;
+
+    @Argument(index = 5, name = "class", description = "Reservation class: best-effort (default), standard or critical",
+            required = false, multiValued = false)
+    private String reservationClass = null;
+
+    @Override
+    protected void doExecute() {
+
+        // Parsing of the input parameters, each error names the argument
+        int capacity;
+        try {
+            capacity = Integer.parseInt(bandwidth);
+        } catch (NumberFormatException e){
+            error("Invalid bandwidth " + bandwidth + ", please enter the Mbps as an integer!");
+            return;
+        }
+
+        ReservationClass cls;
+        try {
+            cls = reservationClass == null ? ReservationClass.BEST_EFFORT : ReservationClass.fromString(reservationClass);
+        } catch (IllegalArgumentException e){
+            error("Unknown reservation class " + reservationClass + ", please enter best-effort, standard or critical!");
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long startTime, endTime;
+        try {
+            startTime = parseTime(start, now);
+        } catch (DateTimeParseException | NumberFormatException e){
+            error("Invalid start " + start + ", please enter +seconds or a date-time, e.g. 2020-06-01T10:00");
+            return;
+        }
+        try {
+            endTime = parseTime(end, now);
+        } catch (DateTimeParseException | NumberFormatException e){
+            error("Invalid end " + end + ", please enter +seconds or a date-time, e.g. 2020-06-01T10:00");
+            return;
+        }
+
+        IpAddress sourceIp, dstIp;
+        try {
+            sourceIp = IpAddress.valueOf(this.source);
+        } catch (IllegalArgumentException e){
+            error("Invalid source IP Address " + source + "!");
+            return;
+        }
+        try {
+            dstIp = IpAddress.valueOf(this.destination);
+        } catch (IllegalArgumentException e){
+            error("Invalid destination IP Address " + destination + "!");
+            return;
+        }
+
+        try {
+            HostId sourceId = rmS.getHostId(sourceIp);
+            HostId destinationId = rmS.getHostId(dstIp);
+
+            Booking b = rmS.scheduleConnection(sourceId, destinationId, capacity, cls, startTime, endTime);
+            print("Reservation %d booked", b.id);
+
+        } catch (Error e){
+            error(e.getMessage());
+        }
+
+    }
+
+    /* Milliseconds since the epoch of a time given as +seconds from now or as local date-time */
+    private static long parseTime(String s, long now){
+        if (s.startsWith("+"))
+            return now + Long.parseLong(s.substring(1)) * 1000;
+
+        return LocalDateTime.parse(s).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.onosproject.cli.AbstractShellCommand;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+@Service
+@Command(scope = "RS", name = "stats",
+        description = "Get the latency and the counters of admission, install and withdraw")
+public class StatsCmd extends AbstractShellCommand {
+
+    // Get my Resource Monitoring Service instance
+    private ResourceMonitoringService rmS = get(ResourceMonitoringService.class);
+
+    @Override
+    protected void doExecute() {
+        for (Map.Entry<String, Metric> e : rmS.getMetrics().getMetrics().entrySet()){
+            Metric m = e.getValue();
+
+            if (m instanceof Timer){
+                Snapshot s = ((Timer) m).getSnapshot();
+                print("%s  (Count: %d - Mean: %.3f ms - Median: %.3f ms - 99th: %.3f ms - Max: %.3f ms)", e.getKey(),
+                      ((Timer) m).getCount(), millis(s.getMean()), millis(s.getMedian()), millis(s.get99thPercentile()), millis(s.getMax()));
+            } else if (m instanceof Histogram){
+                Snapshot s = ((Histogram) m).getSnapshot();
+                print("%s  (Count: %d - Mean: %.2f - Max: %d)", e.getKey(), ((Histogram) m).getCount(), s.getMean(), s.getMax());
+            } else if (m instanceof Counter)
+                print("%s  %d", e.getKey(), ((Counter) m).getCount());
+            else if (m instanceof Gauge)
+                print("%s  %s", e.getKey(), ((Gauge<?>) m).getValue());
+        }
+    }
+
+    private static double millis(double nanos){
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timer wheel running many timeouts on a single thread.
+ * Each timeout is hashed to the slot of its deadline tick and every tick only the timeouts of one slot are visited,
+ * those due in a later round of the wheel are just counted down. Scheduling and cancelling never block the tick.
+ */
+public class TimerWheel {
+
+    /* A task due at a given time, in milliseconds since the epoch */
+    public static final class Timeout {
+        public final long deadline;
+        private final Runnable task;
+        // full turns of the wheel still to wait once in the slot
+        private long rounds;
+        private volatile boolean cancelled = false;
+
+        private Timeout(long deadline, Runnable task){
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        /* The task will not run, if it has not run yet */
+        public void cancel(){
+            cancelled = true;
+        }
+    }
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final long tickMillis;
+    private final List<List<Timeout>> slots;
+    private final ScheduledExecutorService executor;
+
+    // timeouts scheduled since the last tick, moved to their slot by the tick itself
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+
+    private ScheduledFuture<?> task;
+
+    // time of tick 0 and next tick to process, touched only by the ticking thread once started
+    private long origin;
+    private long tick;
+
+    /* A wheel of the specified number of slots, a power of two, advancing every tickMillis */
+    public TimerWheel(long tickMillis, int size, ScheduledExecutorService executor){
+        if (Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("The size of the wheel must be a power of two");
+
+        this.tickMillis = tickMillis;
+        this.executor = executor;
+        this.slots = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            slots.add(new ArrayList<>());
+    }
+
+    public synchronized void start(){
+        stop();
+        origin = System.currentTimeMillis();
+        tick = 0;
+        task = executor.scheduleAtFixedRate(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /* Stop ticking and drop every timeout */
+    public synchronized void stop(){
+        if (task != null){
+            task.cancel(false);
+            task = null;
+        }
+        pending.clear();
+        slots.forEach(List::clear);
+    }
+
+    /* Run the task at the specified time, at the next tick if the time is already past. Tasks run on the ticking
+     * thread and must be short */
+    public Timeout schedule(Runnable task, long deadline){
+        Timeout t = new Timeout(deadline, task);
+        pending.add(t);
+        return t;
+    }
+
+    /* Process every tick elapsed since the previous call */
+    private void advance(){
+        long now = (System.currentTimeMillis() - origin) / tickMillis;
+
+        for (Timeout t = pending.poll(); t != null; t = pending.poll())
+            if (!t.cancelled)
+                place(t);
+
+        for (; tick <= now; tick++)
+            expire(slots.get((int) (tick & (slots.size() - 1))));
+    }
+
+    /* Put the timeout in the slot of its deadline */
+    private void place(Timeout t){
+        long due = Math.max(tick, (t.deadline - origin + tickMillis - 1) / tickMillis);
+        t.rounds = (due - tick) / slots.size();
+        slots.get((int) (due & (slots.size() - 1))).add(t);
+    }
+
+    /* Run the timeouts of the slot due in this round */
+    private void expire(List<Timeout> slot){
+        for (Iterator<Timeout> it = slot.iterator(); it.hasNext(); ){
+            Timeout t = it.next();
+            if (t.cancelled)
+                it.remove();
+            else if (t.rounds > 0)
+                t.rounds--;
+            else {
+                it.remove();
+                try {
+                    t.task.run();
+                } catch (RuntimeException e){
+                    log.warn("Timer task failed", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IpPrefix;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reference counted forwarding rules shared by the connections on the transit switches.
+ * A shared rule matches only the ingress port and the destination, so the connections towards the same destination
+ * entering a switch from the same port use a single entry as long as they leave from the same port.
+ * A rule is removed from the device only when its last connection is withdrawn.
+ * The references are counted by this instance only, so the table cannot be used when the instances of a cluster
+ * share the reservations: an instance would remove rules still used by the connections of the others.
+ */
+public class TransitRuleTable {
+
+    /* A shared rule and the number of connections using it */
+    private static final class Entry {
+        final FlowRule rule;
+        int references = 1;
+
+        Entry(FlowRule rule){
+            this.rule = rule;
+        }
+    }
+
+    // rules are equal when they have the same device, priority and match
+    private final Map<FlowRule, Entry> entries = new HashMap<>();
+
+    private int references = 0;
+
+    // hops that could not share a rule because another one forwards the same match elsewhere
+    private long conflicts = 0;
+
+    /* Shared rule forwarding to the output port the traffic towards the destination entering from the input port */
+    public static FlowRule buildRule(ApplicationId appId, int priority, DeviceId device, PortNumber incomingPort,
+                                     PortNumber outgoingPort, IpPrefix destPrefix){
+        return DefaultFlowRule.builder()
+                .forDevice(device)
+                .withSelector(DefaultTrafficSelector.builder()
+                                      .matchInPort(incomingPort)
+                                      .matchEthType(Ethernet.TYPE_IPV4)
+                                      .matchIPDst(destPrefix)
+                                      .build())
+                .withTreatment(DefaultTrafficTreatment.builder().setOutput(outgoingPort).build())
+                .withPriority(priority)
+                .fromApp(appId)
+                .makePermanent()
+                .build();
+    }
+
+    /* Take a reference on the rule, adding it to the table if it is new.
+     * Return false if the table already has a rule with the same match and a different output */
+    public synchronized boolean acquire(FlowRule rule){
+        Entry e = entries.get(rule);
+        if (e == null)
+            entries.put(rule, new Entry(rule));
+        else if (!e.rule.treatment().equals(rule.treatment())){
+            conflicts++;
+            return false;
+        } else
+            e.references++;
+
+        references++;
+        return true;
+    }
+
+    /* Drop a reference to the rule. Return true if it was the last one and the rule must be removed from the device */
+    public synchronized boolean release(FlowRule rule){
+        Entry e = entries.get(rule);
+        if (e == null)
+            return false;
+
+        references--;
+        if (--e.references > 0)
+            return false;
+
+        entries.remove(rule);
+        return true;
+    }
+
+    /* Shared rules in the table */
+    public synchronized int size(){
+        return entries.size();
+    }
+
+    /* Rules the connections would need without sharing */
+    public synchronized int getReferences(){
+        return references;
+    }
+
+    public synchronized long getConflicts(){
+        return conflicts;
+    }
+
+    /* Forget every rule */
+    public synchronized void clear(){
+        entries.clear();
+        references = 0;
+        conflicts = 0;
+    }
+}
@@ -21,7 +21,6 @@ import org.apache.karaf.shell.api.action.lifecycle.Service;
 import org.onlab.packet.IpAddress;
 import org.onosproject.cli.AbstractShellCommand;
 import org.onosproject.net.HostId;
-import org.onosproject.net.host.HostService;
 
 
 @Service
@@ -29,9 +28,6 @@ import org.onosproject.net.host.HostService;
         description = "Withdraw a previously installed connection")
 public class WithdrawCmd extends AbstractShellCommand {
 
-    // Get the host service
-    protected HostService hostService = get(HostService.class);
-
     // Get my Resource Monitoring Service instance
     private ResourceMonitoringService rmS = get(ResourceMonitoringService.class);
 
@@ -53,8 +49,8 @@ public class WithdrawCmd extends AbstractShellCommand {
             IpAddress sourceIp = IpAddress.valueOf(this.source);
             IpAddress dstIp = IpAddress.valueOf(this.destination);
 
-            HostId sourceId = Helper.HostIdFromIp(sourceIp, this.hostService);
-            HostId destinationId = Helper.HostIdFromIp(dstIp, this.hostService);
+            HostId sourceId = rmS.getHostId(sourceIp);
+            HostId destinationId = rmS.getHostId(dstIp);
 
             rmS.deleteConnection(sourceId, destinationId);
 
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the admission of a batch of demands: largest demands first, one batch of rules for all the admitted ones.
+ */
+public class BatchAdmissionTest {
+
+    private final static int CAPACITY = 100;
+
+    private ServiceHarness harness;
+
+    @Before
+    public void setUp(){
+        harness = new ServiceHarness(TestTopology.linear(3), CAPACITY);
+    }
+
+    @After
+    public void tearDown(){
+        harness.deactivate();
+    }
+
+    @Test
+    public void largestDemandsArePlacedFirst() throws Exception{
+        // in the order given the two small ones would fit and the largest would not
+        Demand small = new Demand(harness.host(1), harness.host(2), 30);
+        Demand medium = new Demand(harness.host(0), harness.host(1), 50);
+        Demand large = new Demand(harness.host(0), harness.host(2), 60);
+
+        BatchReport report = ServiceHarness.await(harness.service.createConnectionsAsync(Arrays.asList(small, medium, large)));
+
+        assertEquals(2, report.getAdmitted().size());
+        assertEquals(60, report.getAdmitted().get(0).bandwidth);
+        assertEquals(30, report.getAdmitted().get(1).bandwidth);
+
+        List<ImmutablePair<Demand, String>> rejected = report.getRejected();
+        assertEquals(1, rejected.size());
+        assertSame(medium, rejected.get(0).left);
+        assertNotNull(rejected.get(0).right);
+
+        assertEquals(CAPACITY - 60, harness.service.getAvailableBandwidth(harness.topology.link(0, 1)));
+        assertEquals(CAPACITY - 90, harness.service.getAvailableBandwidth(harness.topology.link(1, 2)));
+    }
+
+    @Test
+    public void admittedDemandsArePushedInOneBatch() throws Exception{
+        harness.clearBatches();
+
+        BatchReport report = ServiceHarness.await(harness.service.createConnectionsAsync(Arrays.asList(
+                new Demand(harness.host(0), harness.host(2), 10),
+                new Demand(harness.host(0), harness.host(1), 10),
+                new Demand(harness.host(1), harness.host(2), 10))));
+
+        assertEquals(3, report.getAdmitted().size());
+        int rules = 0;
+        for (Connection c : report.getAdmitted())
+            rules += c.rules.getFlowRules().size();
+        assertEquals(Arrays.asList(rules), harness.batches());
+        assertEquals(rules, harness.ruleCount());
+        assertEquals(3, harness.service.getConnections().size());
+    }
+
+    @Test
+    public void duplicateDemandsAreRejected() throws Exception{
+        ServiceHarness.await(harness.service.createConnectionAsync(harness.host(0), harness.host(1), 10));
+
+        BatchReport report = ServiceHarness.await(harness.service.createConnectionsAsync(Arrays.asList(
+                new Demand(harness.host(1), harness.host(0), 20),
+                new Demand(harness.host(0), harness.host(2), 10),
+                new Demand(harness.host(2), harness.host(0), 10))));
+
+        assertEquals(1, report.getAdmitted().size());
+        assertEquals(2, report.getRejected().size());
+        assertEquals(2, harness.service.getConnections().size());
+        assertEquals(CAPACITY - 20, harness.service.getAvailableBandwidth(harness.topology.link(0, 1)));
+    }
+}
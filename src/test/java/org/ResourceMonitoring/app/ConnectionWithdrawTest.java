@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.meter.MeterId;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the rules and meters recorded for each connection: a withdraw removes exactly those,
+ * whatever the other connections installed on the same devices.
+ */
+public class ConnectionWithdrawTest {
+
+    private final static int CAPACITY = 100;
+
+    private ServiceHarness harness;
+
+    @Before
+    public void setUp(){
+        harness = new ServiceHarness(TestTopology.linear(4), CAPACITY);
+    }
+
+    @After
+    public void tearDown(){
+        harness.deactivate();
+    }
+
+    @Test
+    public void rulesAndMetersAreRecordedPerConnection() throws Exception{
+        Connection c = ServiceHarness.await(harness.service.createConnectionAsync(harness.host(0), harness.host(3), 10));
+
+        // both directions on each of the four devices, metered where the traffic enters the network
+        assertEquals(8, c.rules.getFlowRules().size());
+        assertEquals(2, c.rules.getMeters().size());
+        for (int d = 0; d < 4; d++)
+            assertEquals(2, harness.rules(d).size());
+        assertEquals(8, harness.ruleCount());
+        assertEquals(2, harness.meterCount());
+
+        Set<DeviceId> metered = new HashSet<>();
+        for (ImmutablePair<DeviceId, MeterId> m : c.rules.getMeters())
+            metered.add(m.left);
+        assertEquals(new HashSet<>(Arrays.asList(harness.topology.device(0), harness.topology.device(3))), metered);
+    }
+
+    @Test
+    public void withdrawRemovesOnlyTheRulesAndMetersOfTheConnection() throws Exception{
+        Connection kept = ServiceHarness.await(harness.service.createConnectionAsync(harness.host(0), harness.host(3), 10));
+        Connection removed = ServiceHarness.await(harness.service.createConnectionAsync(harness.host(1), harness.host(2), 20));
+        assertEquals(12, harness.ruleCount());
+        assertEquals(4, harness.meterCount());
+
+        ServiceHarness.await(harness.service.deleteConnectionAsync(harness.host(1), harness.host(2)));
+
+        Set<FlowRule> left = new HashSet<>();
+        for (int d = 0; d < 4; d++)
+            left.addAll(harness.rules(d));
+        assertEquals(new HashSet<>(kept.rules.getFlowRules()), left);
+        for (FlowRule r : removed.rules.getFlowRules())
+            assertFalse(left.contains(r));
+
+        assertFalse(harness.service.getConnections().containsKey(removed));
+        assertEquals(CAPACITY - 10, harness.service.getAvailableBandwidth(harness.topology.link(1, 2)));
+    }
+
+    @Test
+    public void withdrawOfUnknownConnectionFails() throws Exception{
+        ServiceHarness.await(harness.service.createConnectionAsync(harness.host(0), harness.host(3), 10));
+
+        try {
+            ServiceHarness.await(harness.service.deleteConnectionAsync(harness.host(0), harness.host(2)));
+            fail("No connection between those hosts");
+        } catch (ExecutionException e){
+            assertTrue(e.getCause() instanceof Error);
+        }
+        assertEquals(8, harness.ruleCount());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+/**
+ * In-memory fakes of the ONOS services: a fake implements only the methods the code under test calls,
+ * with the same signature, and the proxy returned by of() forwards them to it. Any other method returns
+ * an empty or zero value, so a fake does not have to implement whole service interfaces.
+ */
+public final class Fakes {
+
+    private Fakes(){
+    }
+
+    /* The service backed by the methods of the fake */
+    @SuppressWarnings("unchecked")
+    public static <T> T of(Class<T> service, Object fake){
+        return (T) Proxy.newProxyInstance(service.getClassLoader(), new Class<?>[]{service}, (proxy, method, args) -> {
+            Method m = find(fake, method);
+            if (m == null)
+                return empty(method.getReturnType());
+            try {
+                return m.invoke(fake, args);
+            } catch (InvocationTargetException e){
+                throw e.getCause();
+            }
+        });
+    }
+
+    private static Method find(Object fake, Method method){
+        try {
+            Method m = fake.getClass().getMethod(method.getName(), method.getParameterTypes());
+            m.setAccessible(true);
+            return m;
+        } catch (NoSuchMethodException e){
+            return null;
+        }
+    }
+
+    private static Object empty(Class<?> type){
+        if (type == boolean.class)
+            return false;
+        if (type == int.class)
+            return 0;
+        if (type == long.class)
+            return 0L;
+        if (type == double.class)
+            return 0.0;
+        if (type.isAssignableFrom(List.class))
+            return Collections.emptyList();
+        if (type.isAssignableFrom(Set.class))
+            return Collections.emptySet();
+        if (type.isAssignableFrom(Map.class))
+            return Collections.emptyMap();
+        return null;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IpPrefix;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.*;
+
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the reconciler: removals made by the application are not a drift, the others are repaired.
+ */
+public class FlowRuleReconcilerTest {
+
+    private final static ApplicationId APP_ID = new DefaultApplicationId(1, "org.ResourceMonitoring.app.test");
+
+    private final static DeviceId DEVICE = DeviceId.deviceId("of:0000000000000001");
+
+    // operations applied by the reconciler
+    private final List<FlowRuleOperations> applied = new ArrayList<>();
+
+    private Runnable cycle;
+
+    private final Set<FlowRule> expected = new HashSet<>();
+
+    private FlowRuleReconciler reconciler;
+
+    public class FakeFlowRuleService {
+        public Iterable<FlowEntry> getFlowEntries(DeviceId device){
+            return Collections.emptyList();
+        }
+
+        public void apply(FlowRuleOperations ops){
+            applied.add(ops);
+        }
+    }
+
+    public class FakeExecutor {
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit){
+            cycle = command;
+            return null;
+        }
+    }
+
+    @Before
+    public void setUp(){
+        reconciler = new FlowRuleReconciler(Fakes.of(FlowRuleService.class, new FakeFlowRuleService()), APP_ID,
+                                            d -> expected, true,
+                                            Fakes.of(ScheduledExecutorService.class, new FakeExecutor()));
+        reconciler.start(1);
+    }
+
+    @Test
+    public void unexpectedRemovalIsRepaired(){
+        FlowRule r = rule(1, 2);
+        expected.add(r);
+
+        reconciler.ruleRemoved(r);
+        cycle.run();
+
+        assertEquals(1, applied.size());
+        FlowRuleOperation op = applied.get(0).stages().get(0).iterator().next();
+        assertEquals(FlowRuleOperation.Type.ADD, op.type());
+        assertEquals(r, op.rule());
+        assertEquals(1, reconciler.getRepaired());
+    }
+
+    @Test
+    public void removalByTheApplicationIsIgnored(){
+        FlowRule r = rule(1, 2);
+        reconciler.expectRemovals(FlowRuleOperations.builder().remove(r).build());
+
+        reconciler.ruleRemoved(r);
+        cycle.run();
+
+        assertTrue(applied.isEmpty());
+        // only the expected event is ignored
+        reconciler.ruleRemoved(r);
+        expected.add(r);
+        cycle.run();
+        assertEquals(1, applied.size());
+    }
+
+    @Test
+    public void ruleBeingRemovedIsNotPushedAgain(){
+        FlowRule removed = rule(1, 2);
+        FlowRule missing = rule(3, 4);
+        expected.add(removed);
+        expected.add(missing);
+        reconciler.expectRemovals(FlowRuleOperations.builder().remove(removed).build());
+
+        reconciler.markDirty(DEVICE);
+        cycle.run();
+
+        assertEquals(1, applied.size());
+        Set<FlowRuleOperation> stage = applied.get(0).stages().get(0);
+        assertEquals(1, stage.size());
+        assertEquals(missing, stage.iterator().next().rule());
+    }
+
+    private static FlowRule rule(long in, long out){
+        return DefaultFlowRule.builder()
+                .forDevice(DEVICE)
+                .withSelector(DefaultTrafficSelector.builder()
+                                      .matchInPort(PortNumber.portNumber(in))
+                                      .matchEthType(Ethernet.TYPE_IPV4)
+                                      .matchIPDst(IpPrefix.valueOf("10.0.0.2/32"))
+                                      .build())
+                .withTreatment(DefaultTrafficTreatment.builder().setOutput(PortNumber.portNumber(out)).build())
+                .withPriority(10)
+                .fromApp(APP_ID)
+                .makePermanent()
+                .build();
+    }
+}
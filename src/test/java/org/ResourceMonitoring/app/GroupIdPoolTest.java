@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.core.GroupId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.group.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the allocation of the group ids of each device.
+ */
+public class GroupIdPoolTest {
+
+    private final static int BASE = 0x1000;
+
+    private final static DeviceId D1 = DeviceId.deviceId("of:0000000000000001");
+    private final static DeviceId D2 = DeviceId.deviceId("of:0000000000000002");
+
+    // groups on the devices, of any application
+    private final Map<DeviceId, List<Group>> groups = new HashMap<>();
+
+    public class FakeGroupService {
+        public Iterable<Group> getGroups(DeviceId device){
+            return groups.getOrDefault(device, Collections.emptyList());
+        }
+    }
+
+    private GroupService groupService;
+
+    @Before
+    public void setUp(){
+        groupService = Fakes.of(GroupService.class, new FakeGroupService());
+    }
+
+    @Test
+    public void distinctIdsPerDevice(){
+        GroupIdPool pool = new GroupIdPool(groupService, BASE, 16);
+
+        GroupId a = pool.acquire(D1, key("a"));
+        GroupId b = pool.acquire(D1, key("b"));
+        assertNotEquals(a, b);
+        // the same key keeps its id, another device has its own ids
+        assertEquals(a, pool.acquire(D1, key("a")));
+        assertEquals(a, pool.acquire(D2, key("a")));
+    }
+
+    @Test
+    public void idsOfOtherGroupsAreSkipped(){
+        groups.put(D1, new ArrayList<>(Collections.singletonList(group(D1, BASE))));
+        GroupIdPool pool = new GroupIdPool(groupService, BASE, 4);
+
+        assertEquals(BASE + 1, pool.acquire(D1, key("a")).id().intValue());
+        // a group added later by another application
+        pool.seen(group(D1, BASE + 2));
+        assertEquals(BASE + 3, pool.acquire(D1, key("b")).id().intValue());
+    }
+
+    @Test
+    public void releasedIdsAreReusedLast(){
+        GroupIdPool pool = new GroupIdPool(groupService, BASE, 3);
+
+        GroupId a = pool.acquire(D1, key("a"));
+        pool.acquire(D1, key("b"));
+        pool.release(D1, key("a"));
+
+        assertEquals(BASE + 2, pool.acquire(D1, key("c")).id().intValue());
+        assertEquals(a, pool.acquire(D1, key("d")));
+    }
+
+    @Test(expected = Error.class)
+    public void exhaustedDevice(){
+        GroupIdPool pool = new GroupIdPool(groupService, BASE, 2);
+        pool.acquire(D1, key("a"));
+        pool.acquire(D1, key("b"));
+        pool.acquire(D1, key("c"));
+    }
+
+    @Test
+    public void adoptedIdIsTaken(){
+        GroupIdPool pool = new GroupIdPool(groupService, BASE, 2);
+        pool.adopt(D1, key("a"), new GroupId(BASE));
+
+        assertEquals(BASE + 1, pool.acquire(D1, key("b")).id().intValue());
+        assertEquals(BASE, pool.acquire(D1, key("a")).id().intValue());
+    }
+
+    private static GroupKey key(String s){
+        return new DefaultGroupKey(s.getBytes());
+    }
+
+    private static Group group(DeviceId device, int id){
+        return new DefaultGroup(new GroupId(id), new DefaultGroupDescription(device, GroupDescription.Type.SELECT,
+                                                                            new GroupBuckets(Collections.emptyList()),
+                                                                            key("other-" + id), id,
+                                                                            new DefaultApplicationId(2, "other")));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.junit.After;
+import org.junit.Test;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperation;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the reroute of the connections crossing a failed link: only the affected connections move,
+ * only their changed hops are reprogrammed and their edge meters are kept.
+ */
+public class LinkFailureRerouteTest {
+
+    private final static int CAPACITY = 100;
+
+    // more connections than the provisioning queue holds
+    private final static int MANY = 1100;
+
+    private ServiceHarness harness;
+
+    @After
+    public void tearDown(){
+        harness.deactivate();
+    }
+
+    @Test
+    public void affectedConnectionMovesToTheOtherSideOfTheRing() throws Exception{
+        harness = new ServiceHarness(TestTopology.ring(6), CAPACITY);
+        TestTopology t = harness.topology;
+
+        Connection affected = ServiceHarness.await(harness.service.createConnectionAsync(harness.host(0), harness.host(2), 30));
+        Connection unaffected = ServiceHarness.await(harness.service.createConnectionAsync(harness.host(3), harness.host(4), 20));
+        assertEquals(t.path(0, 1, 2), harness.service.getConnections().get(affected));
+        List<FlowRule> untouched = unaffected.rules.getFlowRules();
+        Set<Object> meters = new HashSet<>(affected.rules.getMeters());
+        harness.clearBatches();
+
+        harness.failLink(0, 1);
+
+        assertTrue(ServiceHarness.waitUntil(() -> t.path(0, 5, 4, 3, 2).equals(harness.service.getConnections().get(affected))));
+        assertTrue(ServiceHarness.waitUntil(() -> harness.rules(1).isEmpty()));
+
+        // the bandwidth follows the connection
+        assertEquals(CAPACITY, harness.service.getAvailableBandwidth(t.link(1, 2)));
+        assertEquals(CAPACITY - 30, harness.service.getAvailableBandwidth(t.link(0, 5)));
+        assertEquals(CAPACITY - 50, harness.service.getAvailableBandwidth(t.link(4, 3)));
+
+        // the new hops carry the connection, the edge meters are the same
+        for (int d : new int[]{5, 4, 3})
+            assertFalse(harness.rules(d).isEmpty());
+        assertEquals(meters, new HashSet<>(affected.rules.getMeters()));
+        assertEquals(new HashSet<>(affected.rules.getFlowRules()).size() + untouched.size(), harness.ruleCount());
+
+        // nothing is pushed for the other connection
+        for (FlowRuleOperation op : harness.operations())
+            assertFalse(untouched.contains(op.rule()));
+        assertEquals(untouched, unaffected.rules.getFlowRules());
+    }
+
+    @Test
+    public void connectionWithoutAlternativePathIsWithdrawn() throws Exception{
+        harness = new ServiceHarness(TestTopology.linear(3), CAPACITY);
+
+        ServiceHarness.await(harness.service.createConnectionAsync(harness.host(0), harness.host(2), 30));
+        assertEquals(6, harness.ruleCount());
+
+        harness.failLink(0, 1);
+
+        assertTrue(ServiceHarness.waitUntil(() -> harness.service.getConnections().isEmpty()));
+        assertTrue(ServiceHarness.waitUntil(() -> harness.ruleCount() == 0));
+        assertEquals(CAPACITY, harness.service.getAvailableBandwidth(harness.topology.link(1, 2)));
+    }
+
+    @Test
+    public void everyAffectedConnectionIsHandledWhenTheyOutnumberTheProvisioningQueue() throws Exception{
+        harness = new ServiceHarness(TestTopology.linear(3), MANY);
+
+        List<Demand> demands = new ArrayList<>();
+        for (int i = 0; i < MANY; i++)
+            demands.add(new Demand(harness.addHost(0), harness.addHost(2), 1));
+        ServiceHarness.await(harness.service.createConnectionsAsync(demands));
+        assertEquals(MANY, harness.service.getConnections().size());
+
+        harness.failLink(0, 1);
+
+        assertTrue(ServiceHarness.waitUntil(() -> harness.service.getConnections().isEmpty()));
+        assertTrue(ServiceHarness.waitUntil(() -> harness.ruleCount() == 0));
+        assertEquals(MANY, harness.service.getAvailableBandwidth(harness.topology.link(1, 2)));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the persistent map: colliding hashes, removals and the old versions left untouched by the updates.
+ */
+public class PersistentMapTest {
+
+    /* Key with a chosen hash, to force collisions */
+    private static final class Key {
+        final int value;
+        final int hash;
+
+        Key(int value, int hash){
+            this.value = value;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            return o instanceof Key && ((Key) o).value == value;
+        }
+
+        @Override
+        public int hashCode(){
+            return hash;
+        }
+
+        @Override
+        public String toString(){
+            return "Key " + value;
+        }
+    }
+
+    @Test
+    public void putGetRemove(){
+        PersistentMap<String, Integer> m = PersistentMap.<String, Integer>empty().put("a", 1).put("b", 2).put("a", 3);
+
+        assertEquals(2, m.size());
+        assertEquals(Integer.valueOf(3), m.get("a"));
+        assertEquals(Integer.valueOf(2), m.get("b"));
+        assertNull(m.get("c"));
+
+        m = m.remove("a");
+        assertEquals(1, m.size());
+        assertFalse(m.containsKey("a"));
+        assertSame(m, m.remove("c"));
+        assertTrue(m.remove("b").isEmpty());
+    }
+
+    @Test
+    public void collidingKeys(){
+        PersistentMap<Key, Integer> m = PersistentMap.empty();
+        for (int i = 0; i < 10; i++)
+            m = m.put(new Key(i, 42), i);
+        // a different hash sharing the low bits goes below the collision node
+        m = m.put(new Key(100, 42 | (1 << 30)), 100);
+
+        assertEquals(11, m.size());
+        for (int i = 0; i < 10; i++)
+            assertEquals(Integer.valueOf(i), m.get(new Key(i, 42)));
+        assertEquals(Integer.valueOf(100), m.get(new Key(100, 42 | (1 << 30))));
+        assertNull(m.get(new Key(11, 42)));
+
+        m = m.put(new Key(3, 42), 33);
+        assertEquals(11, m.size());
+        assertEquals(Integer.valueOf(33), m.get(new Key(3, 42)));
+
+        for (int i = 0; i < 10; i++){
+            m = m.remove(new Key(i, 42));
+            assertEquals(10 - i, m.size());
+            assertNull(m.get(new Key(i, 42)));
+        }
+        assertEquals(Integer.valueOf(100), m.get(new Key(100, 42 | (1 << 30))));
+        assertEquals(1, count(m));
+    }
+
+    @Test
+    public void updatesLeaveOldVersionsUntouched(){
+        PersistentMap<Key, Integer> m = PersistentMap.empty();
+        for (int i = 0; i < 1000; i++)
+            m = m.put(new Key(i, i * 31), i);
+        PersistentMap<Key, Integer> before = m;
+
+        for (int i = 0; i < 1000; i += 2)
+            m = m.remove(new Key(i, i * 31));
+        m = m.put(new Key(1, 31), -1);
+
+        assertEquals(1000, before.size());
+        assertEquals(1000, count(before));
+        for (int i = 0; i < 1000; i++)
+            assertEquals(Integer.valueOf(i), before.get(new Key(i, i * 31)));
+
+        assertEquals(500, m.size());
+        assertEquals(Integer.valueOf(-1), m.get(new Key(1, 31)));
+        assertNull(m.get(new Key(2, 62)));
+    }
+
+    /* Random puts and removes with many colliding keys, every version checked against a copied HashMap */
+    @Test
+    public void matchesHashMap(){
+        Random random = new Random(1);
+        PersistentMap<Key, Integer> m = PersistentMap.empty();
+        Map<Key, Integer> expected = new HashMap<>();
+        List<PersistentMap<Key, Integer>> versions = new ArrayList<>();
+        List<Map<Key, Integer>> expectedVersions = new ArrayList<>();
+
+        for (int i = 0; i < 20000; i++){
+            int v = random.nextInt(2000);
+            Key k = new Key(v, v % 7 == 0 ? 42 : v * 0x9E3779B9);
+            if (random.nextInt(3) == 0){
+                m = m.remove(k);
+                expected.remove(k);
+            } else {
+                int value = random.nextInt();
+                m = m.put(k, value);
+                expected.put(k, value);
+            }
+            if (i % 1000 == 0){
+                versions.add(m);
+                expectedVersions.add(new HashMap<>(expected));
+            }
+        }
+        versions.add(m);
+        expectedVersions.add(expected);
+
+        for (int i = 0; i < versions.size(); i++){
+            assertEquals(expectedVersions.get(i).size(), versions.get(i).size());
+            assertEquals(expectedVersions.get(i), versions.get(i).asMap());
+            assertEquals(expectedVersions.get(i).size(), count(versions.get(i)));
+        }
+    }
+
+    private static int count(PersistentMap<?, ?> m){
+        int n = 0;
+        for (Map.Entry<?, ?> e : m)
+            n++;
+        return n;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the recovery of the reservation journal: a torn or corrupt last record is dropped and the records
+ * before it are restored.
+ */
+public class ReservationJournalTest {
+
+    private ServiceHarness harness;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception{
+        harness = new ServiceHarness(TestTopology.linear(3), 100);
+        file = File.createTempFile("rs-journal", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void tearDown(){
+        harness.deactivate();
+        file.delete();
+    }
+
+    @Test
+    public void corruptLengthOfTheLastRecordIsDropped() throws Exception{
+        Connection c = ServiceHarness.await(harness.service.createConnectionAsync(harness.host(0), harness.host(2), 30));
+
+        ReservationJournal journal = new ReservationJournal(file);
+        assertTrue(journal.open().isEmpty());
+        journal.put(c, harness.service.getConnections().get(c));
+        journal.close();
+
+        // a record whose source address claims a negative length
+        try (FileOutputStream out = new FileOutputStream(file, true)){
+            out.write(new byte[]{1, 0, 0, 0, 0, 0, 0, 0, 42, (byte) 0x80, 10, 0});
+        }
+
+        List<ReservationJournal.Entry> entries = new ReservationJournal(file).open();
+        assertEquals(1, entries.size());
+        assertEquals(c.id, entries.get(0).id);
+        assertEquals(c.source, entries.get(0).source);
+    }
+}
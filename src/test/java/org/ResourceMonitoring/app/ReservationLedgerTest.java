@@ -0,0 +1,213 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.IpPrefix;
+import org.onosproject.net.Link;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the reservation ledger, alone and under concurrent admissions, reroutes and withdraws.
+ */
+public class ReservationLedgerTest {
+
+    private final static int CAPACITY = 100;
+
+    private TestTopology topology;
+
+    private ReservationLedger ledger;
+
+    @Before
+    public void setUp(){
+        topology = TestTopology.ring(8);
+        ledger = new ReservationLedger(l -> CAPACITY, topology::opposite);
+    }
+
+    @Test
+    public void reserveChargesBothDirections(){
+        Connection c = connection(1, 2, 30);
+        assertTrue(ledger.reserve(c, topology.path(0, 1, 2)));
+
+        assertEquals(70, ledger.getAvailableBandwidth(topology.link(0, 1)));
+        assertEquals(70, ledger.getAvailableBandwidth(topology.link(2, 1)));
+        assertEquals(CAPACITY, ledger.getAvailableBandwidth(topology.link(2, 3)));
+        assertEquals(30, ledger.getSnapshot().getReserved(topology.link(1, 0)));
+    }
+
+    @Test
+    public void reserveWithoutCapacityLeavesLedgerUntouched(){
+        assertTrue(ledger.reserve(connection(1, 2, 80), topology.path(1, 2)));
+
+        assertFalse(ledger.reserve(connection(3, 4, 30), topology.path(0, 1, 2, 3)));
+        assertEquals(CAPACITY, ledger.getAvailableBandwidth(topology.link(0, 1)));
+        assertEquals(20, ledger.getAvailableBandwidth(topology.link(1, 2)));
+        assertEquals(1, ledger.getRegistry().size());
+    }
+
+    @Test
+    public void rerouteChargesOnlyTheDifference(){
+        Connection c = connection(1, 2, 60);
+        assertTrue(ledger.reserve(c, topology.path(0, 1)));
+        assertTrue(ledger.reserve(connection(3, 4, 40), topology.path(0, 1)));
+
+        // the first link is full, but the connection already holds its share of it
+        assertTrue(ledger.reroute(c, topology.path(0, 1, 2)));
+        assertEquals(0, ledger.getAvailableBandwidth(topology.link(0, 1)));
+        assertEquals(40, ledger.getAvailableBandwidth(topology.link(1, 2)));
+        assertEquals(topology.path(0, 1, 2), ledger.getRegistry().getPath(c));
+    }
+
+    @Test
+    public void failedRerouteKeepsOldCharge(){
+        Connection c = connection(1, 2, 60);
+        assertTrue(ledger.reserve(c, topology.path(0, 1)));
+        assertTrue(ledger.reserve(connection(3, 4, 50), topology.path(1, 2)));
+
+        assertFalse(ledger.reroute(c, topology.path(0, 1, 2)));
+        assertEquals(40, ledger.getAvailableBandwidth(topology.link(0, 1)));
+        assertEquals(50, ledger.getAvailableBandwidth(topology.link(1, 2)));
+        assertEquals(topology.path(0, 1), ledger.getRegistry().getPath(c));
+        assertEquals(60, ledger.getCharged(c, topology.link(1, 0)));
+    }
+
+    @Test
+    public void snapshotKeepsSharesOfItsPaths(){
+        Connection c = connection(1, 2, 60);
+        List<Link> split = new ArrayList<>(topology.path(0, 1, 2));
+        split.addAll(topology.path(0, 7, 6, 5, 4, 3, 2));
+        assertTrue(ledger.reserve(c, split, new int[]{40, 20}));
+        ReservationSnapshot before = ledger.getSnapshot();
+
+        assertTrue(ledger.reroute(c, topology.path(0, 1, 2)));
+
+        assertArrayEquals(new int[]{40, 20}, before.getShares(c));
+        assertEquals(split, before.getConnections().get(c));
+        assertNull(ledger.getSnapshot().getShares(c));
+        assertEquals(60, ledger.getSnapshot().getReserved(topology.link(1, 2)));
+    }
+
+    @Test
+    public void releaseAllFreesEverything(){
+        assertTrue(ledger.reserve(connection(1, 2, 10), topology.path(0, 1)));
+        assertTrue(ledger.reserve(connection(3, 4, 10), topology.path(4, 5, 6)));
+
+        assertEquals(2, ledger.releaseAll().size());
+        assertEquals(0, ledger.getRegistry().size());
+        assertEquals(0, ledger.getSnapshot().getConnectionCount());
+        for (Link l : topology.links())
+            assertEquals(CAPACITY, ledger.getAvailableBandwidth(l));
+    }
+
+    /* Many threads reserve, reroute and release connections over the same links while another one checks that
+     * no link is ever overbooked; at the end the bandwidth of every link matches the charges of the connections */
+    @Test
+    public void capacityInvariantsUnderConcurrency() throws Exception{
+        final int threads = 8;
+        final int operations = 20000;
+        final int endpoints = 48;
+
+        List<Connection> pool = new ArrayList<>();
+        for (int i = 0; i < endpoints; i++)
+            pool.add(connection(2 * i + 1, 2 * i + 2, 10 + (i % 5) * 10));
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<String> violations = new CopyOnWriteArrayList<>();
+        Thread checker = new Thread(() -> {
+            while (running.get())
+                for (Link l : topology.links()){
+                    int available = ledger.getAvailableBandwidth(l);
+                    if (available < 0 || available > CAPACITY)
+                        violations.add(l + " has " + available + " available");
+                }
+        });
+        checker.start();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++){
+            final long seed = t;
+            futures.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < operations; i++){
+                    Connection c = pool.get(random.nextInt(pool.size()));
+                    List<Link> path = randomPath(random);
+                    switch (random.nextInt(3)){
+                        case 0:
+                            try {
+                                ledger.reserve(c, path);
+                            } catch (Error e){
+                                // already established
+                            }
+                            break;
+                        case 1:
+                            ledger.reroute(c, path);
+                            break;
+                        default:
+                            ledger.release(c);
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : futures)
+            f.get(2, TimeUnit.MINUTES);
+        executor.shutdown();
+        running.set(false);
+        checker.join();
+
+        assertTrue(violations.toString(), violations.isEmpty());
+
+        Map<Link, Integer> reserved = new HashMap<>();
+        for (Connection c : pool){
+            List<Link> path = ledger.getRegistry().getPath(c);
+            if (path == null)
+                continue;
+            for (Link l : path){
+                reserved.merge(l, c.bandwidth, Integer::sum);
+                reserved.merge(topology.opposite(l), c.bandwidth, Integer::sum);
+            }
+        }
+        for (Link l : topology.links()){
+            int r = reserved.getOrDefault(l, 0);
+            assertTrue(l + " is overbooked", r <= CAPACITY);
+            assertEquals(l.toString(), CAPACITY - r, ledger.getAvailableBandwidth(l));
+            assertEquals(l.toString(), r, ledger.getSnapshot().getReserved(l));
+        }
+        assertEquals(ledger.getRegistry().size(), ledger.getSnapshot().getConnectionCount());
+    }
+
+    /* Path of one to four hops clockwise around the ring */
+    private List<Link> randomPath(Random random){
+        int n = topology.deviceCount();
+        int start = random.nextInt(n);
+        int[] through = new int[2 + random.nextInt(4)];
+        for (int i = 0; i < through.length; i++)
+            through[i] = (start + i) % n;
+        return topology.path(through);
+    }
+
+    private static Connection connection(int a, int b, int bandwidth){
+        return new Connection(IpPrefix.valueOf("10.0." + (a / 250) + "." + (a % 250 + 1) + "/32"),
+                              IpPrefix.valueOf("10.0." + (b / 250) + "." + (b % 250 + 1) + "/32"),
+                              bandwidth);
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import com.codahale.metrics.Metric;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.onlab.metrics.MetricsComponent;
+import org.onlab.metrics.MetricsFeature;
+import org.onlab.metrics.MetricsService;
+import org.onlab.packet.IpAddress;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.VlanId;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.cluster.ClusterService;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreService;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.event.EventListener;
+import org.onosproject.net.*;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.flow.*;
+import org.onosproject.net.group.GroupService;
+import org.onosproject.net.host.HostService;
+import org.onosproject.net.link.LinkEvent;
+import org.onosproject.net.link.LinkService;
+import org.onosproject.net.meter.*;
+import org.onosproject.net.provider.ProviderId;
+import org.onosproject.store.service.StorageService;
+import org.osgi.service.component.ComponentContext;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.DEFAULT_LINK_CAPACITY;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.DISTRIBUTED_RESERVATIONS;
+import static org.ResourceMonitoring.app.OsgiPropertyConstants.LINK_CAPACITY_FROM_PORT_SPEED;
+
+/**
+ * The service activated standalone, or as an instance of a simulated cluster, on a synthetic topology with in-memory
+ * fakes of the ONOS services.
+ * Devices confirm every meter and every batch of rules at once, the rules and meters they hold can be inspected
+ * and links can be failed and restored. Hosts are attached on demand, each with its own address.
+ */
+public class ServiceHarness {
+
+    private final static ProviderId PROVIDER_ID = new ProviderId("test", "org.ResourceMonitoring.app");
+
+    private final static int TIMEOUT_SECONDS = 10;
+
+    public final TestTopology topology;
+
+    public final ResourceMonitoringService service = new ResourceMonitoringService();
+
+    private final Map<LinkKey, Link> activeLinks = new ConcurrentHashMap<>();
+
+    private final Map<HostId, Host> hosts = new ConcurrentHashMap<>();
+
+    // first host attached to each device
+    private final Map<Integer, HostId> firstHosts = new HashMap<>();
+
+    // rules on the devices, equal when they have the same device, priority and match
+    private final Map<FlowRule, FlowRule> rules = new ConcurrentHashMap<>();
+
+    private final Map<ImmutablePair<DeviceId, MeterId>, Meter> meters = new ConcurrentHashMap<>();
+
+    private final List<EventListener<LinkEvent>> linkListeners = new ArrayList<>();
+
+    // batches of rules applied, with the number of operations of each
+    private final List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+
+    // every operation of those batches
+    private final List<FlowRuleOperation> operations = Collections.synchronizedList(new ArrayList<>());
+
+    private final AtomicInteger batchCount = new AtomicInteger();
+
+    private long nextMeter = 0;
+
+    // hosts are numbered across the harnesses, so that instances of a simulated cluster do not share addresses
+    private final static AtomicInteger nextHost = new AtomicInteger();
+
+    public class FakeCoreService {
+        public ApplicationId registerApplication(String name){
+            return new DefaultApplicationId(1, name);
+        }
+    }
+
+    public class FakeLinkService {
+        public Iterable<Link> getActiveLinks(){
+            return new ArrayList<>(activeLinks.values());
+        }
+
+        public Iterable<Link> getLinks(){
+            return getActiveLinks();
+        }
+
+        public Set<Link> getLinks(ConnectPoint cp){
+            Set<Link> links = new HashSet<>();
+            for (Link l : activeLinks.values())
+                if (l.src().equals(cp) || l.dst().equals(cp))
+                    links.add(l);
+            return links;
+        }
+
+        public Link getLink(ConnectPoint src, ConnectPoint dst){
+            return activeLinks.get(LinkKey.linkKey(src, dst));
+        }
+
+        // the listener services take the erasure of their listener type
+        public void addListener(EventListener<LinkEvent> listener){
+            linkListeners.add(listener);
+        }
+    }
+
+    public class FakeDeviceService {
+        public boolean isAvailable(DeviceId device){
+            return true;
+        }
+    }
+
+    public class FakeHostService {
+        public Iterable<Host> getHosts(){
+            return new ArrayList<>(hosts.values());
+        }
+
+        public Host getHost(HostId id){
+            return hosts.get(id);
+        }
+
+        public Set<Host> getHostsByIp(IpAddress address){
+            Set<Host> found = new HashSet<>();
+            for (Host h : hosts.values())
+                if (h.ipAddresses().contains(address))
+                    found.add(h);
+            return found;
+        }
+    }
+
+    public class FakeFlowRuleService {
+        public void apply(FlowRuleOperations ops){
+            int n = 0;
+            for (Set<FlowRuleOperation> stage : ops.stages())
+                for (FlowRuleOperation op : stage){
+                    if (op.type() == FlowRuleOperation.Type.REMOVE)
+                        rules.remove(op.rule());
+                    else
+                        rules.put(op.rule(), op.rule());
+                    operations.add(op);
+                    n++;
+                }
+            batches.add(n);
+            batchCount.incrementAndGet();
+            if (ops.callback() != null)
+                ops.callback().onSuccess(ops);
+        }
+
+        public Iterable<FlowEntry> getFlowEntries(DeviceId device){
+            List<FlowEntry> entries = new ArrayList<>();
+            for (FlowRule r : rules.values())
+                if (r.deviceId().equals(device))
+                    entries.add(new DefaultFlowEntry(r, FlowEntry.FlowEntryState.ADDED));
+            return entries;
+        }
+
+        public Iterable<FlowEntry> getFlowEntriesById(ApplicationId appId){
+            List<FlowEntry> entries = new ArrayList<>();
+            for (FlowRule r : rules.values())
+                entries.add(new DefaultFlowEntry(r, FlowEntry.FlowEntryState.ADDED));
+            return entries;
+        }
+    }
+
+    public class FakeMeterService {
+        public Meter submit(MeterRequest request){
+            MeterId id;
+            synchronized (ServiceHarness.this){
+                id = MeterId.meterId(++nextMeter);
+            }
+            Meter m = DefaultMeter.builder()
+                                  .forDevice(request.deviceId())
+                                  .withId(id)
+                                  .fromApp(request.appId())
+                                  .withUnit(request.unit())
+                                  .withBands(request.bands())
+                                  .build();
+            meters.put(new ImmutablePair<>(request.deviceId(), id), m);
+            request.context().ifPresent(c -> c.onSuccess(request));
+            return m;
+        }
+
+        public Meter getMeter(DeviceId device, MeterId id){
+            return meters.get(new ImmutablePair<>(device, id));
+        }
+    }
+
+    public class FakeMeterStore {
+        @SuppressWarnings("deprecation")
+        public void deleteMeterNow(Meter m){
+            meters.remove(new ImmutablePair<>(m.deviceId(), m.id()));
+        }
+    }
+
+    public class FakeMetricsService {
+        public MetricsComponent registerComponent(String name){
+            return new MetricsComponent(name);
+        }
+
+        public <T extends Metric> T registerMetric(MetricsComponent component, MetricsFeature feature, String name, T metric){
+            return metric;
+        }
+    }
+
+    public class FakeComponentContext {
+        private final Dictionary<String, Object> properties = new Hashtable<>();
+
+        public Dictionary<String, Object> getProperties(){
+            return properties;
+        }
+    }
+
+    /* The service on the topology, every link of capacity the specified bandwidth */
+    public ServiceHarness(TestTopology topology, int capacity){
+        this(topology, capacity, null, Fakes.of(ClusterService.class, new Object()));
+    }
+
+    /* An instance of a cluster on the topology, sharing its reservations through the storage service */
+    public ServiceHarness(TestTopology topology, int capacity, StorageService storage, ClusterService cluster){
+        this.topology = topology;
+        topology.links().forEach(l -> activeLinks.put(LinkKey.linkKey(l), l));
+
+        service.coreService = Fakes.of(CoreService.class, new FakeCoreService());
+        service.cfgService = Fakes.of(ComponentConfigService.class, new Object());
+        service.linkService = Fakes.of(LinkService.class, new FakeLinkService());
+        service.deviceService = Fakes.of(DeviceService.class, new FakeDeviceService());
+        service.hostService = Fakes.of(HostService.class, new FakeHostService());
+        service.flowRuleService = Fakes.of(FlowRuleService.class, new FakeFlowRuleService());
+        service.meterService = Fakes.of(MeterService.class, new FakeMeterService());
+        service.meterStore = Fakes.of(MeterStore.class, new FakeMeterStore());
+        service.groupService = Fakes.of(GroupService.class, new Object());
+        service.metricsService = Fakes.of(MetricsService.class, new FakeMetricsService());
+        service.clusterService = cluster;
+        service.storageService = storage;
+
+        FakeComponentContext context = new FakeComponentContext();
+        context.properties.put(DISTRIBUTED_RESERVATIONS, String.valueOf(storage != null));
+        context.properties.put(LINK_CAPACITY_FROM_PORT_SPEED, "false");
+        context.properties.put(DEFAULT_LINK_CAPACITY, String.valueOf(capacity));
+        service.activate(Fakes.of(ComponentContext.class, context));
+    }
+
+    /* Release every connection and stop the service */
+    public void deactivate(){
+        service.deactivate();
+    }
+
+    /* First host attached to the device, created the first time */
+    public synchronized HostId host(int device){
+        return firstHosts.computeIfAbsent(device, this::addHost);
+    }
+
+    /* Attach a new host to a free port of the device */
+    public synchronized HostId addHost(int device){
+        int n = nextHost.incrementAndGet();
+        MacAddress mac = MacAddress.valueOf(n);
+        HostId id = HostId.hostId(mac);
+        IpAddress ip = IpAddress.valueOf(0x0a000000 + n);
+        HostLocation location = new HostLocation(topology.hostPoint(device), 0);
+        hosts.put(id, new DefaultHost(PROVIDER_ID, id, mac, VlanId.NONE, location, Collections.singleton(ip)));
+        return id;
+    }
+
+    /* Take down both directions of the link between two devices, as the link provider would */
+    public void failLink(int a, int b){
+        failLink(topology.link(a, b));
+    }
+
+    public void failLink(Link link){
+        for (Link l : Arrays.asList(link, topology.opposite(link))){
+            activeLinks.remove(LinkKey.linkKey(l));
+            notify(new LinkEvent(LinkEvent.Type.LINK_REMOVED, l));
+        }
+    }
+
+    /* Bring back both directions of a failed link */
+    public void restoreLink(Link link){
+        for (Link l : Arrays.asList(link, topology.opposite(link))){
+            activeLinks.put(LinkKey.linkKey(l), l);
+            notify(new LinkEvent(LinkEvent.Type.LINK_ADDED, l));
+        }
+    }
+
+    private void notify(LinkEvent event){
+        linkListeners.forEach(listener -> listener.event(event));
+    }
+
+    /* Rules on the device */
+    public List<FlowRule> rules(int device){
+        List<FlowRule> found = new ArrayList<>();
+        for (FlowRule r : rules.values())
+            if (r.deviceId().equals(topology.device(device)))
+                found.add(r);
+        return found;
+    }
+
+    public int ruleCount(){
+        return rules.size();
+    }
+
+    public int meterCount(){
+        return meters.size();
+    }
+
+    /* Operations of each batch of rules applied so far */
+    public List<Integer> batches(){
+        synchronized (batches){
+            return new ArrayList<>(batches);
+        }
+    }
+
+    /* Operations of the batches applied so far */
+    public List<FlowRuleOperation> operations(){
+        synchronized (operations){
+            return new ArrayList<>(operations);
+        }
+    }
+
+    /* Number of batches of rules applied so far, forgotten ones included */
+    public int batchCount(){
+        return batchCount.get();
+    }
+
+    /* Forget the batches applied so far */
+    public void clearBatches(){
+        batches.clear();
+        operations.clear();
+    }
+
+    /* Wait for the future, failing after a timeout */
+    public static <T> T await(CompletableFuture<T> future) throws Exception{
+        return future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /* Wait until the condition holds, false after a timeout */
+    public static boolean waitUntil(BooleanSupplier condition) throws InterruptedException{
+        return waitUntil(condition, TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+    }
+
+    public static boolean waitUntil(BooleanSupplier condition, long timeoutMillis) throws InterruptedException{
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.getAsBoolean()){
+            if (System.currentTimeMillis() > deadline)
+                return false;
+            Thread.sleep(1);
+        }
+        return true;
+    }
+}
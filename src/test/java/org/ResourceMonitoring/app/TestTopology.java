@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultLink;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.LinkKey;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.provider.ProviderId;
+
+import java.util.*;
+
+/**
+ * Synthetic topologies of duplex links for the tests: every link is created together with its opposite link,
+ * port numbers are assigned in creation order on each device.
+ */
+public class TestTopology {
+
+    private final static ProviderId PROVIDER_ID = new ProviderId("test", "org.ResourceMonitoring.app");
+
+    private final List<DeviceId> devices = new ArrayList<>();
+
+    private final Map<LinkKey, Link> links = new LinkedHashMap<>();
+
+    // link between two devices by their indexes
+    private final Map<Long, Link> byDevices = new HashMap<>();
+
+    // next free port of each device
+    private final Map<DeviceId, Long> ports = new HashMap<>();
+
+    // devices where hosts attach, every device unless the topology says otherwise
+    private final List<Integer> edges = new ArrayList<>();
+
+    /* Chain of n devices */
+    public static TestTopology linear(int n){
+        TestTopology t = new TestTopology(n);
+        for (int i = 1; i < n; i++)
+            t.connect(i - 1, i);
+        return t;
+    }
+
+    /* Ring of n devices */
+    public static TestTopology ring(int n){
+        TestTopology t = linear(n);
+        t.connect(n - 1, 0);
+        return t;
+    }
+
+    /* Fat-tree of k-port switches: (k/2)^2 core, k pods of k/2 aggregation and k/2 edge switches.
+     * Devices are numbered core first, then pod by pod aggregation and edge */
+    public static TestTopology fatTree(int k){
+        int half = k / 2;
+        int core = half * half;
+        TestTopology t = new TestTopology(core + k * k);
+        t.edges.clear();
+        for (int pod = 0; pod < k; pod++){
+            int aggregation = core + pod * k;
+            int edge = aggregation + half;
+            for (int e = 0; e < half; e++)
+                t.edges.add(edge + e);
+            for (int a = 0; a < half; a++){
+                for (int e = 0; e < half; e++)
+                    t.connect(aggregation + a, edge + e);
+                for (int c = 0; c < half; c++)
+                    t.connect(aggregation + a, a * half + c);
+            }
+        }
+        return t;
+    }
+
+    /* Connected random mesh: a random spanning tree plus extra random links, reproducible for a given seed */
+    public static TestTopology randomMesh(int n, int extraLinks, long seed){
+        Random random = new Random(seed);
+        TestTopology t = new TestTopology(n);
+        for (int i = 1; i < n; i++)
+            t.connect(random.nextInt(i), i);
+        for (int added = 0; added < extraLinks; ){
+            int a = random.nextInt(n), b = random.nextInt(n);
+            if (a != b && t.link(a, b) == null){
+                t.connect(a, b);
+                added++;
+            }
+        }
+        return t;
+    }
+
+    private TestTopology(int n){
+        for (int i = 0; i < n; i++){
+            devices.add(DeviceId.deviceId(String.format("of:%016x", i + 1)));
+            edges.add(i);
+        }
+    }
+
+    /* Create the duplex link between two devices */
+    public void connect(int a, int b){
+        ConnectPoint pa = new ConnectPoint(devices.get(a), nextPort(devices.get(a)));
+        ConnectPoint pb = new ConnectPoint(devices.get(b), nextPort(devices.get(b)));
+        Link ab = build(pa, pb), ba = build(pb, pa);
+        links.put(LinkKey.linkKey(ab), ab);
+        links.put(LinkKey.linkKey(ba), ba);
+        byDevices.put(pair(a, b), ab);
+        byDevices.put(pair(b, a), ba);
+    }
+
+    /* Port of the device free for a host */
+    public ConnectPoint hostPoint(int device){
+        return new ConnectPoint(devices.get(device), nextPort(devices.get(device)));
+    }
+
+    public DeviceId device(int i){
+        return devices.get(i);
+    }
+
+    /* Indexes of the devices where hosts attach: the edge switches of a fat-tree, any device otherwise */
+    public List<Integer> edges(){
+        return Collections.unmodifiableList(edges);
+    }
+
+    public int deviceCount(){
+        return devices.size();
+    }
+
+    public Collection<Link> links(){
+        return links.values();
+    }
+
+    /* Link from device a to device b, or null */
+    public Link link(int a, int b){
+        return byDevices.get(pair(a, b));
+    }
+
+    /* Link in the opposite direction, or null */
+    public Link opposite(Link l){
+        return links.get(LinkKey.linkKey(l.dst(), l.src()));
+    }
+
+    /* Path through the specified devices, one after the other */
+    public List<Link> path(int... through){
+        List<Link> path = new ArrayList<>();
+        for (int i = 1; i < through.length; i++)
+            path.add(link(through[i - 1], through[i]));
+        return path;
+    }
+
+    private static long pair(int a, int b){
+        return ((long) a << 32) | b;
+    }
+
+    private PortNumber nextPort(DeviceId device){
+        long port = ports.merge(device, 1L, Long::sum);
+        return PortNumber.portNumber(port);
+    }
+
+    private static Link build(ConnectPoint src, ConnectPoint dst){
+        return DefaultLink.builder()
+                          .providerId(PROVIDER_ID)
+                          .src(src)
+                          .dst(dst)
+                          .type(Link.Type.DIRECT)
+                          .state(Link.State.ACTIVE)
+                          .build();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.IpPrefix;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DefaultLink;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.provider.ProviderId;
+
+import java.util.*;
+
+/**
+ * Transit rules needed by random connections on a generated k-ary fat-tree, with and without sharing them.
+ * Paths are computed by the same search used for the admissions, preferring the links with more residual capacity,
+ * and the shared rules are compiled by a TransitRuleTable. Nothing is pushed to the devices: it is a simulation
+ * estimating the rules saved by sharing them at scale.
+ */
+public class TransitRuleReport {
+
+    private final static ProviderId PROVIDER_ID = new ProviderId("rs", "org.ResourceMonitoring.app.report");
+    private final static ApplicationId APP_ID = new DefaultApplicationId(0, "org.ResourceMonitoring.app.report");
+
+    // capacity of the generated links and range of the bandwidth of the connections, in Mbps
+    private final static int LINK_CAPACITY = 10000;
+    private final static int MAX_BANDWIDTH = 100;
+
+    public int placed = 0;
+    public int rejected = 0;
+    // rules of the transit switches with one pair of exact rules per connection
+    public int exactRules = 0;
+    // shared rules, plus the exact rules of the hops that could not share one
+    public int sharedRules = 0;
+    public int fallbackRules = 0;
+
+    private final List<Link> links = new ArrayList<>();
+    private final List<ConnectPoint> hostPorts = new ArrayList<>();
+    private final List<IpPrefix> hostPrefixes = new ArrayList<>();
+
+    /* Place the connections on a fat-tree of k pods, k even, choosing the endpoints with the specified seed */
+    public static TransitRuleReport fatTree(int k, int connections, long seed){
+        if (k < 2 || k % 2 != 0)
+            throw new IllegalArgumentException("The number of pods of a fat-tree must be even");
+
+        TransitRuleReport report = new TransitRuleReport();
+        report.buildFatTree(k);
+        report.place(connections, new Random(seed));
+        return report;
+    }
+
+    /* Fraction of the transit rules saved by sharing them */
+    public double getReduction(){
+        return exactRules == 0 ? 0 : 1.0 - (double) (sharedRules + fallbackRules) / exactRules;
+    }
+
+    private void buildFatTree(int k){
+        int half = k / 2;
+        int next = 1;
+
+        DeviceId[] core = new DeviceId[half * half];
+        for (int c = 0; c < core.length; c++)
+            core[c] = device(next++);
+
+        for (int pod = 0; pod < k; pod++){
+            DeviceId[] aggregation = new DeviceId[half];
+            for (int a = 0; a < half; a++){
+                aggregation[a] = device(next++);
+                // aggregation a of every pod is attached to the cores a * half .. a * half + half - 1
+                for (int c = 0; c < half; c++)
+                    connect(aggregation[a], half + c + 1, core[a * half + c], pod + 1);
+            }
+
+            for (int e = 0; e < half; e++){
+                DeviceId edge = device(next++);
+                for (int a = 0; a < half; a++)
+                    connect(edge, half + a + 1, aggregation[a], e + 1);
+
+                for (int h = 0; h < half; h++){
+                    hostPorts.add(new ConnectPoint(edge, PortNumber.portNumber(h + 1)));
+                    hostPrefixes.add(IpPrefix.valueOf(Ip4Address.valueOf(10 << 24 | pod << 16 | e << 8 | (h + 2)), 32));
+                }
+            }
+        }
+    }
+
+    private void place(int connections, Random random){
+        ConstrainedPathFinder finder = new ConstrainedPathFinder();
+        finder.rebuild(links);
+
+        Map<Link, Integer> available = new HashMap<>();
+        Map<ConnectPoint, Link> opposite = new HashMap<>();
+        for (Link l : links)
+            opposite.put(l.dst(), l);
+
+        TransitRuleTable table = new TransitRuleTable();
+
+        for (int i = 0; i < connections; i++){
+            int a = random.nextInt(hostPorts.size());
+            int b = random.nextInt(hostPorts.size());
+            if (hostPorts.get(a).deviceId().equals(hostPorts.get(b).deviceId())){
+                i--;
+                continue; // no transit switch
+            }
+
+            int bandwidth = 1 + random.nextInt(MAX_BANDWIDTH);
+            Optional<List<Link>> path = finder.findPath(hostPorts.get(a).deviceId(), hostPorts.get(b).deviceId(), bandwidth,
+                                                        l -> available.getOrDefault(l, LINK_CAPACITY),
+                                                        ConstrainedPathFinder.Weight.RESIDUAL_CAPACITY);
+            if (path.isEmpty()){
+                rejected++;
+                continue;
+            }
+
+            placed++;
+            for (Link l : path.get()){
+                available.put(l, available.getOrDefault(l, LINK_CAPACITY) - bandwidth);
+                Link o = opposite.get(l.src());
+                available.put(o, available.getOrDefault(o, LINK_CAPACITY) - bandwidth);
+            }
+
+            // the same rules the service builds on each transit switch, in both directions
+            List<Link> p = path.get();
+            for (int h = 0; h < p.size() - 1; h++){
+                DeviceId device = p.get(h).dst().deviceId();
+                PortNumber in = p.get(h).dst().port();
+                PortNumber out = p.get(h + 1).src().port();
+
+                exactRules += 2;
+                if (!table.acquire(TransitRuleTable.buildRule(APP_ID, 0, device, in, out, hostPrefixes.get(b))))
+                    fallbackRules++;
+                if (!table.acquire(TransitRuleTable.buildRule(APP_ID, 0, device, out, in, hostPrefixes.get(a))))
+                    fallbackRules++;
+            }
+        }
+
+        sharedRules = table.size();
+    }
+
+    /* Two links, one per direction, between the ports of the devices */
+    private void connect(DeviceId a, int portA, DeviceId b, int portB){
+        ConnectPoint pa = new ConnectPoint(a, PortNumber.portNumber(portA));
+        ConnectPoint pb = new ConnectPoint(b, PortNumber.portNumber(portB));
+        links.add(link(pa, pb));
+        links.add(link(pb, pa));
+    }
+
+    private static Link link(ConnectPoint src, ConnectPoint dst){
+        return DefaultLink.builder()
+                          .providerId(PROVIDER_ID)
+                          .src(src)
+                          .dst(dst)
+                          .type(Link.Type.DIRECT)
+                          .state(Link.State.ACTIVE)
+                          .build();
+    }
+
+    private static DeviceId device(int n){
+        return DeviceId.deviceId(String.format("of:%016x", n));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.junit.Test;
+import org.onlab.packet.IpPrefix;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.FlowRule;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the reference counting of the shared transit rules, and of the rules they save on a fat-tree.
+ */
+public class TransitRuleTableTest {
+
+    private final static ApplicationId APP_ID = new DefaultApplicationId(1, "org.ResourceMonitoring.app.test");
+
+    private final static DeviceId DEVICE = DeviceId.deviceId("of:0000000000000001");
+
+    private final static IpPrefix DESTINATION = IpPrefix.valueOf("10.0.0.2/32");
+
+    @Test
+    public void ruleRemovedWithItsLastReference(){
+        TransitRuleTable table = new TransitRuleTable();
+        FlowRule rule = rule(1, 2);
+
+        assertTrue(table.acquire(rule));
+        assertTrue(table.acquire(rule(1, 2)));
+        assertEquals(1, table.size());
+        assertEquals(2, table.getReferences());
+
+        assertFalse(table.release(rule));
+        assertTrue(table.release(rule));
+        assertEquals(0, table.size());
+        assertFalse(table.release(rule));
+    }
+
+    @Test
+    public void conflictingOutputIsNotShared(){
+        TransitRuleTable table = new TransitRuleTable();
+
+        assertTrue(table.acquire(rule(1, 2)));
+        assertFalse(table.acquire(rule(1, 3)));
+        assertEquals(1, table.getConflicts());
+        assertEquals(1, table.getReferences());
+    }
+
+    @Test
+    public void fatTreeSavesRules(){
+        TransitRuleReport r = TransitRuleReport.fatTree(8, 2000, 1);
+
+        assertEquals(2000, r.placed + r.rejected);
+        assertTrue(r.placed > 0);
+        assertTrue(r.sharedRules + r.fallbackRules < r.exactRules);
+        assertTrue(r.getReduction() > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fatTreeNeedsEvenPods(){
+        TransitRuleReport.fatTree(3, 10, 1);
+    }
+
+    private static FlowRule rule(long in, long out){
+        return TransitRuleTable.buildRule(APP_ID, 9, DEVICE, PortNumber.portNumber(in), PortNumber.portNumber(out), DESTINATION);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.onlab.util.SharedExecutors;
+import org.onosproject.net.Link;
+import org.onosproject.net.LinkKey;
+
+import java.util.*;
+
+/**
+ * The service harness loaded with connections for the benchmarks. Every connection joins two hosts of its own,
+ * attached to random edge devices, so that any number of connections can be established; the load is the same
+ * for a given topology and number of connections.
+ */
+public class BenchmarkNetwork {
+
+    // bandwidth of each connection, the links are large enough for all of them
+    public final static int BANDWIDTH = 1;
+    private final static int CAPACITY = 1_000_000;
+
+    // demands admitted by each batch while loading
+    private final static int LOAD_BATCH = 1000;
+
+    private final static long SEED = 42;
+
+    public final ServiceHarness harness;
+
+    private final List<Demand> demands = new ArrayList<>();
+
+    private final List<Connection> connections = new ArrayList<>();
+
+    /* Synthetic topology by name: linear, fatTree or randomMesh */
+    public static TestTopology topology(String name){
+        switch (name){
+            case "linear":
+                return TestTopology.linear(16);
+            case "fatTree":
+                return TestTopology.fatTree(8);
+            case "randomMesh":
+                return TestTopology.randomMesh(100, 100, SEED);
+            default:
+                throw new IllegalArgumentException("Unknown topology " + name);
+        }
+    }
+
+    /* The topology with the specified number of connections established */
+    public BenchmarkNetwork(String topology, int connections) throws Exception{
+        this.harness = new ServiceHarness(topology(topology), CAPACITY);
+
+        List<Integer> edges = harness.topology.edges();
+        Random random = new Random(SEED);
+        for (int i = 0; i < connections; i++){
+            int a = edges.get(random.nextInt(edges.size()));
+            int b;
+            do {
+                b = edges.get(random.nextInt(edges.size()));
+            } while (b == a);
+            demands.add(new Demand(harness.addHost(a), harness.addHost(b), BANDWIDTH));
+        }
+
+        for (int i = 0; i < demands.size(); i += LOAD_BATCH)
+            this.connections.addAll(admit(demands.subList(i, Math.min(i + LOAD_BATCH, demands.size()))));
+        harness.clearBatches();
+    }
+
+    /* Link carrying the most connections, in either direction */
+    public Link busiestLink(){
+        Map<LinkKey, Integer> load = new HashMap<>();
+        Map<LinkKey, Link> links = new HashMap<>();
+        for (List<Link> path : harness.service.getConnections().values())
+            for (Link l : path){
+                Link forward = l.src().deviceId().toString().compareTo(l.dst().deviceId().toString()) < 0 ? l : harness.topology.opposite(l);
+                LinkKey k = LinkKey.linkKey(forward);
+                load.merge(k, 1, Integer::sum);
+                links.putIfAbsent(k, forward);
+            }
+        return links.get(Collections.max(load.entrySet(), Map.Entry.comparingByValue()).getKey());
+    }
+
+    /* Connections currently established over the link, in either direction */
+    public int connectionsOn(Link link){
+        int n = 0;
+        for (List<Link> path : harness.service.getConnections().values())
+            for (Link l : path)
+                if (l.equals(link) || l.equals(harness.topology.opposite(link))){
+                    n++;
+                    break;
+                }
+        return n;
+    }
+
+    /* Establish again the connections withdrawn since the load, e.g. for lack of a path after a failure */
+    public void refill() throws Exception{
+        Set<Connection> established = harness.service.getConnections().keySet();
+        List<Demand> missing = new ArrayList<>();
+        for (int i = 0; i < connections.size(); i++)
+            if (!established.contains(connections.get(i)))
+                missing.add(demands.get(i));
+
+        for (int i = 0; i < missing.size(); i += LOAD_BATCH)
+            admit(missing.subList(i, Math.min(i + LOAD_BATCH, missing.size())));
+        harness.clearBatches();
+    }
+
+    /* Stop the service and the shared timer of its accumulators, which would keep the forked VM of the trial alive */
+    public void close(){
+        harness.deactivate();
+        SharedExecutors.shutdown();
+    }
+
+    /* Admit the demands. The connections are in the order of the demands: a batch is admitted largest first
+     * and all the demands have the same bandwidth */
+    private List<Connection> admit(List<Demand> batch) throws Exception{
+        BatchReport report = ServiceHarness.await(harness.service.createConnectionsAsync(batch));
+        if (!report.getRejected().isEmpty())
+            throw new IllegalStateException("Cannot load the network: " + report.getRejected().get(0).right);
+        return report.getAdmitted();
+    }
+}
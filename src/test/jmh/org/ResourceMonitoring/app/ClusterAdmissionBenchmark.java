@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.onlab.util.SharedExecutors;
+import org.onosproject.cluster.ClusterService;
+import org.onosproject.cluster.ControllerNode;
+import org.onosproject.cluster.DefaultControllerNode;
+import org.onosproject.cluster.NodeId;
+import org.onosproject.net.HostId;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission throughput of a cluster sharing its reservations, as the number of instances grows. The instances run
+ * in the same JVM on the same fat-tree and share an in-memory stand-in of the storage service. Each of them admits
+ * its share of the demands at the same time, so their transactions on the bandwidth of the common links conflict
+ * and are retried. The network already carries connections of every instance.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// the Kryo serializer of the distributed store reflects on JDK internals, closed by default since Java 16
+@Fork(value = 1, jvmArgsAppend = {"--add-opens=java.base/java.lang.invoke=ALL-UNNAMED",
+                                  "--add-opens=java.base/java.util=ALL-UNNAMED",
+                                  "--add-opens=java.base/java.util.concurrent.atomic=ALL-UNNAMED"})
+public class ClusterAdmissionBenchmark {
+
+    // demands admitted by each invocation, shared out evenly between the instances
+    private final static int DEMANDS = 120;
+
+    // connections established before the measurement
+    private final static int LOAD = 1000;
+
+    private final static int CAPACITY = 1_000_000;
+
+    private final static long SEED = 42;
+
+    @Param({"1", "3", "5"})
+    public int instances;
+
+    private final List<ServiceHarness> cluster = new ArrayList<>();
+
+    // demands admitted by each instance
+    private final List<List<Demand>> demands = new ArrayList<>();
+
+    public static class FakeClusterService {
+        private final ControllerNode local;
+
+        FakeClusterService(NodeId node){
+            this.local = new DefaultControllerNode(node, "127.0.0.1");
+        }
+
+        public ControllerNode getLocalNode(){
+            return local;
+        }
+
+        public ControllerNode.State getState(NodeId node){
+            return ControllerNode.State.ACTIVE;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception{
+        ClusterStorage storage = new ClusterStorage();
+        for (int i = 0; i < instances; i++){
+            ClusterService clusterService = Fakes.of(ClusterService.class, new FakeClusterService(NodeId.nodeId("rs-" + (i + 1))));
+            cluster.add(new ServiceHarness(BenchmarkNetwork.topology("fatTree"), CAPACITY, storage.service, clusterService));
+            demands.add(new ArrayList<>());
+        }
+
+        Random random = new Random(SEED);
+        List<List<Demand>> load = new ArrayList<>();
+        for (int i = 0; i < instances; i++)
+            load.add(new ArrayList<>());
+        for (int d = 0; d < LOAD; d++)
+            load.get(d % instances).add(demand(cluster.get(d % instances), random));
+        for (int i = 0; i < instances; i++)
+            ServiceHarness.await(cluster.get(i).service.createConnectionsAsync(load.get(i)));
+
+        for (int d = 0; d < DEMANDS; d++)
+            demands.get(d % instances).add(demand(cluster.get(d % instances), random));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        cluster.forEach(ServiceHarness::deactivate);
+        SharedExecutors.shutdown();
+    }
+
+    /* Withdraw the connections admitted by the invocation */
+    @TearDown(Level.Invocation)
+    public void withdraw() throws Exception{
+        List<CompletableFuture<Connection>> withdrawn = new ArrayList<>();
+        for (int i = 0; i < instances; i++)
+            for (Demand d : demands.get(i))
+                withdrawn.add(cluster.get(i).service.deleteConnectionAsync(d.source, d.destination));
+        for (CompletableFuture<Connection> f : withdrawn)
+            ServiceHarness.await(f);
+    }
+
+    /* Every instance admits its demands concurrently with the others; the throughput counts the demands */
+    @Benchmark
+    @OperationsPerInvocation(DEMANDS)
+    public int admit() throws Exception{
+        List<CompletableFuture<Connection>> admitted = new ArrayList<>();
+        for (int i = 0; i < instances; i++)
+            for (Demand d : demands.get(i))
+                admitted.add(cluster.get(i).service.createConnectionAsync(d.source, d.destination, d.bandwidth));
+        for (CompletableFuture<Connection> f : admitted)
+            ServiceHarness.await(f);
+        return admitted.size();
+    }
+
+    /* Demand between two new hosts of the instance, on random distinct edge switches */
+    private static Demand demand(ServiceHarness instance, Random random){
+        List<Integer> edges = instance.topology.edges();
+        int a = edges.get(random.nextInt(edges.size()));
+        int b;
+        do {
+            b = edges.get(random.nextInt(edges.size()));
+        } while (b == a);
+        HostId source = instance.addHost(a), destination = instance.addHost(b);
+        return new Demand(source, destination, BenchmarkNetwork.BANDWIDTH);
+    }
+}
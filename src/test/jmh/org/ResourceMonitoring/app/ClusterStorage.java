@@ -0,0 +1,252 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.onosproject.store.service.*;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * In-memory stand-in of the storage service shared by the instances of a simulated cluster. Consistent maps keep
+ * the values encoded by their serializer, each with a version. Transactions commit optimistically: a commit fails
+ * if an entry the transaction read changed meanwhile, as with the distributed primitives. Map events are delivered
+ * in the order of the changes, before the change returns.
+ */
+public class ClusterStorage {
+
+    public final StorageService service = Fakes.of(StorageService.class, new FakeStorageService());
+
+    // entries of each map, changed only while holding the lock of the storage
+    private final Map<String, Map<Object, Versioned<byte[]>>> maps = new HashMap<>();
+
+    private final Map<String, Serializer> serializers = new HashMap<>();
+
+    private final Map<String, List<MapEventListener<Object, Object>>> listeners = new HashMap<>();
+
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    private long version = 0;
+
+    public class FakeStorageService {
+        public <K, V> ConsistentMapBuilder<K, V> consistentMapBuilder(){
+            return new ConsistentMapBuilder<K, V>() {
+                @Override
+                public ConsistentMap<K, V> build(){
+                    synchronized (ClusterStorage.this){
+                        serializers.put(name(), serializer());
+                    }
+                    return Fakes.of(ConsistentMap.class, new FakeConsistentMap(name()));
+                }
+
+                @Override
+                public AsyncConsistentMap<K, V> buildAsyncMap(){
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        public AtomicCounter getAtomicCounter(String name){
+            return Fakes.of(AtomicCounter.class, new FakeAtomicCounter(counters.computeIfAbsent(name, n -> new AtomicLong())));
+        }
+
+        public TransactionContextBuilder transactionContextBuilder(){
+            return new TransactionContextBuilder() {
+                @Override
+                public TransactionContext build(){
+                    return Fakes.of(TransactionContext.class, new FakeTransactionContext());
+                }
+            };
+        }
+    }
+
+    public class FakeConsistentMap {
+        private final String name;
+
+        FakeConsistentMap(String name){
+            this.name = name;
+        }
+
+        public Versioned<Object> get(Object key){
+            synchronized (ClusterStorage.this){
+                return decode(name, entries(name).get(key));
+            }
+        }
+
+        public Versioned<Object> computeIfPresent(Object key, BiFunction<Object, Object, Object> remapping){
+            synchronized (ClusterStorage.this){
+                Versioned<Object> current = decode(name, entries(name).get(key));
+                if (current == null)
+                    return null;
+                return write(name, key, remapping.apply(key, current.value()));
+            }
+        }
+
+        public Collection<Versioned<Object>> values(){
+            List<Versioned<Object>> values = new ArrayList<>();
+            synchronized (ClusterStorage.this){
+                entries(name).values().forEach(v -> values.add(decode(name, v)));
+            }
+            return values;
+        }
+
+        public Set<Map.Entry<Object, Versioned<Object>>> entrySet(){
+            Map<Object, Versioned<Object>> entries = new HashMap<>();
+            synchronized (ClusterStorage.this){
+                entries(name).forEach((k, v) -> entries.put(k, decode(name, v)));
+            }
+            return entries.entrySet();
+        }
+
+        public void addListener(MapEventListener<Object, Object> listener){
+            synchronized (ClusterStorage.this){
+                listeners.computeIfAbsent(name, n -> new ArrayList<>()).add(listener);
+            }
+        }
+
+        public void addListener(MapEventListener<Object, Object> listener, Executor executor){
+            addListener(listener);
+        }
+
+        public void removeListener(MapEventListener<Object, Object> listener){
+            synchronized (ClusterStorage.this){
+                listeners.getOrDefault(name, new ArrayList<>()).remove(listener);
+            }
+        }
+    }
+
+    public static class FakeAtomicCounter {
+        private final AtomicLong value;
+
+        FakeAtomicCounter(AtomicLong value){
+            this.value = value;
+        }
+
+        public long incrementAndGet(){
+            return value.incrementAndGet();
+        }
+
+        public long get(){
+            return value.get();
+        }
+
+        public boolean compareAndSet(long expected, long update){
+            return value.compareAndSet(expected, update);
+        }
+    }
+
+    public class FakeTransactionContext {
+        // version of every entry read, 0 if absent, and the values written, null if removed
+        private final Map<ImmutablePair<String, Object>, Long> reads = new HashMap<>();
+        private final Map<ImmutablePair<String, Object>, Object> writes = new LinkedHashMap<>();
+
+        public void begin(){
+        }
+
+        public void abort(){
+            reads.clear();
+            writes.clear();
+        }
+
+        public TransactionalMap<Object, Object> getTransactionalMap(String name, Serializer serializer){
+            synchronized (ClusterStorage.this){
+                serializers.putIfAbsent(name, serializer);
+            }
+            return Fakes.of(TransactionalMap.class, new FakeTransactionalMap(this, name));
+        }
+
+        public CompletableFuture<CommitStatus> commit(){
+            synchronized (ClusterStorage.this){
+                for (Map.Entry<ImmutablePair<String, Object>, Long> r : reads.entrySet()){
+                    Versioned<byte[]> current = entries(r.getKey().left).get(r.getKey().right);
+                    if ((current == null ? 0 : current.version()) != r.getValue())
+                        return CompletableFuture.completedFuture(CommitStatus.FAILURE);
+                }
+
+                writes.forEach((k, v) -> write(k.left, k.right, v));
+            }
+            return CompletableFuture.completedFuture(CommitStatus.SUCCESS);
+        }
+    }
+
+    public class FakeTransactionalMap {
+        private final FakeTransactionContext tx;
+        private final String name;
+
+        FakeTransactionalMap(FakeTransactionContext tx, String name){
+            this.tx = tx;
+            this.name = name;
+        }
+
+        public Object get(Object key){
+            ImmutablePair<String, Object> k = new ImmutablePair<>(name, key);
+            if (tx.writes.containsKey(k))
+                return tx.writes.get(k);
+
+            synchronized (ClusterStorage.this){
+                Versioned<Object> v = decode(name, entries(name).get(key));
+                tx.reads.putIfAbsent(k, v == null ? 0 : v.version());
+                return v == null ? null : v.value();
+            }
+        }
+
+        public Object put(Object key, Object value){
+            Object previous = get(key);
+            tx.writes.put(new ImmutablePair<>(name, key), value);
+            return previous;
+        }
+
+        public Object remove(Object key){
+            Object previous = get(key);
+            tx.writes.put(new ImmutablePair<>(name, key), null);
+            return previous;
+        }
+    }
+
+    private Map<Object, Versioned<byte[]>> entries(String name){
+        return maps.computeIfAbsent(name, n -> new HashMap<>());
+    }
+
+    /* Store the value, or remove the entry if null, and notify the listeners of the map. Called holding the lock */
+    private Versioned<Object> write(String name, Object key, Object value){
+        Versioned<Object> old = decode(name, entries(name).get(key));
+        Versioned<Object> updated = null;
+        MapEvent.Type type;
+        if (value == null){
+            if (entries(name).remove(key) == null)
+                return null;
+            type = MapEvent.Type.REMOVE;
+        } else {
+            long v = ++version;
+            entries(name).put(key, new Versioned<>(serializers.get(name).encode(value), v));
+            updated = new Versioned<>(value, v);
+            type = old == null ? MapEvent.Type.INSERT : MapEvent.Type.UPDATE;
+        }
+
+        MapEvent<Object, Object> event = new MapEvent<>(type, name, key, updated, old);
+        listeners.getOrDefault(name, Collections.emptyList()).forEach(l -> l.event(event));
+        return updated;
+    }
+
+    private Versioned<Object> decode(String name, Versioned<byte[]> v){
+        return v == null ? null : new Versioned<>(serializers.get(name).decode(v.value()), v.version());
+    }
+}
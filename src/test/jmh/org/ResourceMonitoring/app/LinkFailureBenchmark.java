@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.onosproject.net.Link;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to recover from the failure of the busiest link, from the link event to the confirmation of the rules
+ * of the last affected connection. It includes the wait of the failure accumulator for more failures.
+ * On a linear topology there is no other path, the affected connections are withdrawn.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LinkFailureBenchmark {
+
+    @Param({"linear", "fatTree", "randomMesh"})
+    public String topology;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int connections;
+
+    // time given to the reroute of the connections over the failed link
+    private final static long REROUTE_TIMEOUT_MS = 120_000;
+
+    private BenchmarkNetwork network;
+
+    private Link failed;
+
+    // batches of rules expected once every affected connection is rerouted or withdrawn
+    private int expected;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception{
+        network = new BenchmarkNetwork(topology, connections);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        network.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void pickLink(){
+        failed = network.busiestLink();
+        expected = network.harness.batchCount() + network.connectionsOn(failed);
+    }
+
+    @TearDown(Level.Invocation)
+    public void restoreLink() throws Exception{
+        network.harness.restoreLink(failed);
+        network.refill();
+    }
+
+    /* Fail the link and wait until each connection over it is moved or withdrawn */
+    @Benchmark
+    public int rerouteOnLinkFailure() throws Exception{
+        network.harness.failLink(failed);
+        if (!ServiceHarness.waitUntil(() -> network.harness.batchCount() >= expected, REROUTE_TIMEOUT_MS))
+            throw new IllegalStateException("Connections over " + failed + " not rerouted in time");
+        return network.harness.batchCount();
+    }
+}
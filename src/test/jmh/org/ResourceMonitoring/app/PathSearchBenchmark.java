@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.onlab.graph.AdjacencyListsGraph;
+import org.onlab.graph.Graph;
+import org.onlab.graph.LazyKShortestPathsSearch;
+import org.onlab.graph.Path;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Link;
+import org.onosproject.net.topology.DefaultTopologyEdge;
+import org.onosproject.net.topology.DefaultTopologyVertex;
+import org.onosproject.net.topology.HopCountLinkWeigher;
+import org.onosproject.net.topology.TopologyEdge;
+import org.onosproject.net.topology.TopologyVertex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bandwidth constrained search against the previous path selection, which streamed the k shortest paths of the
+ * topology and kept the first one with enough bandwidth on every link. Fat-trees of 1125 and 1280 switches carry
+ * a random load leaving a fraction of the links without enough bandwidth, so that the shortest paths are often
+ * not feasible.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathSearchBenchmark {
+
+    private final static int BANDWIDTH = 10;
+    private final static int CAPACITY = 100;
+    private final static int PAIRS = 64;
+    private final static long SEED = 42;
+
+    // ports of the fat-tree switches
+    @Param({"30", "32"})
+    public int k;
+
+    // fraction of the links left with less than the requested bandwidth
+    @Param({"0.2", "0.5"})
+    public double saturated;
+
+    private final ConstrainedPathFinder finder = new ConstrainedPathFinder();
+
+    private final LazyKShortestPathsSearch<TopologyVertex, TopologyEdge> search = new LazyKShortestPathsSearch<>();
+
+    private Graph<TopologyVertex, TopologyEdge> graph;
+
+    private final Map<Link, Integer> available = new HashMap<>();
+
+    // edge switches in different pods, all connected by at least one feasible path
+    private final List<DeviceId[]> pairs = new ArrayList<>();
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        TestTopology topology = TestTopology.fatTree(k);
+        Random random = new Random(SEED);
+
+        // both directions of a link carry the same connections
+        for (Link l : topology.links()){
+            if (available.containsKey(l))
+                continue;
+            int residual = random.nextDouble() < saturated ? random.nextInt(BANDWIDTH) : BANDWIDTH + random.nextInt(CAPACITY - BANDWIDTH);
+            available.put(l, residual);
+            available.put(topology.opposite(l), residual);
+        }
+
+        finder.rebuild(topology.links());
+
+        Map<DeviceId, TopologyVertex> vertexes = new HashMap<>();
+        Set<TopologyEdge> edges = new HashSet<>();
+        for (Link l : topology.links()){
+            TopologyVertex src = vertexes.computeIfAbsent(l.src().deviceId(), DefaultTopologyVertex::new);
+            TopologyVertex dst = vertexes.computeIfAbsent(l.dst().deviceId(), DefaultTopologyVertex::new);
+            edges.add(new DefaultTopologyEdge(src, dst, l));
+        }
+        graph = new AdjacencyListsGraph<>(new HashSet<>(vertexes.values()), edges);
+
+        List<Integer> hosts = topology.edges();
+        int perPod = k / 2;
+        while (pairs.size() < PAIRS){
+            int a = random.nextInt(hosts.size()), b = random.nextInt(hosts.size());
+            if (a / perPod == b / perPod)
+                continue; // same pod, the paths do not reach the core
+            DeviceId source = topology.device(hosts.get(a)), destination = topology.device(hosts.get(b));
+            if (finder.findPath(source, destination, BANDWIDTH, available::get, ConstrainedPathFinder.Weight.HOP_COUNT).isPresent())
+                pairs.add(new DeviceId[]{source, destination});
+        }
+    }
+
+    /* Pruned Dijkstra over the adjacency snapshot */
+    @Benchmark
+    public Optional<List<Link>> constrainedSearch(){
+        DeviceId[] pair = nextPair();
+        return finder.findPath(pair[0], pair[1], BANDWIDTH, available::get, ConstrainedPathFinder.Weight.HOP_COUNT);
+    }
+
+    /* Shortest paths enumerated lazily by hop count, the first one with enough bandwidth on its links is taken */
+    @Benchmark
+    public Optional<Path<TopologyVertex, TopologyEdge>> kShortestPathsFilter(){
+        DeviceId[] pair = nextPair();
+        return search.lazyPathSearch(graph, new DefaultTopologyVertex(pair[0]), new DefaultTopologyVertex(pair[1]),
+                                     HopCountLinkWeigher.DEFAULT_HOP_COUNT_WEIGHER)
+                     .filter(this::hasEnoughResource)
+                     .findFirst();
+    }
+
+    private boolean hasEnoughResource(Path<TopologyVertex, TopologyEdge> p){
+        for (TopologyEdge e : p.edges())
+            if (available.get(e.link()) < BANDWIDTH)
+                return false;
+
+        return true;
+    }
+
+    private DeviceId[] nextPair(){
+        DeviceId[] pair = pairs.get(next);
+        next = (next + 1) % pairs.size();
+        return pair;
+    }
+}
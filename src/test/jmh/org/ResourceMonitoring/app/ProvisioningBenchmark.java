@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.onosproject.net.HostId;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of provisioning on a network already carrying many connections: install and withdraw of a single
+ * connection, and admission of a batch of demands.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProvisioningBenchmark {
+
+    private final static int BATCH = 100;
+
+    @Param({"linear", "fatTree", "randomMesh"})
+    public String topology;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int connections;
+
+    private BenchmarkNetwork network;
+
+    // endpoints of the connection installed and withdrawn, at the ends of the network
+    private HostId source, destination;
+
+    private final List<Demand> batch = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception{
+        network = new BenchmarkNetwork(topology, connections);
+        ServiceHarness harness = network.harness;
+
+        List<Integer> edges = harness.topology.edges();
+        source = harness.addHost(edges.get(0));
+        destination = harness.addHost(edges.get(edges.size() - 1));
+
+        for (int i = 0; i < BATCH; i++)
+            batch.add(new Demand(harness.addHost(edges.get(i % edges.size())),
+                                 harness.addHost(edges.get((i + edges.size() / 2) % edges.size())),
+                                 BenchmarkNetwork.BANDWIDTH));
+    }
+
+    @Setup(Level.Iteration)
+    public void forgetBatches(){
+        network.harness.clearBatches();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        network.close();
+    }
+
+    /* Install a connection and withdraw it, each confirmed by the devices */
+    @Benchmark
+    public Connection installAndWithdraw() throws Exception{
+        Connection c = ServiceHarness.await(network.harness.service.createConnectionAsync(source, destination, BenchmarkNetwork.BANDWIDTH));
+        ServiceHarness.await(network.harness.service.deleteConnectionAsync(source, destination));
+        return c;
+    }
+
+    /* Admit a batch of demands, then withdraw them; the time is per demand */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public BatchReport admitBatchAndWithdraw() throws Exception{
+        BatchReport report = ServiceHarness.await(network.harness.service.createConnectionsAsync(batch));
+        for (Demand d : batch)
+            ServiceHarness.await(network.harness.service.deleteConnectionAsync(d.source, d.destination));
+        return report;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ResourceMonitoring.app;
+
+import org.onosproject.net.HostId;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the withdraw of a connection alone, confirmed by the devices, as the number of connections already
+ * installed on the fat-tree grows. The connection is installed again before every invocation, out of the timing;
+ * the withdraw touches only the rules and meters recorded for it, so its latency should not depend on the others.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WithdrawBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int installed;
+
+    private BenchmarkNetwork network;
+
+    // endpoints of the connection withdrawn, at the ends of the network
+    private HostId source, destination;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception{
+        network = new BenchmarkNetwork("fatTree", installed);
+
+        List<Integer> edges = network.harness.topology.edges();
+        source = network.harness.addHost(edges.get(0));
+        destination = network.harness.addHost(edges.get(edges.size() - 1));
+    }
+
+    @Setup(Level.Iteration)
+    public void forgetBatches(){
+        network.harness.clearBatches();
+    }
+
+    @Setup(Level.Invocation)
+    public void install() throws Exception{
+        ServiceHarness.await(network.harness.service.createConnectionAsync(source, destination, BenchmarkNetwork.BANDWIDTH));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        network.close();
+    }
+
+    /* Withdraw the connection, confirmed by the devices */
+    @Benchmark
+    public Connection withdraw() throws Exception{
+        return ServiceHarness.await(network.harness.service.deleteConnectionAsync(source, destination));
+    }
+}